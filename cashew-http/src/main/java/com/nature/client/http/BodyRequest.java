@@ -1,5 +1,7 @@
 package com.nature.client.http;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -54,6 +56,20 @@ public abstract class BodyRequest extends SenderRequest {
 		return this;
 	}
 
+	/**
+	 * File body has known length and can be sent repeatedly. Senders stream it with fixed Content-Length
+	 */
+	public SenderRequest setBodyFile(File file, String contentType) {
+		if (file == null) {
+			throw new IllegalArgumentException("Body file is null");
+		}
+		if (!file.isFile() || !file.canRead()) {
+			throw new IllegalArgumentException("Body file is not readable " + file);
+		}
+		setBodyStream(new FileWrappingStream(file), contentType);
+		return this;
+	}
+
 	/*
 		public SenderRequest setBodyStream(InputStream stream) {
 			if (stream == null) {
@@ -93,4 +109,54 @@ public abstract class BodyRequest extends SenderRequest {
 		}
 
 	}
+
+	/**
+	 * File body. Senders which know it use File directly, others read it as ordinary stream
+	 */
+	static class FileWrappingStream extends InputStream {
+
+		private final File file;
+
+		private final long length;
+
+		private InputStream stream;
+
+		public FileWrappingStream(File file) {
+			this.file = file;
+			this.length = file.length();
+		}
+
+		public File getFile() {
+			return this.file;
+		}
+
+		public long getLength() {
+			return this.length;
+		}
+
+		private InputStream getStream() throws IOException {
+			if (this.stream == null) {
+				this.stream = new FileInputStream(this.file);
+			}
+			return this.stream;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return getStream().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return getStream().read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.stream != null) {
+				this.stream.close();
+				this.stream = null;
+			}
+		}
+	}
 }
@@ -0,0 +1,161 @@
+package com.nature.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Thread local buffers reused by response reading. Buffer is taken out of thread on acquire and returned on release,
+ * so nested use on same thread gets fresh buffer instead of corrupting the outer one.
+ *
+ * Buffers grown over maximumRetained are not kept for reuse
+ *
+ * @author martin.vanek
+ *
+ */
+public class BufferPool {
+
+	private static volatile int bufferSize = 8 * 1024;
+
+	private static volatile int maximumRetained = 1024 * 1024;
+
+	private static volatile int directSize = 64 * 1024;
+
+	private static final ThreadLocal<PooledBuffer> buffers = new ThreadLocal<PooledBuffer>();
+
+	private static final ThreadLocal<ByteBuffer> directs = new ThreadLocal<ByteBuffer>();
+
+	/**
+	 * @return empty buffer. Must be released after use
+	 */
+	public static PooledBuffer acquire() {
+		PooledBuffer buffer = buffers.get();
+		if (buffer != null) {
+			buffers.remove();
+			buffer.length = 0;
+			return buffer;
+		}
+		return new PooledBuffer(bufferSize);
+	}
+
+	/**
+	 * Makes buffer available for reuse by current thread
+	 */
+	public static void release(PooledBuffer buffer) {
+		if (buffer != null && buffer.array.length <= maximumRetained) {
+			buffers.set(buffer);
+		}
+	}
+
+	/**
+	 * @return cleared direct ByteBuffer of directSize capacity. Should be released after use
+	 */
+	public static ByteBuffer acquireDirect() {
+		ByteBuffer buffer = directs.get();
+		if (buffer != null && buffer.capacity() == directSize) {
+			directs.remove();
+			buffer.clear();
+			return buffer;
+		}
+		return ByteBuffer.allocateDirect(directSize);
+	}
+
+	public static void releaseDirect(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect() && buffer.capacity() == directSize) {
+			directs.set(buffer);
+		}
+	}
+
+	/**
+	 * Initial size of new buffer
+	 */
+	public static int getBufferSize() {
+		return bufferSize;
+	}
+
+	public static void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize " + bufferSize + " must be >= 1");
+		}
+		BufferPool.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Biggest buffer kept for reuse. Bigger are left to garbage collector
+	 */
+	public static int getMaximumRetained() {
+		return maximumRetained;
+	}
+
+	public static void setMaximumRetained(int maximumRetained) {
+		BufferPool.maximumRetained = maximumRetained;
+	}
+
+	/**
+	 * Capacity of direct buffers used for channel transfers
+	 */
+	public static int getDirectSize() {
+		return directSize;
+	}
+
+	public static void setDirectSize(int directSize) {
+		if (directSize < 1) {
+			throw new IllegalArgumentException("directSize " + directSize + " must be >= 1");
+		}
+		BufferPool.directSize = directSize;
+	}
+
+	/**
+	 * Growable byte array. Stream is read directly into it, without intermediate copy buffer
+	 */
+	public static class PooledBuffer {
+
+		private byte[] array;
+
+		private int length;
+
+		private PooledBuffer(int size) {
+			this.array = new byte[size];
+		}
+
+		/**
+		 * Reads stream until EOF. Stream is not closed
+		 */
+		public PooledBuffer readFrom(InputStream input) throws IOException {
+			int read;
+			while (true) {
+				if (length == array.length) {
+					array = Arrays.copyOf(array, array.length * 2);
+				}
+				read = input.read(array, length, array.length - length);
+				if (read == -1) {
+					return this;
+				}
+				length += read;
+			}
+		}
+
+		public PooledBuffer write(byte[] bytes, int offset, int count) {
+			if (length + count > array.length) {
+				array = Arrays.copyOf(array, Math.max(array.length * 2, length + count));
+			}
+			System.arraycopy(bytes, offset, array, length, count);
+			length += count;
+			return this;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public byte[] toByteArray() {
+			return Arrays.copyOf(array, length);
+		}
+
+		public String toString(Charset charset) {
+			return new String(array, 0, length, charset);
+		}
+	}
+}
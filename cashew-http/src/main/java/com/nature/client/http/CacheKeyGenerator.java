@@ -0,0 +1,333 @@
+package com.nature.client.http;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.nature.client.http.HttpSender.Multival;
+
+/**
+ * Derives cache key from request method, sender base url, normalized path, parameters and selected headers. Material
+ * is hashed by 128 bit MurmurHash3 (x64 variant) and returned as hex string, optionally prefixed. Hex key is 32
+ * characters (16 for 64 bit key), so it fits into memcached 250 byte key limit and contains no characters memcached
+ * text protocol refuses.
+ *
+ * Parameters are hashed in sorted order of names, values of the same name in order they were added. Header names are
+ * case insensitive. Conditional headers (If-None-Match, If-Modified-Since, ...) are never part of the key, because
+ * CachingSender adds them when it revalidates cached response. Request body is not part of the key.
+ *
+ * Key is remembered by request and computed again only when request is modified
+ *
+ * @author martin.vanek
+ *
+ */
+public class CacheKeyGenerator {
+
+	/**
+	 * 128 bit hex keys without prefix, all headers except conditional ones
+	 */
+	public static final CacheKeyGenerator DEFAULT = new CacheKeyGenerator();
+
+	private static final int MEMCACHED_KEY_LIMIT = 250;
+
+	private static final Set<String> CONDITIONAL = new HashSet<String>(Arrays.asList("if-match", "if-none-match",
+			"if-modified-since", "if-unmodified-since", "if-range"));
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String prefix;
+
+	private final int bits;
+
+	private final Set<String> headers; //lowercase, null means all
+
+	public CacheKeyGenerator() {
+		this("", 128);
+	}
+
+	/**
+	 * @param prefix prepended to every key. Must not contain whitespace or control characters
+	 * @param bits 64 or 128
+	 * @param headers names of headers included in key. None means all headers except conditional ones
+	 */
+	public CacheKeyGenerator(String prefix, int bits, String... headers) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("null prefix");
+		}
+		for (int i = 0; i < prefix.length(); ++i) {
+			char c = prefix.charAt(i);
+			if (c <= ' ' || c == 0x7F) {
+				throw new IllegalArgumentException("prefix '" + prefix + "' contains whitespace or control character");
+			}
+		}
+		if (bits != 64 && bits != 128) {
+			throw new IllegalArgumentException("bits " + bits + " must be 64 or 128");
+		}
+		if (prefix.length() + bits / 4 > MEMCACHED_KEY_LIMIT) {
+			throw new IllegalArgumentException("prefix '" + prefix + "' is too long for memcached key");
+		}
+		this.prefix = prefix;
+		this.bits = bits;
+		if (headers.length == 0) {
+			this.headers = null;
+		} else {
+			this.headers = new HashSet<String>();
+			for (String header : headers) {
+				if (Cutils.isBlank(header)) {
+					throw new IllegalArgumentException("blank header name");
+				}
+				this.headers.add(header.toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * @return prefixed hex key. Computed once and remembered by request until it is modified
+	 */
+	public String getKey(HttpSender sender, SenderRequest request) {
+		String key = request.getCacheKey(this, sender);
+		if (key == null) {
+			long[] hash = hash(sender, request);
+			StringBuilder sb = new StringBuilder(prefix.length() + bits / 4);
+			sb.append(prefix);
+			appendHex(hash[0], sb);
+			if (bits == 128) {
+				appendHex(hash[1], sb);
+			}
+			key = sb.toString();
+			request.setCacheKey(this, sender, key);
+		}
+		return key;
+	}
+
+	/**
+	 * @return binary form of the key (without prefix) - 8 or 16 bytes
+	 */
+	public byte[] getBinaryKey(HttpSender sender, SenderRequest request) {
+		long[] hash = hash(sender, request);
+		byte[] bytes = new byte[bits / 8];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = (byte) (hash[i / 8] >>> (56 - 8 * (i % 8)));
+		}
+		return bytes;
+	}
+
+	private long[] hash(HttpSender sender, SenderRequest request) {
+		Material material = new Material();
+		material.add(request.getMethod().name());
+		URL url = sender.getConfig().getUrl();
+		material.add(url.getProtocol().toLowerCase());
+		material.add(url.getHost().toLowerCase());
+		material.add(url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+		material.add(normalize(sender.joinPath(request.getUrlPath())));
+
+		Multival parameters = request.getParameters();
+		if (parameters != null) {
+			for (String name : parameters) {
+				material.add(name);
+				add(parameters.get(name), material);
+			}
+		}
+		material.add(-1); //separates parameters from headers
+		Multival headers = request.getHeaders();
+		if (headers != null) {
+			for (String name : headers) {
+				String lower = name.toLowerCase();
+				if (include(lower)) {
+					material.add(lower);
+					add(headers.get(name), material);
+				}
+			}
+		}
+		return murmur3(material.bytes, material.length, 0);
+	}
+
+	private boolean include(String lowerName) {
+		if (CONDITIONAL.contains(lowerName)) {
+			return false;
+		}
+		return headers == null || headers.contains(lowerName);
+	}
+
+	private static void add(List<String> values, Material material) {
+		material.add(values.size());
+		for (int i = 0; i < values.size(); ++i) {
+			material.add(values.get(i));
+		}
+	}
+
+	/**
+	 * Collapses repeated slashes in path part
+	 */
+	private static String normalize(String path) {
+		int query = path.indexOf('?');
+		int end = query != -1 ? query : path.length();
+		if (path.indexOf("//") == -1 || path.indexOf("//") >= end) {
+			return path;
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		for (int i = 0; i < end; ++i) {
+			char c = path.charAt(i);
+			if (c != '/' || sb.length() == 0 || sb.charAt(sb.length() - 1) != '/') {
+				sb.append(c);
+			}
+		}
+		sb.append(path, end, path.length());
+		return sb.toString();
+	}
+
+	private static void appendHex(long value, StringBuilder sb) {
+		for (int shift = 60; shift >= 0; shift -= 4) {
+			sb.append(HEX[(int) (value >>> shift) & 0xF]);
+		}
+	}
+
+	/**
+	 * Growable byte array. Strings are written as length and UTF-16 chars, so no two different sequences of strings
+	 * produce the same bytes
+	 */
+	private static class Material {
+
+		private byte[] bytes = new byte[256];
+
+		private int length;
+
+		public void add(String string) {
+			int chars = string.length();
+			add(chars);
+			ensure(chars * 2);
+			for (int i = 0; i < chars; ++i) {
+				char c = string.charAt(i);
+				bytes[length++] = (byte) c;
+				bytes[length++] = (byte) (c >>> 8);
+			}
+		}
+
+		public void add(int value) {
+			ensure(4);
+			bytes[length++] = (byte) value;
+			bytes[length++] = (byte) (value >>> 8);
+			bytes[length++] = (byte) (value >>> 16);
+			bytes[length++] = (byte) (value >>> 24);
+		}
+
+		private void ensure(int more) {
+			if (length + more > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(length + more, bytes.length * 2));
+			}
+		}
+	}
+
+	private static final long C1 = 0x87c37b91114253d5L;
+
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	/**
+	 * MurmurHash3_x64_128 of first length bytes
+	 *
+	 * @return h1 and h2
+	 */
+	@SuppressWarnings("fallthrough")
+	static long[] murmur3(byte[] data, int length, long seed) {
+		long h1 = seed;
+		long h2 = seed;
+		int blocks = length / 16;
+		for (int i = 0; i < blocks; ++i) {
+			long k1 = getLong(data, i * 16);
+			long k2 = getLong(data, i * 16 + 8);
+
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = blocks * 16;
+		long k1 = 0;
+		long k2 = 0;
+		switch (length & 15) { //falls through on purpose - every case mixes one more tail byte
+		case 15:
+			k2 ^= (data[tail + 14] & 0xFFL) << 48;
+		case 14:
+			k2 ^= (data[tail + 13] & 0xFFL) << 40;
+		case 13:
+			k2 ^= (data[tail + 12] & 0xFFL) << 32;
+		case 12:
+			k2 ^= (data[tail + 11] & 0xFFL) << 24;
+		case 11:
+			k2 ^= (data[tail + 10] & 0xFFL) << 16;
+		case 10:
+			k2 ^= (data[tail + 9] & 0xFFL) << 8;
+		case 9:
+			k2 ^= data[tail + 8] & 0xFFL;
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+		case 8:
+			k1 ^= (data[tail + 7] & 0xFFL) << 56;
+		case 7:
+			k1 ^= (data[tail + 6] & 0xFFL) << 48;
+		case 6:
+			k1 ^= (data[tail + 5] & 0xFFL) << 40;
+		case 5:
+			k1 ^= (data[tail + 4] & 0xFFL) << 32;
+		case 4:
+			k1 ^= (data[tail + 3] & 0xFFL) << 24;
+		case 3:
+			k1 ^= (data[tail + 2] & 0xFFL) << 16;
+		case 2:
+			k1 ^= (data[tail + 1] & 0xFFL) << 8;
+		case 1:
+			k1 ^= data[tail] & 0xFFL;
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		return (data[offset] & 0xFFL) | (data[offset + 1] & 0xFFL) << 8 | (data[offset + 2] & 0xFFL) << 16
+				| (data[offset + 3] & 0xFFL) << 24 | (data[offset + 4] & 0xFFL) << 32 | (data[offset + 5] & 0xFFL) << 40
+				| (data[offset + 6] & 0xFFL) << 48 | (data[offset + 7] & 0xFFL) << 56;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheKeyGenerator [prefix=" + prefix + ", bits=" + bits + ", headers=" + (headers != null ? headers : "*")
+				+ "]";
+	}
+}
@@ -0,0 +1,54 @@
+package com.nature.client.http;
+
+/**
+ * Result of response body download into channel or file. Response itself is already closed
+ *
+ * @author martin.vanek
+ *
+ */
+public class DownloadResult {
+
+	private final SenderResponse response;
+
+	private final long bytes;
+
+	private final long nanos;
+
+	public DownloadResult(SenderResponse response, long bytes, long nanos) {
+		this.response = response;
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+
+	public SenderResponse getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return number of body bytes written
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return time spent transferring body
+	 */
+	public long getMillis() {
+		return nanos / 1000000;
+	}
+
+	/**
+	 * @return transfer throughput
+	 */
+	public long getBytesPerSecond() {
+		return nanos > 0 ? (long) (bytes * 1000000000.0 / nanos) : bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "DownloadResult {" + response.getCode() + ", " + bytes + " bytes in " + getMillis() + " ms, "
+				+ getBytesPerSecond() / 1024 + " KB/s}";
+	}
+
+}
@@ -17,6 +17,7 @@ import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.StatusLine;
 import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.FileRequestEntity;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
@@ -25,6 +26,7 @@ import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.httpclient.util.EncodingUtil;
 
+import com.nature.client.http.BodyRequest.FileWrappingStream;
 import com.nature.client.http.BodyRequest.StringWrappingStream;
 
 /**
@@ -53,6 +55,11 @@ public class HttpClient3Sender extends HttpSender {
 		return config;
 	}
 
+	@Override
+	protected int getMaxParallel() {
+		return config.getPoolMaximum();
+	}
+
 	@Override
 	public void close() {
 		try {
@@ -161,7 +168,7 @@ public class HttpClient3Sender extends HttpSender {
 
 		Header[] responseHeaders = httpMethod.getResponseHeaders();
 
-		Multival outHeaders = new Multival();
+		Multival outHeaders = new Multival(true);
 		for (Header header : responseHeaders) {
 			outHeaders.add(header.getName(), header.getValue());
 		}
@@ -178,6 +185,8 @@ public class HttpClient3Sender extends HttpSender {
 			if (stream instanceof StringWrappingStream) {
 				//request.getContentType();
 				entity = new StringRequestEntity(((StringWrappingStream) stream).getString(), null, config.getEncoding());
+			} else if (stream instanceof FileWrappingStream) {
+				entity = new FileRequestEntity(((FileWrappingStream) stream).getFile(), null); //repeatable with known length
 			} else {
 				entity = new InputStreamRequestEntity(stream);
 			}
@@ -199,6 +208,8 @@ public class HttpClient3Sender extends HttpSender {
 			InputStream stream = ((BodyRequest) request).getBodyStream();
 			if (stream instanceof StringWrappingStream) {
 				entity = new StringRequestEntity(((StringWrappingStream) stream).getString(), null, config.getEncoding());
+			} else if (stream instanceof FileWrappingStream) {
+				entity = new FileRequestEntity(((FileWrappingStream) stream).getFile(), null); //repeatable with known length
 			} else {
 				entity = new InputStreamRequestEntity(stream);
 			}
@@ -215,7 +226,14 @@ public class HttpClient3Sender extends HttpSender {
 		return entity;
 	}
 
-	protected int call(HttpMethodBase httpRequest) throws IOException {
+	protected int call(final HttpMethodBase httpRequest) throws IOException {
+		abortWith(new Runnable() {
+
+			@Override
+			public void run() {
+				httpRequest.abort();
+			}
+		});
 		try {
 			return this.httpClient.executeMethod(httpRequest);
 		} catch (Exception x) {
@@ -23,11 +23,13 @@ import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.nature.client.http.BodyRequest.FileWrappingStream;
 import com.nature.client.http.BodyRequest.StringWrappingStream;
 
 /**
@@ -58,6 +60,11 @@ public class HttpClient4Sender extends HttpSender {
 		return config;
 	}
 
+	@Override
+	protected int getMaxParallel() {
+		return config.getPoolMaximum();
+	}
+
 	@Override
 	public void close() {
 		try {
@@ -165,7 +172,7 @@ public class HttpClient4Sender extends HttpSender {
 		HttpResponse httpResponse = call(httpRequest);
 
 		Header[] responseHeaders = httpResponse.getAllHeaders();
-		Multival outHeaders = new Multival();
+		Multival outHeaders = new Multival(true);
 		for (Header header : responseHeaders) {
 			outHeaders.add(header.getName(), header.getValue());
 		}
@@ -184,6 +191,8 @@ public class HttpClient4Sender extends HttpSender {
 			InputStream stream = ((BodyRequest) request).getBodyStream();
 			if (stream instanceof StringWrappingStream) {
 				entity = new StringEntity(((StringWrappingStream) stream).getString(), config.getCharset());
+			} else if (stream instanceof FileWrappingStream) {
+				entity = new FileEntity(((FileWrappingStream) stream).getFile()); //repeatable with known length
 			} else {
 				entity = new InputStreamEntity(stream, -1);
 			}
@@ -204,6 +213,8 @@ public class HttpClient4Sender extends HttpSender {
 			InputStream stream = ((BodyRequest) request).getBodyStream();
 			if (stream instanceof StringWrappingStream) {
 				entity = new StringEntity(((StringWrappingStream) stream).getString(), config.getCharset());
+			} else if (stream instanceof FileWrappingStream) {
+				entity = new FileEntity(((FileWrappingStream) stream).getFile()); //repeatable with known length
 			} else {
 				entity = new InputStreamEntity(stream, -1);
 			}
@@ -217,7 +228,14 @@ public class HttpClient4Sender extends HttpSender {
 		return entity;
 	}
 
-	protected HttpResponse call(HttpRequestBase httpRequest) throws IOException {
+	protected HttpResponse call(final HttpRequestBase httpRequest) throws IOException {
+		abortWith(new Runnable() {
+
+			@Override
+			public void run() {
+				httpRequest.abort();
+			}
+		});
 		try {
 			if (config.getAuthContext() != null) {
 				return this.httpClient.execute(httpRequest, config.getAuthContext());
@@ -62,7 +62,38 @@ public final class HttpDateUtil {
 	 *                            supported date formats
 	 */
 	public static Date parseDate(String dateValue) throws ParseException {
-		return parseDate(dateValue, null, null);
+		if (dateValue == null) {
+			throw new IllegalArgumentException("dateValue is null");
+		}
+		long epoch = parseEpoch(dateValue, Long.MIN_VALUE);
+		if (epoch == Long.MIN_VALUE) {
+			throw new ParseException("Unable to parse the date " + dateValue, 0);
+		}
+		return new Date(epoch);
+	}
+
+	/**
+	 * Parses RFC 1123, RFC 1036 or asctime date without SimpleDateFormat. Two digit years 70-99 are 19xx, others 20xx.
+	 * Last parsed value is remembered because servers send same Date for all responses within a second
+	 *
+	 * @param dateValue the date value to parse
+	 * @param defaultValue returned when dateValue is null or not a valid date
+	 * @return epoch millis
+	 */
+	public static long parseEpoch(String dateValue, long defaultValue) {
+		if (dateValue == null) {
+			return defaultValue;
+		}
+		Cached cached = lastParsed;
+		if (cached != null && cached.text.equals(dateValue)) {
+			return cached.epoch;
+		}
+		long epoch = parse(dateValue);
+		if (epoch == Long.MIN_VALUE) {
+			return defaultValue;
+		}
+		lastParsed = new Cached(dateValue, epoch);
+		return epoch;
 	}
 
 	/**
@@ -96,6 +127,9 @@ public final class HttpDateUtil {
 		if (dateValue == null) {
 			throw new IllegalArgumentException("dateValue is null");
 		}
+		if (dateFormats == null && startDate == null) {
+			return parseDate(dateValue);
+		}
 		if (dateFormats == null) {
 			dateFormats = DEFAULT_PATTERNS;
 		}
@@ -136,7 +170,60 @@ public final class HttpDateUtil {
 	 * @see #PATTERN_RFC1123
 	 */
 	public static String formatDate(Date date) {
-		return formatDate(date, PATTERN_RFC1123);
+		if (date == null) {
+			throw new IllegalArgumentException("date is null");
+		}
+		return formatEpoch(date.getTime());
+	}
+
+	/**
+	 * Formats epoch millis as RFC 1123 date. Last formatted value is remembered as it is same for the whole second
+	 *
+	 * @param epoch millis since 1970-01-01T00:00:00Z
+	 * @return An RFC 1123 formatted date string.
+	 */
+	public static String formatEpoch(long epoch) {
+		long seconds = floorDiv(epoch, 1000);
+		Cached cached = lastFormatted;
+		if (cached != null && cached.epoch == seconds) {
+			return cached.text;
+		}
+		long days = floorDiv(seconds, 86400);
+		int secondOfDay = (int) (seconds - days * 86400);
+		int[] date = toCivil(days);
+		int year = date[0];
+		if (year < 0 || year > 9999) {
+			return formatDate(new Date(epoch), PATTERN_RFC1123);
+		}
+		char[] chars = new char[29];
+		String weekday = WEEKDAYS[(int) floorMod(days + 4, 7)]; //1970-01-01 was Thursday
+		chars[0] = weekday.charAt(0);
+		chars[1] = weekday.charAt(1);
+		chars[2] = weekday.charAt(2);
+		chars[3] = ',';
+		chars[4] = ' ';
+		twoDigits(date[2], chars, 5);
+		chars[7] = ' ';
+		String month = MONTHS[date[1] - 1];
+		chars[8] = month.charAt(0);
+		chars[9] = month.charAt(1);
+		chars[10] = month.charAt(2);
+		chars[11] = ' ';
+		twoDigits(year / 100, chars, 12);
+		twoDigits(year % 100, chars, 14);
+		chars[16] = ' ';
+		twoDigits(secondOfDay / 3600, chars, 17);
+		chars[19] = ':';
+		twoDigits(secondOfDay / 60 % 60, chars, 20);
+		chars[22] = ':';
+		twoDigits(secondOfDay % 60, chars, 23);
+		chars[25] = ' ';
+		chars[26] = 'G';
+		chars[27] = 'M';
+		chars[28] = 'T';
+		String text = new String(chars);
+		lastFormatted = new Cached(text, seconds);
+		return text;
 	}
 
 	/**
@@ -163,4 +250,259 @@ public final class HttpDateUtil {
 		return formatter.format(date);
 	}
 
+	private static final String[] WEEKDAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+
+	private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov",
+			"Dec" };
+
+	/**
+	 * Immutable pair published through volatile field - readers see either old or new pair, never mix of both
+	 */
+	private static final class Cached {
+
+		private final String text;
+
+		private final long epoch;
+
+		private Cached(String text, long epoch) {
+			this.text = text;
+			this.epoch = epoch;
+		}
+	}
+
+	private static volatile Cached lastParsed;
+
+	private static volatile Cached lastFormatted;
+
+	/**
+	 * Cursor based parser. Weekday is skipped and not checked against date
+	 * 
+	 * @return epoch millis or Long.MIN_VALUE when value is not a date
+	 */
+	private static long parse(String value) {
+		int end = value.length();
+		int i = 0;
+		// trim single quotes around date if present
+		if (end > 1 && value.charAt(0) == '\'' && value.charAt(end - 1) == '\'') {
+			++i;
+			--end;
+		}
+		i = skipSpaces(value, i, end);
+		//weekday - Sun, Sunday, Sun
+		while (i < end && isLetter(value.charAt(i))) {
+			++i;
+		}
+		if (i < end && value.charAt(i) == ',') {
+			++i;
+		}
+		i = skipSpaces(value, i, end);
+		if (i >= end) {
+			return Long.MIN_VALUE;
+		}
+		int day;
+		int month;
+		int year;
+		long time;
+		if (isLetter(value.charAt(i))) {
+			//asctime - Nov  6 08:49:37 1994
+			month = month(value, i, end);
+			i = skipSpaces(value, i + 3, end);
+			int start = i;
+			day = 0;
+			while (i < end && isDigit(value.charAt(i)) && i - start < 2) {
+				day = day * 10 + value.charAt(i++) - '0';
+			}
+			if (i == start || i >= end || value.charAt(i) != ' ') {
+				return Long.MIN_VALUE;
+			}
+			i = skipSpaces(value, i, end);
+			time = time(value, i, end);
+			i = skipSpaces(value, i + 8, end);
+			start = i;
+			year = 0;
+			while (i < end && isDigit(value.charAt(i))) {
+				year = year * 10 + value.charAt(i++) - '0';
+			}
+			if (i - start != 4 || skipSpaces(value, i, end) != end) {
+				return Long.MIN_VALUE;
+			}
+		} else {
+			//RFC 1123 - 06 Nov 1994 08:49:37 GMT or RFC 1036 - 06-Nov-94 08:49:37 GMT
+			int start = i;
+			day = 0;
+			while (i < end && isDigit(value.charAt(i)) && i - start < 2) {
+				day = day * 10 + value.charAt(i++) - '0';
+			}
+			if (i == start || i >= end) {
+				return Long.MIN_VALUE;
+			}
+			char separator = value.charAt(i);
+			if (separator != ' ' && separator != '-') {
+				return Long.MIN_VALUE;
+			}
+			month = month(value, i + 1, end);
+			i += 4;
+			if (i >= end || value.charAt(i) != separator) {
+				return Long.MIN_VALUE;
+			}
+			start = ++i;
+			year = 0;
+			while (i < end && isDigit(value.charAt(i))) {
+				year = year * 10 + value.charAt(i++) - '0';
+			}
+			if (i - start == 2) {
+				year += year < 70 ? 2000 : 1900;
+			} else if (i - start != 4) {
+				return Long.MIN_VALUE;
+			}
+			if (i >= end || value.charAt(i) != ' ') {
+				return Long.MIN_VALUE;
+			}
+			i = skipSpaces(value, i, end);
+			time = time(value, i, end);
+			i = skipSpaces(value, i + 8, end);
+			long offset = zone(value, i, end);
+			if (offset == Long.MIN_VALUE || time == Long.MIN_VALUE) {
+				return Long.MIN_VALUE; //before offset is applied to invalid time
+			}
+			time -= offset;
+		}
+		if (month < 1 || day < 1 || day > 31 || time == Long.MIN_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return toEpochDay(year, month, day) * 86400000L + time;
+	}
+
+	/**
+	 * @return 1-12 or -1
+	 */
+	private static int month(String value, int i, int end) {
+		if (i + 3 > end) {
+			return -1;
+		}
+		for (int m = 0; m < MONTHS.length; ++m) {
+			if (value.regionMatches(true, i, MONTHS[m], 0, 3)) {
+				return m + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * HH:mm:ss
+	 * 
+	 * @return millis of day or Long.MIN_VALUE
+	 */
+	private static long time(String value, int i, int end) {
+		if (i + 8 > end || value.charAt(i + 2) != ':' || value.charAt(i + 5) != ':') {
+			return Long.MIN_VALUE;
+		}
+		int hour = twoDigits(value, i);
+		int minute = twoDigits(value, i + 3);
+		int second = twoDigits(value, i + 6);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+			return Long.MIN_VALUE;
+		}
+		return (hour * 3600 + minute * 60 + second) * 1000L;
+	}
+
+	/**
+	 * GMT, UTC, UT, Z or +hhmm / -hhmm
+	 * 
+	 * @return offset millis or Long.MIN_VALUE
+	 */
+	private static long zone(String value, int i, int end) {
+		int length = end - i;
+		if (length == 0) {
+			return 0; //lenient
+		}
+		char c = value.charAt(i);
+		if (c == '+' || c == '-') {
+			if (length != 5) {
+				return Long.MIN_VALUE;
+			}
+			int hours = twoDigits(value, i + 1);
+			int minutes = twoDigits(value, i + 3);
+			if (hours < 0 || minutes < 0) {
+				return Long.MIN_VALUE;
+			}
+			long offset = (hours * 60 + minutes) * 60000L;
+			return c == '-' ? -offset : offset;
+		}
+		if ((length == 3 && (value.regionMatches(true, i, "GMT", 0, 3) || value.regionMatches(true, i, "UTC", 0, 3)))
+				|| (length == 2 && value.regionMatches(true, i, "UT", 0, 2)) || (length == 1 && (c == 'Z' || c == 'z'))) {
+			return 0;
+		}
+		return Long.MIN_VALUE;
+	}
+
+	private static int twoDigits(String value, int i) {
+		char c1 = value.charAt(i);
+		char c2 = value.charAt(i + 1);
+		if (!isDigit(c1) || !isDigit(c2)) {
+			return -1;
+		}
+		return (c1 - '0') * 10 + (c2 - '0');
+	}
+
+	private static void twoDigits(int value, char[] chars, int index) {
+		chars[index] = (char) ('0' + value / 10);
+		chars[index + 1] = (char) ('0' + value % 10);
+	}
+
+	private static int skipSpaces(String value, int i, int end) {
+		while (i < end && value.charAt(i) == ' ') {
+			++i;
+		}
+		return i;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Days since 1970-01-01 of proleptic Gregorian date
+	 */
+	private static long toEpochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @return year, month (1-12), day (1-31) of days since 1970-01-01
+	 */
+	private static int[] toCivil(long epochDay) {
+		long z = epochDay + 719468;
+		long era = floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return new int[] { (int) year, month, day };
+	}
+
+	private static long floorDiv(long x, long y) {
+		long r = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			--r;
+		}
+		return r;
+	}
+
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x, y) * y;
+	}
+
 }
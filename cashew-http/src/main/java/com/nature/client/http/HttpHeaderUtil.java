@@ -1,15 +1,13 @@
 package com.nature.client.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Reader;
-import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
-import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Date;
 
+import com.nature.client.http.BufferPool.PooledBuffer;
 import com.nature.client.http.HttpSender.Multival;
 import com.nature.client.http.cache.CacheEntry;
 import com.nature.client.http.cache.CachedResponse;
@@ -97,14 +95,8 @@ public class HttpHeaderUtil {
 	 * Parse date in RFC1123 format, and return its value as epoch
 	 */
 	public static long parseDateAsEpoch(String string) {
-		try {
-			//Google uses Expires: -1
-			//Parse date in RFC1123 format if this header contains one
-			return HttpDateUtil.parseDate(string).getTime();
-		} catch (ParseException px) {
-			//log warning
-			return 0;
-		}
+		//Google uses Expires: -1
+		return HttpDateUtil.parseEpoch(string, 0);
 	}
 
 	private static final Charset DEFAULT_CONTENT_CHARSET = Charset.forName("ISO-8859-1");
@@ -166,60 +158,83 @@ public class HttpHeaderUtil {
 		if (response instanceof CachedResponse) {
 			return ((CachedResponse) response).getAsString();
 		}
-		int blength = getBufferLength(response);
-		char[] buffer = new char[blength];
-		Reader input = response.getReader();
-		StringWriter output = new StringWriter();
-		int len = -1;
+		InputStream input = response.getStream();
+		if (input == null) {
+			return ""; //304 Not Modified
+		}
+		//decoding straight from pooled bytes - no char buffer and writer
+		PooledBuffer buffer = BufferPool.acquire();
 		try {
-			while ((len = input.read(buffer)) != -1) {
-				output.write(buffer, 0, len);
-			}
+			return buffer.readFrom(input).toString(response.getCharset());
 		} finally {
-			input.close();
+			Cutils.close(input);
+			BufferPool.release(buffer);
 		}
-		return output.toString();
 	}
 
 	public static byte[] readAsBytes(SenderResponse response) throws IOException {
 		if (response instanceof CachedResponse) {
 			return ((CachedResponse) response).getAsBytes();
 		}
-		int blength = getBufferLength(response);
-		byte[] buffer = new byte[blength];
 		InputStream input = response.getStream();
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-		int len = -1;
+		if (input == null) {
+			return new byte[0]; //304 Not Modified
+		}
 		try {
-			while ((len = input.read(buffer)) != -1) {
-				output.write(buffer, 0, len);
+			int length = getContentLength(response);
+			if (length == -1 || length > BufferPool.getMaximumRetained()) {
+				//unknown or too big to trust Content-Length with allocation
+				PooledBuffer buffer = BufferPool.acquire();
+				try {
+					return buffer.readFrom(input).toByteArray();
+				} finally {
+					BufferPool.release(buffer);
+				}
+			}
+			//read directly into array of final size
+			byte[] exact = new byte[length];
+			int count = 0;
+			int read;
+			while (count < length && (read = input.read(exact, count, length - count)) != -1) {
+				count += read;
+			}
+			if (count < length) {
+				return Arrays.copyOf(exact, count); //truncated
+			}
+			int next = input.read();
+			if (next == -1) {
+				return exact;
+			}
+			//longer than Content-Length says
+			PooledBuffer buffer = BufferPool.acquire();
+			try {
+				buffer.write(exact, 0, length).write(new byte[] { (byte) next }, 0, 1);
+				return buffer.readFrom(input).toByteArray();
+			} finally {
+				BufferPool.release(buffer);
 			}
 		} finally {
-			input.close();
+			Cutils.close(input);
 		}
-		return output.toByteArray();
 	}
 
-	private static final int KILO = 1024;
-
-	private static final int KILO64 = 64 * KILO;
-
-	private static int getBufferLength(SenderResponse response) {
-		int blength = 1024;
+	/**
+	 * @return Content-Length of decoded body or -1 when unknown
+	 */
+	private static int getContentLength(SenderResponse response) {
 		String sclength = response.getFirstHeader("Content-Length");
-		if (sclength != null) {
-			int clength = Integer.parseInt(sclength);
-			blength = clength / 100;
-			if (blength < KILO) {
-				blength = KILO;
-			} else if (blength > KILO64) {
-				blength = KILO64;
-			}
+		if (sclength == null) {
+			return -1;
+		}
+		String encoding = response.getFirstHeader("Content-Encoding");
+		if (encoding != null && !encoding.equalsIgnoreCase("identity")) {
+			return -1; //length of compressed content
+		}
+		try {
+			long clength = Long.parseLong(sclength.trim());
+			return clength >= 0 && clength < Integer.MAX_VALUE ? (int) clength : -1;
+		} catch (NumberFormatException nfx) {
+			return -1;
 		}
-		//TODO enhance this method
-		//String sctype = response.getFirstHeader("Content-Type"); //application/json
-		//String strans = response.getFirstHeader("Transfer-Encoding"); //chunked
-
-		return blength;
 	}
 }
@@ -1,28 +1,44 @@
 package com.nature.client.http;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.nature.client.http.ResponseExtractor.ExtractedResponse;
+import com.nature.client.http.async.AbortableFuture;
+import com.nature.client.http.async.ListenableFuture;
 import com.nature.client.http.async.ResponseHandler;
+import com.nature.client.http.async.SettableFuture;
+import com.nature.client.http.cache.CachedResponse;
 
 /**
  * 
@@ -37,11 +53,28 @@ public abstract class HttpSender implements Closeable {
 
 	private final HttpSenderConfig config;
 
+	private CacheKeyGenerator cacheKeyGenerator = CacheKeyGenerator.DEFAULT;
+
+	//precomputed variants of config url path for joining with request path
+	private final String basePath;
+
+	private final String basePathSlash;
+
+	private final String basePathNoSlash;
+
 	public HttpSender(HttpSenderConfig config) {
 		if (config == null) {
 			throw new IllegalArgumentException("null config");
 		}
 		this.config = config;
+		this.basePath = config.getUrl().getPath();
+		if (basePath.endsWith("/")) {
+			this.basePathSlash = basePath;
+			this.basePathNoSlash = basePath.substring(0, basePath.length() - 1);
+		} else {
+			this.basePathSlash = basePath + "/";
+			this.basePathNoSlash = basePath;
+		}
 	}
 
 	public HttpSender(HttpSenderConfig config, ExecutorService executor) {
@@ -65,7 +98,18 @@ public abstract class HttpSender implements Closeable {
 	 * Extremely important for caching -  generates proper key based on information from request and sender
 	 */
 	public String getCacheKey(SenderRequest request) {
-		return String.valueOf(config.getUrl().toString().hashCode() * 31 + request.hashCode());
+		return cacheKeyGenerator.getKey(this, request);
+	}
+
+	public CacheKeyGenerator getCacheKeyGenerator() {
+		return cacheKeyGenerator;
+	}
+
+	public void setCacheKeyGenerator(CacheKeyGenerator cacheKeyGenerator) {
+		if (cacheKeyGenerator == null) {
+			throw new IllegalArgumentException("null cacheKeyGenerator");
+		}
+		this.cacheKeyGenerator = cacheKeyGenerator;
 	}
 
 	/**
@@ -124,21 +168,206 @@ public abstract class HttpSender implements Closeable {
 		return extract(request, ResponseExtractor.STRING);
 	}
 
+	/**
+	 * Download version. Response body is streamed into channel, response is closed. Channel is not closed
+	 */
+	public DownloadResult download(SenderRequest request, WritableByteChannel channel) throws IOException {
+		if (channel == null) {
+			throw new IllegalArgumentException("null channel");
+		}
+		SenderResponse response = execute(request);
+		try {
+			long started = System.nanoTime();
+			long bytes = response.transferTo(channel);
+			return new DownloadResult(response, bytes, System.nanoTime() - started);
+		} finally {
+			Cutils.close(response);
+		}
+	}
+
+	/**
+	 * Download version. Response body is streamed into file, which is created or truncated
+	 */
+	public DownloadResult download(SenderRequest request, File file) throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("null file");
+		}
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			return download(request, output.getChannel());
+		} finally {
+			Cutils.close(output);
+		}
+	}
+
+	/**
+	 * Bulk execution. Requests are executed by at most maxParallel threads (sender executor plus calling thread) and
+	 * never more than getMaxParallel() of this sender. Method returns when all requests are completed.
+	 * 
+	 * Responses are read into memory so pooled connections are released immediately
+	 * 
+	 * @return completed Futures in order of requests. Failed request Future throws ExecutionException
+	 */
+	public List<Future<SenderResponse>> executeAll(Collection<? extends SenderRequest> requests, int maxParallel) {
+		return bulk(requests, maxParallel, new BulkTask<SenderResponse>() {
+
+			@Override
+			public SenderResponse call(SenderRequest request) throws Exception {
+				SenderResponse response = execute(request);
+				try {
+					return new CachedResponse(response);
+				} finally {
+					Cutils.close(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Bulk extraction. Requests are executed by at most maxParallel threads (sender executor plus calling thread) and
+	 * never more than getMaxParallel() of this sender. Method returns when all requests are completed.
+	 * 
+	 * @return completed Futures in order of requests. Failed request Future throws ExecutionException
+	 */
+	public <T extends Serializable> List<Future<ExtractedResponse<T>>> extractAll(
+			Collection<? extends SenderRequest> requests, final ResponseExtractor<T> extractor, int maxParallel) {
+		if (extractor == null) {
+			throw new IllegalArgumentException("null extractor");
+		}
+		return bulk(requests, maxParallel, new BulkTask<ExtractedResponse<T>>() {
+
+			@Override
+			public ExtractedResponse<T> call(SenderRequest request) throws Exception {
+				return extract(request, extractor);
+			}
+		});
+	}
+
+	/**
+	 * Upper limit of concurrently executed requests in bulk operations. Senders with connection pool return pool size,
+	 * because more threads would only wait for connection
+	 */
+	protected int getMaxParallel() {
+		return Integer.MAX_VALUE;
+	}
+
+	private <V> List<Future<V>> bulk(Collection<? extends SenderRequest> requests, int maxParallel,
+			final BulkTask<V> task) {
+		if (requests == null) {
+			throw new IllegalArgumentException("null requests");
+		}
+		if (maxParallel < 1) {
+			throw new IllegalArgumentException("maxParallel " + maxParallel + " must be >= 1");
+		}
+		final SenderRequest[] array = requests.toArray(new SenderRequest[requests.size()]);
+		final List<SettableFuture<V>> futures = new ArrayList<SettableFuture<V>>(array.length);
+		for (int i = 0; i < array.length; ++i) {
+			futures.add(new SettableFuture<V>());
+		}
+		final AtomicInteger next = new AtomicInteger();
+		Runnable worker = new Runnable() {
+
+			@Override
+			public void run() {
+				int index;
+				while ((index = next.getAndIncrement()) < array.length) {
+					try {
+						futures.get(index).set(task.call(array[index]));
+					} catch (Exception x) {
+						futures.get(index).setException(x);
+					}
+				}
+			}
+		};
+		int parallel = Math.min(Math.min(maxParallel, getMaxParallel()), array.length);
+		if (parallel > 1 && executor == null) {
+			throw new IllegalStateException("Executor for asynchronous requests is not configured");
+		}
+		//calling thread works too, so rejection of helper is not fatal
+		for (int i = 1; i < parallel; ++i) {
+			try {
+				executor.execute(worker);
+			} catch (RejectedExecutionException rex) {
+				logger.debug("Bulk worker rejected " + rex);
+				break;
+			}
+		}
+		worker.run();
+
+		List<Future<V>> result = new ArrayList<Future<V>>(array.length);
+		boolean interrupted = false;
+		for (SettableFuture<V> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException ix) {
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					break;
+				}
+			}
+			result.add(future);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	private static interface BulkTask<V> {
+
+		public V call(SenderRequest request) throws Exception;
+	}
+
 	/**
 	 * Asynchronous extraction with Future as response
 	 */
 	public <T extends Serializable> Future<ExtractedResponse<T>> start(final SenderRequest request,
 			final ResponseExtractor<T> extractor) {
+		return startAsync(request, extractor);
+	}
+
+	/**
+	 * Asynchronous extraction with ListenableFuture as response. Callbacks are executed by thread completing request.
+	 * Cancelling returned future aborts request in progress
+	 */
+	public <T extends Serializable> ListenableFuture<ExtractedResponse<T>> startAsync(SenderRequest request,
+			ResponseExtractor<T> extractor) {
+		return startAsync(request, extractor, null);
+	}
+
+	/**
+	 * Asynchronous extraction with ListenableFuture as response. Callbacks are executed by callbackExecutor.
+	 * Cancelling returned future aborts request in progress
+	 */
+	public <T extends Serializable> ListenableFuture<ExtractedResponse<T>> startAsync(final SenderRequest request,
+			final ResponseExtractor<T> extractor, Executor callbackExecutor) {
+		if (extractor == null) {
+			throw new IllegalArgumentException("null extractor");
+		}
 		if (executor == null) {
 			throw new IllegalStateException("Executor for asynchronous requests is not configured");
 		}
-		return executor.submit(new Callable<ExtractedResponse<T>>() {
+		final AbortableFuture<ExtractedResponse<T>> future = new AbortableFuture<ExtractedResponse<T>>(callbackExecutor);
+		execute(future, new Runnable() {
 
 			@Override
-			public ExtractedResponse<T> call() throws Exception {
-				return extract(request, extractor);
+			public void run() {
+				if (future.isDone()) {
+					return; //cancelled before started
+				}
+				aborting.set(future);
+				try {
+					future.set(extract(request, extractor));
+				} catch (Exception x) {
+					future.setException(x);
+				} finally {
+					aborting.remove();
+				}
 			}
 		});
+		return future;
 	}
 
 	/**
@@ -161,109 +390,145 @@ public abstract class HttpSender implements Closeable {
 	}
 
 	/**
-	 * Asynchronous execution with Future as response
+	 * Asynchronous execution with Future as response. Cancelling returned future aborts request in progress
 	 */
 	public Future<SenderResponse> start(final SenderRequest request) {
 		if (executor == null) {
 			throw new IllegalStateException("Executor for asynchronous requests is not configured");
 		}
-		return executor.submit(new Callable<SenderResponse>() {
+		final AbortableFuture<SenderResponse> future = new AbortableFuture<SenderResponse>();
+		execute(future, new Runnable() {
 
 			@Override
-			public SenderResponse call() throws Exception {
-				return execute(request);
+			public void run() {
+				if (future.isDone()) {
+					return; //cancelled before started
+				}
+				aborting.set(future);
+				try {
+					SenderResponse response = execute(request);
+					if (!future.set(response)) {
+						Cutils.close(response); //cancelled meanwhile
+					}
+				} catch (Exception x) {
+					future.setException(x);
+				} finally {
+					aborting.remove();
+				}
 			}
 		});
+		return future;
+	}
+
+	private void execute(SettableFuture<?> future, Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException rex) {
+			future.setException(rex);
+		}
+	}
+
+	/**
+	 * Asynchronous request being executed by current thread
+	 */
+	private static final ThreadLocal<AbortableFuture<?>> aborting = new ThreadLocal<AbortableFuture<?>>();
+
+	/**
+	 * Registers aborter of request executed by current thread. Aborter is invoked when asynchronous request Future is cancelled.
+	 * Does nothing for synchronous execution
+	 */
+	protected final void abortWith(Runnable aborter) {
+		AbortableFuture<?> future = aborting.get();
+		if (future != null) {
+			future.setAborter(aborter);
+		}
 	}
 
 	protected String joinPath(String reqPath) {
-		String cfgPath = config.getUrl().getPath();
-		String path;
-		if (reqPath != null) {
-			if (reqPath.startsWith(cfgPath)) {
-				//do not repeat config path if it is in request path
-				path = reqPath;
-			} else if (reqPath.startsWith("//")) {
-				// double slash means don't use base path at all - little bit hackish
-				path = reqPath.substring(1);
-			}
-			boolean s1 = cfgPath.endsWith("/");
-			boolean s2 = reqPath.startsWith("/") || reqPath.startsWith("?");
-			if (!s1 && !s2) {
-				path = cfgPath + "/" + reqPath;
-			} else if (s1 && s2) {
-				path = cfgPath.substring(0, cfgPath.length() - 1) + reqPath;
-			} else {
-				path = cfgPath + reqPath;
-			}
+		if (reqPath == null) {
+			return basePath;
+		} else if (reqPath.startsWith("/") || reqPath.startsWith("?")) {
+			return basePathNoSlash + reqPath;
 		} else {
-			path = cfgPath;
+			return basePathSlash + reqPath;
 		}
-		return path;
 	}
 
 	protected String[] getPathAndQuery(SenderRequest request) {
-		String path = joinPath(request.getUrlPath());
-		String encoding = config.getEncoding();
+		StringBuilder sb = BUILDER.get();
+		sb.setLength(0);
+		String reqPath = request.getUrlPath();
+		if (reqPath == null) {
+			sb.append(basePath);
+		} else if (reqPath.startsWith("/") || reqPath.startsWith("?")) {
+			sb.append(basePathNoSlash).append(reqPath);
+		} else {
+			sb.append(basePathSlash).append(reqPath);
+		}
+
+		Charset charset = config.getCharset();
 		Multival parameters = request.getParameters();
-		StringBuilder sbMxParams = null;
-		StringBuilder sbQuParams = null;
-		boolean bQp = false; //is any query parameter
+		String query = null;
+		String path;
 		//XXX multivalue parameter encode paramA=val1,val2
 		if (parameters != null && parameters.size() != 0) {
-			sbMxParams = new StringBuilder();
-			sbQuParams = new StringBuilder();
+			//matrix parameters go right after path
 			for (String name : parameters) {
-				if (name.charAt(0) == ';') { //matrix parameter
+				if (name.charAt(0) == ';') {
 					List<String> values = parameters.get(name);
 					for (String value : values) {
-						sbMxParams.append(';');//keep unescaped
-						sbMxParams.append(urlencode(name.substring(1), encoding));
-						sbMxParams.append('=');
+						sb.append(';');//keep unescaped
+						PercentEncoder.encode(name, 1, charset, sb);
+						sb.append('=');
 						//XXX matrix parameters may contain / and that / must be unescaped
-						sbMxParams.append(urlencode(value, encoding));
+						PercentEncoder.encode(value, 0, charset, sb);
 					}
-				} else { //query parameter
+				}
+			}
+			int pathEnd = sb.length();
+			sb.append('?');
+			for (String name : parameters) {
+				if (name.charAt(0) != ';') {
 					List<String> values = parameters.get(name);
 					for (String value : values) {
-						sbQuParams.append(urlencode(name, encoding));
-						sbQuParams.append('=');
-						sbQuParams.append(urlencode(value, encoding));
-						sbQuParams.append('&');
-						bQp = true;
+						PercentEncoder.encode(name, 0, charset, sb);
+						sb.append('=');
+						PercentEncoder.encode(value, 0, charset, sb);
+						sb.append('&');
 					}
 				}
 			}
-			//remove trailing '&'
+			boolean bQp = sb.length() > pathEnd + 1; //is any query parameter
 			if (bQp) {
-				sbQuParams.delete(sbQuParams.length() - 1, sbQuParams.length());
+				sb.setLength(sb.length() - 1); //remove trailing '&'
+				query = sb.substring(pathEnd + 1);
+			} else {
+				query = "";
 			}
-		}
-
-		//append matrix parameters if any
-		if (sbMxParams != null && sbMxParams.length() != 0) {
-			path = path + sbMxParams;
-		}
-
-		//append query parameters if are any and if apropriate
-		if (bQp) {
-			if (!request.getMethod().canHaveBody()) {
-				path = path + "?" + sbQuParams.toString();// GET, DELETE
-			} else if (request.hasBody()) {
-				path = path + "?" + sbQuParams.toString(); // POST, PUT with body
+			//append query parameters if are any and if apropriate
+			if (bQp && (!request.getMethod().canHaveBody() || request.hasBody())) {
+				path = sb.toString(); // GET, DELETE or POST, PUT with body
+			} else {
+				path = sb.substring(0, pathEnd);
 			}
+		} else {
+			path = sb.toString();
+		}
+		if (sb.capacity() > BUILDER_MAX_CAPACITY) {
+			BUILDER.remove(); //do not keep huge one
 		}
-		String query = sbQuParams != null ? sbQuParams.toString() : null;
 		return new String[] { path, query };
 	}
 
-	private final String urlencode(String string, String encoding) {
-		try {
-			return URLEncoder.encode(string, encoding);
-		} catch (UnsupportedEncodingException uex) {
-			throw new IllegalStateException("Misconfigured encoding " + encoding, uex);
+	private static final int BUILDER_MAX_CAPACITY = 8 * 1024;
+
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
 		}
-	}
+	};
 
 	/**
 	 * New attached Request buld methods
@@ -339,35 +604,64 @@ public abstract class HttpSender implements Closeable {
 	};
 
 	/**
+	 * Multi value map of parameters or headers. Values are kept in flat parallel name/value arrays, sorted by name on
+	 * insertion, preserving order of values with same name. Headers use case insensitive names.
+	 * 
+	 * Reads never modify the arrays, so fully populated instance (headers of cached response) can be shared and read by
+	 * many threads
 	 * 
 	 * @author martin.vanek
 	 *
 	 */
 	public static class Multival implements Iterable<String>, Serializable {
 
-		private static final long serialVersionUID = 1L;
+		private static final long serialVersionUID = 2L;
+
+		private final boolean caseInsensitive;
 
-		private Map<String, List<String>> entries;
+		private transient String[] names;
+
+		private transient String[] values;
+
+		private transient int count;
+
+		private transient int modCount; //changes whenever content changes
 
 		public Multival() {
+			this(false);
+		}
 
+		/**
+		 * @param caseInsensitive true for http headers
+		 */
+		public Multival(boolean caseInsensitive) {
+			this.caseInsensitive = caseInsensitive;
 		}
 
 		public Multival(Map<String, List<String>> entries) {
-			this.entries = new TreeMap<String, List<String>>(COMPARATOR);// response header from HttpUrlConnection has null header name for status line
-			this.entries.putAll(entries);
-			Set<Entry<String, List<String>>> entrySet = this.entries.entrySet();
-			for (Entry<String, List<String>> entry : entrySet) {
+			this(entries, false);
+		}
+
+		/**
+		 * Response header from HttpUrlConnection has null header name for status line
+		 */
+		public Multival(Map<String, List<String>> entries, boolean caseInsensitive) {
+			this(caseInsensitive);
+			ensureCapacity(entries.size());
+			for (Entry<String, List<String>> entry : entries.entrySet()) {
 				List<String> values = entry.getValue();
-				LinkedList<String> valuesCopy = new LinkedList<String>(values);
 				if (values == null || values.size() == 0) {
-					valuesCopy.add("");
+					append(entry.getKey(), "");
+				} else {
+					for (String value : values) {
+						append(entry.getKey(), value);
+					}
 				}
-				entry.setValue(valuesCopy);
 			}
 		}
 
 		public Multival(List<String[]> values) {
+			this(false);
 			if (values != null) {
 				for (String[] value : values) {
 					if (value.length == 0) {
@@ -385,6 +679,10 @@ public abstract class HttpSender implements Closeable {
 			}
 		}
 
+		public boolean isCaseInsensitive() {
+			return caseInsensitive;
+		}
+
 		public void add(String name, String value, String... others) {
 			put(name, value, others);
 		}
@@ -393,86 +691,262 @@ public abstract class HttpSender implements Closeable {
 			if (Cutils.isBlank(name)) {
 				throw new IllegalArgumentException("Name is blank");
 			}
-			List<String> list = null;
-			if (this.entries == null) {
-				this.entries = new TreeMap<String, List<String>>();
-			} else {
-				list = this.entries.get(name);
+			ensureCapacity(count + 1 + others.length);
+			append(name, value);
+			for (String other : others) {
+				append(name, other);
 			}
+		}
 
-			if (list == null) {
-				list = new LinkedList<String>();
-				this.entries.put(name, list);
+		/**
+		 * Replaces all values of name with single value
+		 */
+		public void set(String name, String value) {
+			if (Cutils.isBlank(name)) {
+				throw new IllegalArgumentException("Name is blank");
+			}
+			int index = indexOf(name);
+			if (index < 0) {
+				put(name, value);
+				return;
 			}
+			values[index] = value != null ? value : "";
+			++modCount;
+			int end = index + 1;
+			while (end < count && compare(names[end], name) == 0) {
+				++end;
+			}
+			if (end > index + 1) {
+				System.arraycopy(names, end, names, index + 1, count - end);
+				System.arraycopy(values, end, values, index + 1, count - end);
+				for (int i = count - (end - index - 1); i < count; ++i) {
+					names[i] = null;
+					values[i] = null;
+				}
+				count -= end - index - 1;
+			}
+		}
 
-			if (value != null) {
-				list.add(value);
-			} else {
-				list.add("");
+		private void append(String name, String value) {
+			ensureCapacity(count + 1);
+			if (caseInsensitive) {
+				name = canonical(name);
 			}
-			for (String other : others) {
-				if (other != null) {
-					list.add(other);
-				} else {
-					list.add("");
+			//insert after last equal name. Entries mostly arrive sorted, so it is usually appended
+			int index = count;
+			if (count != 0 && compare(names[count - 1], name) > 0) {
+				int low = 0;
+				int high = count - 1;
+				while (low <= high) {
+					int middle = (low + high) >>> 1;
+					if (compare(names[middle], name) <= 0) {
+						low = middle + 1;
+					} else {
+						high = middle - 1;
+					}
 				}
+				index = low;
+				System.arraycopy(names, index, names, index + 1, count - index);
+				System.arraycopy(values, index, values, index + 1, count - index);
+			}
+			names[index] = name;
+			values[index] = value != null ? value : "";
+			++count;
+			++modCount;
+		}
+
+		int getModCount() {
+			return modCount;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (names == null) {
+				names = new String[Math.max(capacity, 4)];
+				values = new String[names.length];
+			} else if (capacity > names.length) {
+				int length = Math.max(capacity, names.length * 2);
+				names = Arrays.copyOf(names, length);
+				values = Arrays.copyOf(values, length);
 			}
 		}
 
 		public Set<String> names() {
-			if (this.entries == null) {
+			if (this.count == 0) {
 				return Collections.emptySet();
 			} else {
-				return this.entries.keySet();
+				Set<String> names = new LinkedHashSet<String>();
+				for (String name : this) {
+					names.add(name);
+				}
+				return names;
 			}
 		}
 
+		/**
+		 * @return number of distinct names
+		 */
 		public int size() {
-			return this.entries == null ? 0 : this.entries.size();
+			int size = 0;
+			for (int i = 0; i < count; ++i) {
+				if (i == 0 || compare(names[i - 1], names[i]) != 0) {
+					++size;
+				}
+			}
+			return size;
 		}
 
+		/**
+		 * @return view of values. It is valid only until this Multival is modified
+		 */
 		public List<String> get(String name) {
-			if (this.entries == null) {
+			final int start = indexOf(name);
+			if (start < 0) {
 				return null;
-			} else {
-				return this.entries.get(name);
 			}
+			int end = start + 1;
+			while (end < count && compare(names[end], name) == 0) {
+				++end;
+			}
+			final int size = end - start;
+			return new AbstractList<String>() {
+
+				@Override
+				public String get(int index) {
+					if (index < 0 || index >= size) {
+						throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+					}
+					return values[start + index];
+				}
+
+				@Override
+				public String set(int index, String value) {
+					String previous = get(index);
+					values[start + index] = value;
+					++Multival.this.modCount; //not AbstractList.modCount
+					return previous;
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
 		}
 
 		public String getFirst(String name) {
-			List<String> values = get(name);
-			if (values != null) {
-				return values.get(0);
-			} else {
-				return null;
-			}
+			int index = indexOf(name);
+			return index < 0 ? null : values[index];
 		}
 
 		public String getLast(String name) {
-			List<String> values = get(name);
-			if (values != null) {
-				return values.get(values.size() - 1);
-			} else {
+			int index = indexOf(name);
+			if (index < 0) {
 				return null;
 			}
+			while (index + 1 < count && compare(names[index + 1], name) == 0) {
+				++index;
+			}
+			return values[index];
 		}
 
+		/**
+		 * @return index of first value with name or -1
+		 */
+		private int indexOf(String name) {
+			int low = 0;
+			int high = count - 1;
+			int found = -1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int compare = compare(names[middle], name);
+				if (compare < 0) {
+					low = middle + 1;
+				} else {
+					if (compare == 0) {
+						found = middle; //continue to the left for first one
+					}
+					high = middle - 1;
+				}
+			}
+			return found;
+		}
+
+		private int compare(String name1, String name2) {
+			return caseInsensitive ? COMPARATOR_CI.compare(name1, name2) : COMPARATOR.compare(name1, name2);
+		}
+
+		/**
+		 * Iterates over distinct names in sorted order
+		 */
 		@Override
 		public Iterator<String> iterator() {
-			if (this.entries == null) {
-				return Collections.<String> emptySet().iterator();
-			}
-			return names().iterator();
+			return new Iterator<String>() {
+
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < count;
+				}
+
+				@Override
+				public String next() {
+					if (index >= count) {
+						throw new NoSuchElementException();
+					}
+					String name = names[index++];
+					while (index < count && compare(names[index], name) == 0) {
+						++index;
+					}
+					return name;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
 		}
 
 		@Override
 		public String toString() {
-			return String.valueOf(this.entries);
+			if (count == 0) {
+				return "{}";
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append('{');
+			for (int i = 0; i < count; ++i) {
+				boolean first = i == 0 || compare(names[i - 1], names[i]) != 0;
+				if (first) {
+					if (i != 0) {
+						sb.append("], ");
+					}
+					sb.append(names[i]).append("=[");
+				} else {
+					sb.append(", ");
+				}
+				sb.append(values[i]);
+			}
+			sb.append("]}");
+			return sb.toString();
 		}
 
 		@Override
 		public int hashCode() {
-			return this.entries == null ? 0 : this.entries.hashCode();
+			int result = caseInsensitive ? 1 : 0;
+			for (int i = 0; i < count; ++i) {
+				String name = names[i];
+				int hash = 0;
+				if (name != null) {
+					for (int c = 0; c < name.length(); ++c) {
+						char ch = name.charAt(c);
+						hash = 31 * hash + (caseInsensitive ? Character.toLowerCase(ch) : ch);
+					}
+				}
+				result = 31 * result + hash;
+				result = 31 * result + values[i].hashCode();
+			}
+			return result;
 		}
 
 		@Override
@@ -487,21 +961,53 @@ public abstract class HttpSender implements Closeable {
 				return false;
 			}
 			Multival other = (Multival) obj;
-			if (this.entries == null) {
-				if (other.entries != null) {
+			if (this.caseInsensitive != other.caseInsensitive || this.count != other.count) {
+				return false;
+			}
+			for (int i = 0; i < count; ++i) {
+				if (compare(names[i], other.names[i]) != 0 || !values[i].equals(other.values[i])) {
 					return false;
 				}
-			} else if (!this.entries.equals(other.entries)) {
-				return false;
 			}
 			return true;
 		}
+
+		private void writeObject(ObjectOutputStream stream) throws IOException {
+			stream.defaultWriteObject();
+			stream.writeInt(count);
+			for (int i = 0; i < count; ++i) {
+				stream.writeObject(names[i]);
+				stream.writeObject(values[i]);
+			}
+		}
+
+		private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+			stream.defaultReadObject();
+			int count = stream.readInt();
+			if (count != 0) {
+				ensureCapacity(count);
+				for (int i = 0; i < count; ++i) {
+					String name = (String) stream.readObject();
+					names[i] = caseInsensitive ? canonical(name) : name;
+					values[i] = (String) stream.readObject();
+				}
+				this.count = count;
+			}
+		}
 	}
 
-	private static final Comparator<String> COMPARATOR = new NullSafeStringComparator();
+	private static final Comparator<String> COMPARATOR = new NullSafeStringComparator(false);
+
+	private static final Comparator<String> COMPARATOR_CI = new NullSafeStringComparator(true);
 
 	private static class NullSafeStringComparator implements Comparator<String> {
 
+		private final boolean caseInsensitive;
+
+		public NullSafeStringComparator(boolean caseInsensitive) {
+			this.caseInsensitive = caseInsensitive;
+		}
+
 		@Override
 		public int compare(String o1, String o2) {
 			if (o1 == o2) {
@@ -510,10 +1016,37 @@ public abstract class HttpSender implements Closeable {
 				return -1;
 			} else if (o2 == null) {
 				return 1;
+			} else if (caseInsensitive) {
+				return o1.compareToIgnoreCase(o2);
 			} else {
 				return o1.compareTo(o2);
 			}
 		}
 	}
 
+	/**
+	 * Shared instances of common header names, so cached responses do not keep own copies
+	 */
+	private static final Map<String, String> HEADER_NAMES = new HashMap<String, String>();
+
+	static {
+		String[] names = { "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age",
+				"Allow", "Authorization", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding",
+				"Content-Language", "Content-Length", "Content-Location", "Content-Type", "Cookie", "Date", "ETag", "Expires",
+				"Host", "If-Modified-Since", "If-None-Match", "Keep-Alive", "Last-Modified", "Location", "Pragma", "Server",
+				"Set-Cookie", "Transfer-Encoding", "User-Agent", "Vary", "Via", "WWW-Authenticate", "X-Powered-By" };
+		for (String name : names) {
+			HEADER_NAMES.put(name, name);
+			HEADER_NAMES.put(name.toLowerCase(), name.toLowerCase());
+		}
+	}
+
+	private static String canonical(String name) {
+		if (name == null) {
+			return null;
+		}
+		String canonical = HEADER_NAMES.get(name);
+		return canonical != null ? canonical : name;
+	}
+
 }
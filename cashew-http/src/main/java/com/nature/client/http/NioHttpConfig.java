@@ -0,0 +1,87 @@
+package com.nature.client.http;
+
+/**
+ *
+ * @author martin.vanek
+ *
+ */
+public class NioHttpConfig extends HttpSenderConfig {
+
+	/**
+	 * Idle connection keep alive in millis
+	 */
+	private int poolReleaseTimeout = 65 * 1000;
+
+	/**
+	 * Timeout in millis
+	 */
+	private int poolAcquireTimeout = 3 * 1000;
+
+	private int poolMaximum = 10;
+
+	/**
+	 * Maximum of requests in flight on single connection. Value 1 disables HTTP pipelining
+	 */
+	private int pipelineDepth = 1;
+
+	/**
+	 * Size of socket read buffer shared by all connections
+	 */
+	private int bufferSize = 16 * 1024;
+
+	public NioHttpConfig(String url) {
+		super(url);
+		if (!getUrl().getProtocol().equals("http")) {
+			throw new IllegalArgumentException("Only http protocol is supported " + getUrl());
+		}
+	}
+
+	@Override
+	public HttpSender buildSender() {
+		return new NioHttpSender(this);
+	}
+
+	public int getPoolReleaseTimeout() {
+		return this.poolReleaseTimeout;
+	}
+
+	public void setPoolReleaseTimeout(int millis) {
+		this.poolReleaseTimeout = millis;
+	}
+
+	public int getPoolAcquireTimeout() {
+		return this.poolAcquireTimeout;
+	}
+
+	public void setPoolAcquireTimeout(int millis) {
+		this.poolAcquireTimeout = millis;
+	}
+
+	public int getPoolMaximum() {
+		return this.poolMaximum;
+	}
+
+	public void setPoolMaximum(int poolMaximum) {
+		this.poolMaximum = poolMaximum;
+	}
+
+	public int getPipelineDepth() {
+		return this.pipelineDepth;
+	}
+
+	public void setPipelineDepth(int pipelineDepth) {
+		if (pipelineDepth < 1) {
+			throw new IllegalArgumentException("pipelineDepth " + pipelineDepth + " must be >= 1");
+		}
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.nature.client.http;
+
+import java.io.InputStream;
+
+import com.nature.client.http.HttpSender.Multival;
+
+/**
+ * Response body is already completely received when this is created, connection is back in pool
+ *
+ * @author martin.vanek
+ *
+ */
+public class NioHttpResponse extends SenderResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	public NioHttpResponse(int code, String message, Multival headers, InputStream stream) {
+		super(code, message, headers, stream);
+	}
+
+	@Override
+	public void close() {
+		Cutils.close(getStream());
+	}
+
+}
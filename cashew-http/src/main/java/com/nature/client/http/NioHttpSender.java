@@ -0,0 +1,944 @@
+package com.nature.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.nature.client.http.Authentication.Scheme;
+import com.nature.client.http.BodyRequest.FileWrappingStream;
+import com.nature.client.http.BodyRequest.StringWrappingStream;
+import com.nature.client.http.ResponseExtractor.ExtractedResponse;
+import com.nature.client.http.async.AbortableFuture;
+import com.nature.client.http.async.FutureCallback;
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.ResponseHandler;
+import com.nature.client.http.async.SettableFuture;
+
+/**
+ * Non blocking sender. Single selector thread writes requests and reads responses for all connections, so pending
+ * asynchronous requests do not occupy any thread. Response body is received completely before Future is completed.
+ *
+ * When all pooled connections are busy, GET and DELETE requests are pipelined (HTTP/1.1) on persistent connections up
+ * to {@link NioHttpConfig#getPipelineDepth()}, so many concurrent requests share few sockets.
+ *
+ * Only plain http and preemptive BASIC authentication are supported. Request body stream is read into memory to
+ * compute Content-Length.
+ *
+ * @author martin.vanek
+ *
+ */
+public class NioHttpSender extends HttpSender {
+
+	private static final AtomicInteger loopNumber = new AtomicInteger(1);
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final NioHttpConfig config;
+
+	private final String host;
+
+	private final int port;
+
+	private final String hostHeader;
+
+	private String basicAuthHeader;
+
+	private final Selector selector;
+
+	private final Thread loopThread;
+
+	private final ConcurrentLinkedQueue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+
+	private volatile boolean closed = false;
+
+	//following are touched only by selector thread
+
+	private final LinkedList<Exchange> waiting = new LinkedList<Exchange>();
+
+	private final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+	private final Set<Connection> active = new HashSet<Connection>();
+
+	private ByteBuffer readBuffer;
+
+	public NioHttpSender(String baseUrl) {
+		this(new NioHttpConfig(baseUrl));
+	}
+
+	public NioHttpSender(NioHttpConfig config) {
+		super(config);
+		this.config = config;
+
+		this.host = config.getUrl().getHost();
+		int port = config.getUrl().getPort();
+		this.hostHeader = port == -1 ? host : host + ":" + port;
+		this.port = port == -1 ? config.getUrl().getDefaultPort() : port;
+
+		if (config.getAuthentication() != null) {
+			Authentication authentication = config.getAuthentication();
+			if (authentication.getScheme() != Scheme.BASIC) {
+				throw new IllegalArgumentException("Unsupported authentication scheme " + authentication.getScheme());
+			}
+			byte[] bytes = (authentication.getUsername() + ":" + authentication.getPassword()).getBytes(config
+					.getCharset());
+			this.basicAuthHeader = "Basic " + Base64.encodeBase64String(bytes);
+		}
+
+		try {
+			this.selector = Selector.open();
+		} catch (IOException iox) {
+			throw new IllegalStateException("Cannot open selector", iox);
+		}
+		this.loopThread = new Thread(new EventLoop(), "nio-" + loopNumber.getAndIncrement() + "-loop");
+		this.loopThread.setDaemon(true);
+		this.loopThread.start();
+	}
+
+	public NioHttpSender(NioHttpConfig config, ExecutorService executor) {
+		this(config);
+		setExecutor(executor);
+	}
+
+	@Override
+	public NioHttpConfig getConfig() {
+		return config;
+	}
+
+	@Override
+	protected int getMaxParallel() {
+		return config.getPoolMaximum() * config.getPipelineDepth();
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			selector.wakeup();
+			try {
+				loopThread.join(1000);
+			} catch (InterruptedException ix) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	protected NioHttpResponse doExecute(SenderRequest request, String path, String query) throws IOException {
+		Exchange exchange = new Exchange(buildRequest(request, path, query), !request.getMethod().canHaveBody());
+		submit(exchange);
+		try {
+			return exchange.get();
+		} catch (InterruptedException ix) {
+			exchange.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for response");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else {
+				throw new IOException(cause.getMessage(), cause);
+			}
+		}
+	}
+
+	/**
+	 * Asynchronous execution with Future as response. Executor is not required
+	 */
+	@Override
+	public Future<SenderResponse> start(SenderRequest request) {
+		AbortableFuture<SenderResponse> future = new AbortableFuture<SenderResponse>();
+		start(request, future, null);
+		return future;
+	}
+
+	/**
+	 * Bulk execution without executor - at most maxParallel requests are in flight at once. NIO responses are always read
+	 * into memory, so connections are released immediately
+	 */
+	@Override
+	public List<Future<SenderResponse>> executeAll(Collection<? extends SenderRequest> requests, int maxParallel) {
+		return bulk(requests, maxParallel, new BulkStarter<SenderResponse>() {
+
+			@Override
+			public ListenableFuture<SenderResponse> start(SenderRequest request) {
+				AbortableFuture<SenderResponse> future = new AbortableFuture<SenderResponse>();
+				NioHttpSender.this.start(request, future, null);
+				return future;
+			}
+		});
+	}
+
+	/**
+	 * Bulk extraction without executor - at most maxParallel requests are in flight at once
+	 */
+	@Override
+	public <T extends Serializable> List<Future<ExtractedResponse<T>>> extractAll(
+			Collection<? extends SenderRequest> requests, final ResponseExtractor<T> extractor, int maxParallel) {
+		if (extractor == null) {
+			throw new IllegalArgumentException("null extractor");
+		}
+		return bulk(requests, maxParallel, new BulkStarter<ExtractedResponse<T>>() {
+
+			@Override
+			public ListenableFuture<ExtractedResponse<T>> start(SenderRequest request) {
+				return startAsync(request, extractor);
+			}
+		});
+	}
+
+	private <V> List<Future<V>> bulk(Collection<? extends SenderRequest> requests, int maxParallel,
+			BulkStarter<V> starter) {
+		if (requests == null) {
+			throw new IllegalArgumentException("null requests");
+		}
+		if (maxParallel < 1) {
+			throw new IllegalArgumentException("maxParallel " + maxParallel + " must be >= 1");
+		}
+		final Semaphore permits = new Semaphore(Math.min(maxParallel, getMaxParallel()));
+		FutureCallback<V> release = new FutureCallback<V>() {
+
+			@Override
+			public void onSuccess(V result) {
+				permits.release();
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				permits.release();
+			}
+		};
+		List<Future<V>> futures = new ArrayList<Future<V>>(requests.size());
+		boolean interrupted = false;
+		for (SenderRequest request : requests) {
+			while (true) {
+				try {
+					permits.acquire();
+					break;
+				} catch (InterruptedException ix) {
+					interrupted = true;
+				}
+			}
+			ListenableFuture<V> future = starter.start(request);
+			future.addCallback(release, null);
+			futures.add(future);
+		}
+		for (Future<V> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException ix) {
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return futures;
+	}
+
+	private static interface BulkStarter<V> {
+
+		public ListenableFuture<V> start(SenderRequest request);
+	}
+
+	/**
+	 * Asynchronous extraction with ListenableFuture as response. Extraction is performed by executor when configured,
+	 * otherwise by selector thread
+	 */
+	@Override
+	public <T extends Serializable> ListenableFuture<ExtractedResponse<T>> startAsync(final SenderRequest request,
+			final ResponseExtractor<T> extractor, Executor callbackExecutor) {
+		if (extractor == null) {
+			throw new IllegalArgumentException("null extractor");
+		}
+		final AbortableFuture<ExtractedResponse<T>> future = new AbortableFuture<ExtractedResponse<T>>(callbackExecutor);
+		start(request, future, new ResponseCallback() {
+
+			@Override
+			public void handle(SenderResponse response) throws Exception {
+				try {
+					T extracted = extractor.extract(response);
+					future.set(new ExtractedResponse<T>(response, extracted));
+				} finally {
+					Cutils.close(response);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Asynchronous execution whith ResponseHandler. Handler is invoked by executor when configured, otherwise by
+	 * selector thread
+	 */
+	@Override
+	public <T extends Serializable> void start(final SenderRequest request, final ResponseHandler handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("null handler");
+		}
+		AbortableFuture<Void> future = new AbortableFuture<Void>() {
+
+			@Override
+			protected void done() {
+				try {
+					get();
+				} catch (Exception x) {
+					logger.warn("Failed asynchronous request", x);
+				}
+			}
+		};
+		start(request, future, new ResponseCallback() {
+
+			@Override
+			public void handle(SenderResponse response) throws Exception {
+				try {
+					handler.handle(response);
+				} finally {
+					Cutils.close(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param callback when null, response completes the future directly
+	 */
+	@SuppressWarnings("unchecked")
+	private void start(SenderRequest request, final AbortableFuture<?> future, final ResponseCallback callback) {
+		String[] pathquery = getPathAndQuery(request);
+		if (this.logger.isDebugEnabled()) {
+			this.logger.debug(request.getMethod() + " " + pathquery[0]);
+		}
+		ByteBuffer[] bytes;
+		try {
+			bytes = buildRequest(request, pathquery[0], pathquery[1]);
+		} catch (IOException iox) {
+			future.setException(iox);
+			return;
+		}
+
+		final Exchange exchange = new Exchange(bytes, !request.getMethod().canHaveBody()) {
+
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					return;
+				}
+				final NioHttpResponse response;
+				try {
+					response = get();
+				} catch (Throwable x) {
+					future.setException(x instanceof ExecutionException ? x.getCause() : x);
+					return;
+				}
+				if (callback == null) {
+					if (!((SettableFuture<SenderResponse>) future).set(response)) {
+						Cutils.close(response); //cancelled meanwhile
+					}
+				} else {
+					Runnable task = new Runnable() {
+
+						@Override
+						public void run() {
+							if (future.isDone()) {
+								Cutils.close(response); //cancelled meanwhile
+								return;
+							}
+							try {
+								callback.handle(response);
+							} catch (Throwable x) {
+								future.setException(x);
+							}
+							((SettableFuture<Object>) future).set(null); //no-op if callback completed it
+						}
+					};
+					ExecutorService executor = getExecutor();
+					if (executor != null) {
+						try {
+							executor.execute(task);
+						} catch (Exception x) {
+							Cutils.close(response);
+							future.setException(x);
+						}
+					} else {
+						task.run();
+					}
+				}
+			}
+		};
+		//cancelled exchange is dropped from queue or it's connection is closed by selector thread
+		future.setAborter(new Runnable() {
+
+			@Override
+			public void run() {
+				if (exchange.cancel(false)) {
+					selector.wakeup();
+				}
+			}
+		});
+		submit(exchange);
+	}
+
+	/**
+	 * Exchange submitted to closed sender fails like any other exchange instead of throwing to caller
+	 */
+	private void submit(Exchange exchange) {
+		if (closed) {
+			exchange.setException(new IOException("Sender is closed"));
+			return;
+		}
+		exchange.submitted = System.currentTimeMillis();
+		submitted.add(exchange);
+		if (closed && submitted.remove(exchange)) {
+			//closed meanwhile and selector thread might not drain submitted anymore
+			exchange.setException(new IOException("Sender is closed"));
+			return;
+		}
+		selector.wakeup();
+	}
+
+	private ByteBuffer[] buildRequest(SenderRequest request, String path, String query) throws IOException {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(request.getMethod()).append(' ').append(path).append(" HTTP/1.1\r\n");
+
+		Multival headers = request.getHeaders();
+		if (request.getFirstHeader("Host") == null) {
+			appendHeader(sb, "Host", hostHeader);
+		}
+		if (headers != null && headers.size() != 0) {
+			for (String name : headers) {
+				if (name.equalsIgnoreCase("Content-Length")) {
+					continue; //computed bellow
+				}
+				List<String> values = headers.get(name);
+				for (String value : values) {
+					appendHeader(sb, name, value);
+				}
+			}
+		}
+
+		if (request.getFirstHeader("Accept-Charset") == null) {
+			appendHeader(sb, "Accept-Charset", config.getEncoding());
+		}
+
+		if (request.getFirstHeader("Accept") == null && config.getAcceptType() != null) {
+			appendHeader(sb, "Accept", config.getAcceptType());
+		}
+
+		if (this.basicAuthHeader != null) {
+			appendHeader(sb, "Authorization", this.basicAuthHeader);
+		}
+
+		if (config.getCompress()) {
+			appendHeader(sb, "Accept-Encoding", "gzip, deflate");
+		}
+
+		byte[] body = null;
+		ByteBuffer mapped = null;
+		if (request.getMethod().canHaveBody()) {
+			//set "Content-Type" if not explicitly set by parameters
+			if (request.getFirstHeader("Content-Type") == null) {
+				appendHeader(sb, "Content-Type", "application/x-www-form-urlencoded; charset=" + config.getEncoding());
+			}
+			if (request.hasBody()) {
+				InputStream stream = ((BodyRequest) request).getBodyStream();
+				if (stream instanceof StringWrappingStream) {
+					body = ((StringWrappingStream) stream).getString().getBytes(config.getCharset());
+				} else if (stream instanceof FileWrappingStream) {
+					mapped = map(((FileWrappingStream) stream).getFile());
+				} else {
+					body = readFully(stream);
+				}
+			} else if (query != null && query.length() != 0) {
+				//POST/PUT without body but with parameters
+				body = query.getBytes(config.getCharset());
+			} else {
+				body = new byte[0];
+			}
+			appendHeader(sb, "Content-Length", String.valueOf(mapped != null ? mapped.remaining() : body.length));
+		}
+		sb.append("\r\n");
+
+		byte[] head = sb.toString().getBytes(ISO_8859_1);
+		ByteBuffer buffer = ByteBuffer.allocate(head.length + (body != null ? body.length : 0));
+		buffer.put(head);
+		if (body != null) {
+			buffer.put(body);
+		}
+		buffer.flip();
+		if (mapped != null) {
+			return new ByteBuffer[] { buffer, mapped };
+		} else {
+			return new ByteBuffer[] { buffer };
+		}
+	}
+
+	/**
+	 * File body is memory mapped and written by selector thread directly from page cache
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //mapping stays valid after close
+		} finally {
+			Cutils.close(input);
+		}
+	}
+
+	private static void appendHeader(StringBuilder sb, String name, String value) {
+		sb.append(name).append(": ").append(value).append("\r\n");
+	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+
+	@Override
+	public String toString() {
+		return "NioHttpSender [" + config.getUrl() + "]";
+	}
+
+	/**
+	 * Invoked with complete response
+	 */
+	private static interface ResponseCallback {
+
+		public void handle(SenderResponse response) throws Exception;
+	}
+
+	/**
+	 * Single request - response exchange
+	 */
+	private static class Exchange extends SettableFuture<NioHttpResponse> {
+
+		private final ByteBuffer[] request; //head and optionally mapped file body
+
+		private final boolean idempotent; //can be pipelined and safely repeated
+
+		private long submitted;
+
+		private boolean retried;
+
+		public Exchange(ByteBuffer[] request, boolean idempotent) {
+			this.request = request;
+			this.idempotent = idempotent;
+		}
+	}
+
+	/**
+	 * Persistent connection. Responses arrive in order of requests so head of exchanges is one being read
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+
+		private final SelectionKey key;
+
+		private boolean connected;
+
+		private boolean reused;
+
+		private long deadline;
+
+		private long idleSince;
+
+		private final LinkedList<Exchange> exchanges = new LinkedList<Exchange>();
+
+		private final LinkedList<ByteBuffer> outputs = new LinkedList<ByteBuffer>();
+
+		private NioResponseParser parser;
+
+		public Connection(long now) throws IOException {
+			this.channel = SocketChannel.open();
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				this.connected = channel.connect(new InetSocketAddress(host, port));
+				this.key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+			} catch (IOException iox) {
+				Cutils.close(channel);
+				throw iox;
+			}
+			this.deadline = now + (connected ? config.getReadTimeout() : config.getConnectTimeout());
+		}
+
+		public void assign(Exchange exchange, long now) {
+			if (exchanges.isEmpty()) {
+				this.parser = new NioResponseParser();
+				this.deadline = now + (connected ? config.getReadTimeout() : config.getConnectTimeout());
+			}
+			exchanges.add(exchange);
+			for (ByteBuffer buffer : exchange.request) {
+				outputs.add(buffer.duplicate()); //original stays intact for retry
+			}
+			if (connected) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Only already proven persistent connection with idempotent requests in flight can take another one
+		 */
+		public boolean canPipeline(Exchange exchange) {
+			if (!reused || !exchange.idempotent || exchanges.size() >= config.getPipelineDepth()) {
+				return false;
+			}
+			for (Exchange inflight : exchanges) {
+				if (!inflight.idempotent) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void close() {
+			key.cancel();
+			Cutils.close(channel);
+		}
+	}
+
+	/**
+	 * Selector thread
+	 */
+	private class EventLoop implements Runnable {
+
+		@Override
+		public void run() {
+			readBuffer = ByteBuffer.allocateDirect(config.getBufferSize());
+			long wakeup = 1000;
+			while (!closed) {
+				try {
+					selector.select(wakeup);
+					long now = System.currentTimeMillis();
+					processSelected(now);
+					processSubmitted();
+					dispatch(now);
+					wakeup = processTimeouts(now);
+				} catch (Exception x) {
+					logger.warn("Exception in selector loop", x);
+				}
+			}
+			shutdown();
+		}
+
+		private void processSelected(long now) {
+			Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+			while (iterator.hasNext()) {
+				SelectionKey key = iterator.next();
+				iterator.remove();
+				Connection connection = (Connection) key.attachment();
+				try {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isConnectable()) {
+						connection.channel.finishConnect();
+						connection.connected = true;
+						connection.deadline = now + config.getReadTimeout();
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						continue;
+					}
+					if (key.isWritable()) {
+						write(connection, now);
+					}
+					if (key.isValid() && key.isReadable()) {
+						read(connection, now);
+					}
+				} catch (IOException iox) {
+					failed(connection, iox);
+				}
+			}
+		}
+
+		private void write(Connection connection, long now) throws IOException {
+			while (!connection.outputs.isEmpty()) {
+				ByteBuffer output = connection.outputs.getFirst();
+				connection.channel.write(output);
+				if (output.hasRemaining()) {
+					return; //socket buffer is full
+				}
+				connection.outputs.removeFirst();
+				connection.deadline = now + config.getReadTimeout();
+			}
+			connection.key.interestOps(SelectionKey.OP_READ);
+		}
+
+		private void read(Connection connection, long now) throws IOException {
+			if (connection.exchanges.isEmpty()) {
+				//idle connection was closed by server or sent garbage
+				idle.remove(connection);
+				connection.close();
+				return;
+			}
+			int read;
+			while ((read = connection.channel.read(readBuffer)) > 0) {
+				connection.deadline = now + config.getReadTimeout();
+				readBuffer.flip();
+				try {
+					while (connection.parser.parse(readBuffer)) {
+						if (!completed(connection, now)) {
+							return; //connection is closed or idle
+						}
+					}
+				} finally {
+					readBuffer.clear();
+				}
+			}
+			if (read == -1 && connection.parser.close()) {
+				connection.parser.setKeepAlive(false);
+				completed(connection, now);
+			}
+		}
+
+		/**
+		 * Head exchange is complete
+		 *
+		 * @return true if connection has another exchange waiting for response
+		 */
+		private boolean completed(Connection connection, long now) {
+			Exchange exchange = connection.exchanges.removeFirst();
+			NioHttpResponse response = connection.parser.getResponse();
+			boolean keepAlive = connection.parser.isKeepAlive() && !closed;
+			boolean more = false;
+			if (!keepAlive) {
+				//requests pipelined behind this one will not be answered
+				active.remove(connection);
+				connection.close();
+				requeue(connection, null);
+			} else if (!connection.exchanges.isEmpty()) {
+				connection.reused = true;
+				connection.parser = new NioResponseParser();
+				more = true;
+			} else if (readBuffer.hasRemaining()) {
+				//unexpected bytes after response
+				active.remove(connection);
+				connection.close();
+			} else {
+				active.remove(connection);
+				connection.reused = true;
+				connection.parser = null;
+				connection.idleSince = now;
+				connection.key.interestOps(SelectionKey.OP_READ);
+				idle.addFirst(connection);
+			}
+			exchange.set(response);
+			return more;
+		}
+
+		private void failed(Connection connection, IOException iox) {
+			failed(connection, iox, true);
+		}
+
+		/**
+		 * @param retry only i/o failures of idempotent requests are retried, never timeouts
+		 */
+		private void failed(Connection connection, IOException iox, boolean retry) {
+			active.remove(connection);
+			idle.remove(connection);
+			connection.close();
+			if (connection.exchanges.isEmpty()) {
+				return;
+			}
+			Exchange exchange = connection.exchanges.removeFirst();
+			if (!exchange.isDone()) {
+				if (retry && connection.reused && !connection.parser.isStarted() && exchange.idempotent && !exchange.retried) {
+					//stale persistent connection - try again with another one
+					logger.debug("Retrying request on stale connection " + iox);
+					retry(exchange);
+				} else {
+					exchange.setException(iox);
+				}
+			}
+			requeue(connection, iox);
+		}
+
+		/**
+		 * Pipelined exchanges of broken connection are sent again, unless they were already retried once
+		 */
+		private void requeue(Connection connection, IOException iox) {
+			Exchange exchange;
+			while ((exchange = connection.exchanges.pollLast()) != null) {
+				if (exchange.isDone()) {
+					continue;
+				}
+				if (exchange.retried) {
+					exchange.setException(iox != null ? iox : new IOException("Connection closed by server"));
+				} else {
+					retry(exchange);
+				}
+			}
+		}
+
+		/**
+		 * Exchange waits for connection again. Pool acquire timeout starts anew, time spent on failed attempt is not counted
+		 */
+		private void retry(Exchange exchange) {
+			exchange.retried = true;
+			exchange.submitted = System.currentTimeMillis();
+			waiting.addFirst(exchange);
+		}
+
+		private void processSubmitted() {
+			Exchange exchange;
+			while ((exchange = submitted.poll()) != null) {
+				waiting.add(exchange);
+			}
+		}
+
+		private void dispatch(long now) {
+			while (!waiting.isEmpty()) {
+				Exchange exchange = waiting.getFirst();
+				if (exchange.isDone()) { //cancelled
+					waiting.removeFirst();
+					continue;
+				}
+				Connection connection = idle.pollFirst();
+				if (connection == null) {
+					if (active.size() < config.getPoolMaximum()) {
+						try {
+							connection = new Connection(now);
+						} catch (IOException iox) {
+							waiting.removeFirst();
+							exchange.setException(iox);
+							continue;
+						}
+					} else {
+						connection = pipelineCandidate(exchange);
+						if (connection == null) {
+							return; //wait for some connection to be released
+						}
+					}
+				}
+				waiting.removeFirst();
+				active.add(connection);
+				connection.assign(exchange, now);
+			}
+		}
+
+		/**
+		 * @return active connection with shortest pipeline able to take exchange
+		 */
+		private Connection pipelineCandidate(Exchange exchange) {
+			Connection candidate = null;
+			for (Connection connection : active) {
+				if (connection.canPipeline(exchange)
+						&& (candidate == null || connection.exchanges.size() < candidate.exchanges.size())) {
+					candidate = connection;
+				}
+			}
+			return candidate;
+		}
+
+		/**
+		 * @return millis to next check
+		 */
+		private long processTimeouts(long now) {
+			long next = now + 1000;
+			for (Connection connection : new ArrayList<Connection>(active)) {
+				if (connection.exchanges.getFirst().isDone()) {
+					//cancelled by caller while response is being read - connection is in undefined state
+					active.remove(connection);
+					connection.exchanges.removeFirst();
+					connection.close();
+					requeue(connection, null);
+				} else if (connection.deadline <= now) {
+					if (connection.connected) {
+						failed(connection, new SocketTimeoutException("Read timeout " + config.getReadTimeout() + " ms"), false);
+					} else {
+						failed(connection, new ConnectException("Connect timeout " + config.getConnectTimeout() + " ms"), false);
+					}
+				} else {
+					next = Math.min(next, connection.deadline);
+				}
+			}
+
+			for (Iterator<Connection> iterator = idle.iterator(); iterator.hasNext();) {
+				Connection connection = iterator.next();
+				long expiry = connection.idleSince + config.getPoolReleaseTimeout();
+				if (expiry <= now) {
+					iterator.remove();
+					connection.close();
+				} else {
+					next = Math.min(next, expiry);
+				}
+			}
+
+			for (Iterator<Exchange> iterator = waiting.iterator(); iterator.hasNext();) {
+				Exchange exchange = iterator.next();
+				long expiry = exchange.submitted + config.getPoolAcquireTimeout();
+				if (expiry <= now) {
+					iterator.remove();
+					exchange.setException(new ConnectException("Pool timeout " + config.getPoolAcquireTimeout() + " ms"));
+				} else {
+					next = Math.min(next, expiry);
+				}
+			}
+			return Math.max(next - now, 1);
+		}
+
+		private void shutdown() {
+			IOException closed = new IOException("Sender is closed");
+			for (Connection connection : active) {
+				connection.close();
+				for (Exchange exchange : connection.exchanges) {
+					exchange.setException(closed);
+				}
+			}
+			active.clear();
+			for (Connection connection : idle) {
+				connection.close();
+			}
+			idle.clear();
+			processSubmitted();
+			for (Exchange exchange : waiting) {
+				exchange.setException(closed);
+			}
+			waiting.clear();
+			try {
+				selector.close();
+			} catch (IOException iox) {
+				logger.warn("Exception while closing selector", iox);
+			}
+		}
+	}
+}
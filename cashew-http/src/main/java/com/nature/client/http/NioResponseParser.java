@@ -0,0 +1,299 @@
+package com.nature.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.nature.client.http.HttpSender.Multival;
+
+/**
+ * Incremental HTTP/1.1 response parser. Bytes are pushed in as they arrive from non-blocking channel
+ *
+ * @author martin.vanek
+ *
+ */
+class NioResponseParser {
+
+	private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+	private static final int MAX_BODY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private static enum State {
+		STATUS, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE;
+	}
+
+	private State state = State.STATUS;
+
+	private final StringBuilder line = new StringBuilder(128);
+
+	private boolean started; //anything received
+
+	private int code;
+
+	private String message;
+
+	private Multival headers;
+
+	private boolean keepAlive;
+
+	private boolean chunked;
+
+	private long contentLength;
+
+	private long remaining;
+
+	private byte[] body;
+
+	private int bodyLength;
+
+	/**
+	 * @return true when response is complete
+	 */
+	public boolean parse(ByteBuffer buffer) throws IOException {
+		if (buffer.hasRemaining()) {
+			started = true;
+		}
+		while (buffer.hasRemaining() && state != State.DONE) {
+			switch (state) {
+			case STATUS:
+			case HEADERS:
+			case CHUNK_SIZE:
+			case CHUNK_END:
+			case TRAILERS:
+				if (readLine(buffer)) {
+					String string = line.toString();
+					line.setLength(0);
+					onLine(string);
+				}
+				break;
+			case BODY:
+			case CHUNK_DATA:
+				int length = (int) Math.min(remaining, buffer.remaining());
+				append(buffer, length);
+				remaining -= length;
+				if (remaining == 0) {
+					state = state == State.BODY ? State.DONE : State.CHUNK_END;
+				}
+				break;
+			case UNTIL_CLOSE:
+				append(buffer, buffer.remaining());
+				break;
+			default:
+				throw new IllegalStateException(String.valueOf(state));
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * Server closed connection.
+	 *
+	 * @return true when response is complete
+	 */
+	public boolean close() throws IOException {
+		if (state == State.UNTIL_CLOSE) {
+			state = State.DONE;
+		}
+		if (state == State.DONE) {
+			return true;
+		}
+		throw new EOFException(started ? "Connection closed before response was complete" : "Connection closed by server");
+	}
+
+	/**
+	 * @return true if any byte of response has been received
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	public boolean isDone() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * @return true if connection can be reused for next request
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Unexpected data after response end - connection must not be reused
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public NioHttpResponse getResponse() {
+		if (state != State.DONE) {
+			throw new IllegalStateException("Response is not complete " + state);
+		}
+		ByteArrayInputStream stream = new ByteArrayInputStream(body != null ? body : EMPTY, 0, bodyLength);
+		return new NioHttpResponse(code, message, headers, stream);
+	}
+
+	private void onLine(String string) throws IOException {
+		switch (state) {
+		case STATUS:
+			if (string.length() != 0) { //tolerate empty lines before status
+				parseStatus(string);
+				state = State.HEADERS;
+			}
+			break;
+		case HEADERS:
+			if (string.length() == 0) {
+				onHeadersEnd();
+			} else {
+				parseHeader(string);
+			}
+			break;
+		case CHUNK_SIZE:
+			int semicolon = string.indexOf(';'); //chunk extensions are ignored
+			String hex = (semicolon == -1 ? string : string.substring(0, semicolon)).trim();
+			try {
+				remaining = Long.parseLong(hex, 16);
+			} catch (NumberFormatException nfx) {
+				throw new IOException("Invalid chunk size line " + string);
+			}
+			if (remaining == 0) {
+				state = State.TRAILERS;
+			} else {
+				reserve(bodyLength + remaining);
+				state = State.CHUNK_DATA;
+			}
+			break;
+		case CHUNK_END:
+			if (string.length() != 0) {
+				throw new IOException("Invalid chunk end " + string);
+			}
+			state = State.CHUNK_SIZE;
+			break;
+		case TRAILERS:
+			if (string.length() == 0) { //trailers are ignored
+				state = State.DONE;
+			}
+			break;
+		default:
+			throw new IllegalStateException(String.valueOf(state));
+		}
+	}
+
+	private void parseStatus(String string) throws IOException {
+		int space1 = string.indexOf(' ');
+		if (!string.startsWith("HTTP/") || space1 == -1) {
+			throw new IOException("Invalid status line " + string);
+		}
+		String version = string.substring(0, space1);
+		int space2 = string.indexOf(' ', space1 + 1);
+		String scode = space2 == -1 ? string.substring(space1 + 1) : string.substring(space1 + 1, space2);
+		try {
+			code = Integer.parseInt(scode.trim());
+		} catch (NumberFormatException nfx) {
+			throw new IOException("Invalid status line " + string);
+		}
+		message = space2 == -1 ? "" : string.substring(space2 + 1);
+		headers = new Multival(true);
+		keepAlive = version.equals("HTTP/1.1"); //HTTP/1.0 must ask for keep alive explicitly
+		chunked = false;
+		contentLength = -1;
+	}
+
+	private void parseHeader(String string) throws IOException {
+		int colon = string.indexOf(':');
+		if (colon < 1) {
+			throw new IOException("Invalid header line " + string);
+		}
+		String name = string.substring(0, colon).trim();
+		String value = string.substring(colon + 1).trim();
+		headers.add(name, value);
+
+		if (name.equalsIgnoreCase("Content-Length")) {
+			try {
+				contentLength = Long.parseLong(value);
+			} catch (NumberFormatException nfx) {
+				throw new IOException("Invalid Content-Length " + value);
+			}
+		} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+			chunked = value.toLowerCase().indexOf("chunked") != -1;
+		} else if (name.equalsIgnoreCase("Connection")) {
+			if (value.equalsIgnoreCase("close")) {
+				keepAlive = false;
+			} else if (value.equalsIgnoreCase("keep-alive")) {
+				keepAlive = true;
+			}
+		}
+	}
+
+	private void onHeadersEnd() throws IOException {
+		if (code >= 100 && code < 200) {
+			//100 Continue and other informational responses are followed by real one
+			state = State.STATUS;
+		} else if (code == 204 || code == 304) {
+			state = State.DONE;
+		} else if (chunked) {
+			state = State.CHUNK_SIZE;
+		} else if (contentLength >= 0) {
+			remaining = contentLength;
+			reserve(contentLength);
+			state = contentLength == 0 ? State.DONE : State.BODY;
+		} else {
+			//body delimited by connection close
+			keepAlive = false;
+			state = State.UNTIL_CLOSE;
+		}
+	}
+
+	private boolean readLine(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			char c = (char) (buffer.get() & 0xFF);
+			if (c == '\n') {
+				int length = line.length();
+				if (length != 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return true;
+			}
+			if (line.length() == MAX_LINE_LENGTH) {
+				throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " characters");
+			}
+			line.append(c);
+		}
+		return false;
+	}
+
+	private void append(ByteBuffer buffer, int length) throws IOException {
+		ensureCapacity((long) bodyLength + length);
+		buffer.get(body, bodyLength, length);
+		bodyLength += length;
+	}
+
+	/**
+	 * Announced length comes from server and is not trusted. Allocation is capped and grows as bytes really arrive
+	 */
+	private void reserve(long announced) throws IOException {
+		if (announced > MAX_BODY_LENGTH) {
+			throw new IOException("Response body is too large " + announced);
+		}
+		ensureCapacity(Math.min(announced, Math.max(bodyLength, BufferPool.getMaximumRetained())));
+	}
+
+	/**
+	 * Doubling when body grows
+	 */
+	private void ensureCapacity(long required) throws IOException {
+		if (required > MAX_BODY_LENGTH) {
+			throw new IOException("Response body is too large " + required);
+		}
+		if (body == null) {
+			body = new byte[(int) required];
+		} else if (body.length < required) {
+			int length = (int) Math.min(Math.max(required, body.length * 2L), MAX_BODY_LENGTH);
+			body = Arrays.copyOf(body, length);
+		}
+	}
+}
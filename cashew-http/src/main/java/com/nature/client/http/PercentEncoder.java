@@ -0,0 +1,121 @@
+package com.nature.client.http;
+
+import java.nio.charset.Charset;
+
+/**
+ * Table driven application/x-www-form-urlencoded encoder producing same output as java.net.URLEncoder, but appending
+ * directly into provided StringBuilder. UTF-8 is encoded without any intermediate allocation
+ *
+ * @author martin.vanek
+ *
+ */
+public class PercentEncoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Characters not needing encoding - same set as java.net.URLEncoder
+	 */
+	private static final boolean[] SAFE = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; ++c) {
+			SAFE[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; ++c) {
+			SAFE[c] = true;
+		}
+		for (char c = '0'; c <= '9'; ++c) {
+			SAFE[c] = true;
+		}
+		SAFE['-'] = true;
+		SAFE['_'] = true;
+		SAFE['.'] = true;
+		SAFE['*'] = true;
+	}
+
+	public static String encode(String string, Charset charset) {
+		StringBuilder sb = new StringBuilder(string.length() + 16);
+		encode(string, 0, charset, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends encoded string starting at index start
+	 */
+	public static void encode(String string, int start, Charset charset, StringBuilder output) {
+		boolean utf8 = UTF8.equals(charset);
+		int length = string.length();
+		for (int i = start; i < length; ++i) {
+			char c = string.charAt(i);
+			if (c < 128 && SAFE[c]) {
+				output.append(c);
+			} else if (c == ' ') {
+				output.append('+');
+			} else if (utf8) {
+				if (c < 128) {
+					appendByte(c, output);
+				} else {
+					i = appendUtf8(string, i, output);
+				}
+			} else {
+				//run of characters needing encoding is encoded at once - same as URLEncoder
+				int end = i + 1;
+				while (end < length && needsEncoding(string.charAt(end))) {
+					++end;
+				}
+				byte[] bytes = string.substring(i, end).getBytes(charset);
+				for (byte b : bytes) {
+					appendByte(b, output);
+				}
+				i = end - 1;
+			}
+		}
+	}
+
+	private static boolean needsEncoding(char c) {
+		return c >= 128 || (!SAFE[c] && c != ' ');
+	}
+
+	/**
+	 * @return index of last character consumed
+	 */
+	private static int appendUtf8(String string, int index, StringBuilder output) {
+		char c = string.charAt(index);
+		int codePoint;
+		if (Character.isHighSurrogate(c)) {
+			if (index + 1 < string.length() && Character.isLowSurrogate(string.charAt(index + 1))) {
+				codePoint = Character.toCodePoint(c, string.charAt(index + 1));
+				++index;
+			} else {
+				appendByte('?', output); //malformed - same as String.getBytes
+				return index;
+			}
+		} else if (Character.isLowSurrogate(c)) {
+			appendByte('?', output);
+			return index;
+		} else {
+			codePoint = c;
+		}
+		if (codePoint < 0x800) {
+			appendByte(0xC0 | (codePoint >> 6), output);
+			appendByte(0x80 | (codePoint & 0x3F), output);
+		} else if (codePoint < 0x10000) {
+			appendByte(0xE0 | (codePoint >> 12), output);
+			appendByte(0x80 | ((codePoint >> 6) & 0x3F), output);
+			appendByte(0x80 | (codePoint & 0x3F), output);
+		} else {
+			appendByte(0xF0 | (codePoint >> 18), output);
+			appendByte(0x80 | ((codePoint >> 12) & 0x3F), output);
+			appendByte(0x80 | ((codePoint >> 6) & 0x3F), output);
+			appendByte(0x80 | (codePoint & 0x3F), output);
+		}
+		return index;
+	}
+
+	private static void appendByte(int b, StringBuilder output) {
+		output.append('%').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+	}
+}
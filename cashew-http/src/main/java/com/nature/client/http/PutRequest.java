@@ -7,9 +7,9 @@ import com.nature.client.http.HttpSender.Multival;
  * @author martin.vanek
  *
  */
-public class PutRequest extends SenderRequest {
+public class PutRequest extends BodyRequest {
 
-	private static final Method method = Method.POST;
+	private static final Method method = Method.PUT;
 
 	//Constructors of managed request instance knowing it's Sender
 
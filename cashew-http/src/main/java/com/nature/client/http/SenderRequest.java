@@ -2,7 +2,6 @@ package com.nature.client.http;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.List;
 
 import com.nature.client.http.HttpSender.Multival;
 import com.nature.client.http.ResponseExtractor.ExtractedResponse;
@@ -38,6 +37,14 @@ public abstract class SenderRequest {
 
 	private Multival parameters;
 
+	private transient String cacheKey; //remembered by CacheKeyGenerator
+
+	private transient Object cacheKeyGenerator;
+
+	private transient HttpSender cacheKeySender;
+
+	private transient long cacheKeyStamp;
+
 	// Constructors of managed request instance knowing it's Sender
 
 	protected SenderRequest(HttpSender sender, Method method) {
@@ -137,19 +144,15 @@ public abstract class SenderRequest {
 
 	public SenderRequest setHeaders(Multival headers) {
 		this.headers = headers;
+		this.cacheKey = null;
 		return this;
 	}
 
 	public SenderRequest setHeader(String name, String value) {
 		if (this.headers == null) {
-			this.headers = new Multival();
-		}
-		List<String> values = this.headers.get(name);
-		if (values != null) {
-			values.set(0, value); //replace existing
-		} else {
-			this.headers.add(name, value);
+			this.headers = new Multival(true);
 		}
+		this.headers.set(name, value); //replace existing
 		return this;
 	}
 
@@ -193,6 +196,7 @@ public abstract class SenderRequest {
 
 	public SenderRequest setParameters(Multival parameters) {
 		this.parameters = parameters;
+		this.cacheKey = null;
 		return this;
 	}
 
@@ -209,6 +213,29 @@ public abstract class SenderRequest {
 		return this;
 	}
 
+	/**
+	 * @return key remembered for generator and sender or null if there is none or request was modified since
+	 */
+	String getCacheKey(Object generator, HttpSender sender) {
+		if (cacheKey != null && cacheKeyGenerator == generator && cacheKeySender == sender
+				&& cacheKeyStamp == getModStamp()) {
+			return cacheKey;
+		}
+		return null;
+	}
+
+	void setCacheKey(Object generator, HttpSender sender, String key) {
+		this.cacheKeyGenerator = generator;
+		this.cacheKeySender = sender;
+		this.cacheKeyStamp = getModStamp();
+		this.cacheKey = key;
+	}
+
+	private long getModStamp() {
+		long stamp = headers != null ? headers.getModCount() : 0;
+		return stamp << 32 | (parameters != null ? parameters.getModCount() & 0xFFFFFFFFL : 0);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -1,10 +1,15 @@
 package com.nature.client.http;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 
 import com.nature.client.http.HttpSender.Multival;
@@ -65,6 +70,36 @@ public abstract class SenderResponse implements Closeable, Serializable {
 		return stream;
 	}
 
+	/**
+	 * Streams body into channel through reusable direct buffer, without holding whole body in memory.
+	 * Channel is not closed
+	 * 
+	 * @return number of bytes written
+	 */
+	public long transferTo(WritableByteChannel channel) throws IOException {
+		if (channel == null) {
+			throw new IllegalArgumentException("null channel");
+		}
+		if (stream == null) {
+			return 0; //304 Not Modified
+		}
+		ReadableByteChannel source = Channels.newChannel(stream);
+		ByteBuffer buffer = BufferPool.acquireDirect();
+		try {
+			long total = 0;
+			while (source.read(buffer) != -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					total += channel.write(buffer);
+				}
+				buffer.clear();
+			}
+			return total;
+		} finally {
+			BufferPool.releaseDirect(buffer);
+		}
+	}
+
 	public Reader getReader() {
 		return new InputStreamReader(stream, getCharset());
 	}
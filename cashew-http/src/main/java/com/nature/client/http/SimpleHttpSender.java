@@ -1,6 +1,7 @@
 package com.nature.client.http;
 
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,6 +11,9 @@ import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.nature.client.http.Authentication.Scheme;
+import com.nature.client.http.BodyRequest.FileWrappingStream;
 import com.nature.client.http.BodyRequest.StringWrappingStream;
 
 /**
@@ -75,7 +80,14 @@ public class SimpleHttpSender extends HttpSender {
 		URL url = new URL(this.config.getUrl().getProtocol(), this.config.getUrl().getHost(), this.config.getUrl()
 				.getPort(), path);
 
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		abortWith(new Runnable() {
+
+			@Override
+			public void run() {
+				connection.disconnect();
+			}
+		});
 		connection.setConnectTimeout(this.config.getConnectTimeout());
 		connection.setReadTimeout(this.config.getReadTimeout());
 		connection.setInstanceFollowRedirects(false);
@@ -134,6 +146,8 @@ public class SimpleHttpSender extends HttpSender {
 					String string = ((StringWrappingStream) stream).getString();
 					byte[] dataBytes = string.getBytes(this.config.getCharset());
 					writeBytes(connection, dataBytes);
+				} else if (stream instanceof FileWrappingStream) {
+					writeFile(connection, (FileWrappingStream) stream);
 				} else {
 					writeStream(connection, stream);
 				}
@@ -162,7 +176,7 @@ public class SimpleHttpSender extends HttpSender {
 				logHeaders("Response", headerFields);
 			}
 		}
-		Multival responseHeaders = new Multival(headerFields);
+		Multival responseHeaders = new Multival(headerFields, true);
 
 		InputStream inputStream = null;
 		try {
@@ -179,7 +193,7 @@ public class SimpleHttpSender extends HttpSender {
 		DataOutputStream output = null;
 		try {
 			output = new DataOutputStream(connection.getOutputStream());
-			byte[] buffer = new byte[512];
+			byte[] buffer = new byte[8192];
 			int read = -1;
 			while ((read = input.read(buffer)) != -1) {
 				output.write(buffer, 0, read);
@@ -191,6 +205,47 @@ public class SimpleHttpSender extends HttpSender {
 		}
 	}
 
+	/**
+	 * Fixed length streaming mode - HttpURLConnection does not buffer whole body to compute Content-Length
+	 */
+	private void writeFile(HttpURLConnection connection, FileWrappingStream body) throws IOException {
+		long length = body.getLength();
+		if (length <= Integer.MAX_VALUE) {
+			connection.setFixedLengthStreamingMode((int) length);
+		} else {
+			connection.setChunkedStreamingMode(0);
+		}
+		if (this.logger.isDebugEnabled()) {
+			logHeaders("Request", connection.getRequestProperties());
+		}
+		FileInputStream input = new FileInputStream(body.getFile());
+		OutputStream output = null;
+		try {
+			FileChannel channel = input.getChannel();
+			if (channel.size() < length) {
+				throw new IOException("File " + body.getFile() + " shrunk from " + length + " to " + channel.size() + " bytes");
+			}
+			output = connection.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(output);
+			long position = 0;
+			while (position < length) {
+				long count = channel.transferTo(position, length - position, target);
+				if (count == 0 && position >= channel.size()) {
+					//transferTo returns 0 at the end of file instead of -1
+					throw new IOException("File " + body.getFile() + " changed size while being sent. Expected " + length
+							+ " bytes, available " + position);
+				}
+				position += count;
+			}
+			output.flush();
+			output.close();
+		} catch (IOException iox) {
+			throw translateException(iox, output);
+		} finally {
+			Cutils.close(input);
+		}
+	}
+
 	private void writeBytes(HttpURLConnection connection, byte[] dataBytes) throws IOException {
 		connection.setRequestProperty("Content-Length", Integer.toString(dataBytes.length));
 		if (this.logger.isDebugEnabled()) {
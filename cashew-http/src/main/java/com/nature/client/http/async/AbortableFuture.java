@@ -0,0 +1,64 @@
+package com.nature.client.http.async;
+
+import java.util.concurrent.Executor;
+
+/**
+ * SettableFuture that aborts underlying work when cancelled.
+ *
+ * Aborter is typically registered by thread executing request, once it knows what to abort (socket, http method)
+ *
+ * @author martin.vanek
+ *
+ */
+public class AbortableFuture<V> extends SettableFuture<V> {
+
+	private Runnable aborter;
+
+	public AbortableFuture() {
+		super();
+	}
+
+	public AbortableFuture(Executor callbackExecutor) {
+		super(callbackExecutor);
+	}
+
+	/**
+	 * Registers aborter. When future is already cancelled, aborter is executed immediately
+	 */
+	public void setAborter(Runnable aborter) {
+		synchronized (this) {
+			if (!isDone()) {
+				this.aborter = aborter;
+				return;
+			}
+		}
+		if (isCancelled() && aborter != null) {
+			aborter.run();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!super.cancel(mayInterruptIfRunning)) {
+			return false;
+		}
+		Runnable aborter;
+		synchronized (this) {
+			aborter = this.aborter;
+			this.aborter = null;
+		}
+		if (aborter != null) {
+			aborter.run();
+		}
+		return true;
+	}
+
+	@Override
+	protected void done() {
+		if (!isCancelled()) {
+			synchronized (this) {
+				this.aborter = null;
+			}
+		}
+	}
+}
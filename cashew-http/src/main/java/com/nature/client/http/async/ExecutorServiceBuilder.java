@@ -10,6 +10,9 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * 
  * @author martin.vanek
@@ -17,6 +20,10 @@ import java.util.concurrent.TimeUnit;
  */
 public class ExecutorServiceBuilder {
 
+	private static final Logger logger = LoggerFactory.getLogger(ExecutorServiceBuilder.class);
+
+	private static final long FALLBACK_STACK_SIZE = 256 * 1024;
+
 	private int corePoolSize = 1;
 	private int maximumPoolSize = 10;
 	private int maximumQueueSize = 0;
@@ -24,8 +31,18 @@ public class ExecutorServiceBuilder {
 	private TimeUnit unit = TimeUnit.SECONDS;
 	private ThreadFactory threadFactory = new NamedDeamonThreadFactory();
 	private RejectedExecutionHandler rejectionHandler = new RejectingPolicy();
+	private boolean virtualThreads = false;
+	private int maximumInFlight = 10000;
 
 	public ExecutorService build() {
+		if (virtualThreads) {
+			ThreadFactory factory = buildVirtualThreadFactory();
+			if (factory instanceof NamedDeamonThreadFactory) {
+				logger.warn("Virtual threads are not available in Java " + System.getProperty("java.version")
+						+ ". Up to " + maximumInFlight + " platform threads will be started");
+			}
+			return new ThreadPerTaskExecutor(factory, maximumInFlight);
+		}
 		BlockingQueue<Runnable> queue;
 		if (maximumQueueSize == 0) {
 			//this is not a queue actually - directly pushing requests to threads
@@ -39,6 +56,21 @@ public class ExecutorServiceBuilder {
 				rejectionHandler);
 	}
 
+	/**
+	 * Virtual threads are available since Java 21. On older runtime, daemon threads with small stack are used instead
+	 */
+	private static ThreadFactory buildVirtualThreadFactory() {
+		String namePrefix = "hc-" + NamedDeamonThreadFactory.poolNumber.getAndIncrement() + "-v-";
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception x) {
+			return new NamedDeamonThreadFactory(namePrefix, true, FALLBACK_STACK_SIZE);
+		}
+	}
+
 	public int getCorePoolSize() {
 		return corePoolSize;
 	}
@@ -102,6 +134,34 @@ public class ExecutorServiceBuilder {
 		return this;
 	}
 
+	public boolean getVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Thread per task executor instead of ThreadPoolExecutor. Pool, queue and rejection settings are ignored then and
+	 * number of concurrently running tasks is capped by maximumInFlight
+	 */
+	public ExecutorServiceBuilder setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	public int getMaximumInFlight() {
+		return maximumInFlight;
+	}
+
+	/**
+	 * Maximum of tasks running concurrently in virtual threads mode. Further tasks are rejected when reached
+	 */
+	public ExecutorServiceBuilder setMaximumInFlight(int maximumInFlight) {
+		if (maximumInFlight < 1) {
+			throw new IllegalArgumentException("maximumInFlight " + maximumInFlight + " must be >= 1");
+		}
+		this.maximumInFlight = maximumInFlight;
+		return this;
+	}
+
 	public class RejectingPolicy implements RejectedExecutionHandler {
 
 		@Override
@@ -0,0 +1,18 @@
+package com.nature.client.http.async;
+
+/**
+ * Notification about completion of {@link ListenableFuture}
+ *
+ * @author martin.vanek
+ *
+ */
+public interface FutureCallback<V> {
+
+	public void onSuccess(V result);
+
+	/**
+	 * @param failure is {@link java.util.concurrent.CancellationException} when future was cancelled
+	 */
+	public void onFailure(Throwable failure);
+
+}
@@ -0,0 +1,25 @@
+package com.nature.client.http.async;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Future that notifies callbacks when completed, so nobody has to block in get() to continue
+ *
+ * @author martin.vanek
+ *
+ */
+public interface ListenableFuture<V> extends Future<V> {
+
+	/**
+	 * Callback is executed by future's default executor, or by thread completing the future if there is none. When
+	 * future is already completed, callback is executed immediately
+	 */
+	public void addCallback(FutureCallback<? super V> callback);
+
+	/**
+	 * Callback is executed by provided executor
+	 */
+	public void addCallback(FutureCallback<? super V> callback, Executor executor);
+
+}
@@ -15,6 +15,7 @@ class NamedDeamonThreadFactory implements ThreadFactory {
 	final String namePrefix;
 	final ThreadGroup group;
 	final boolean deamon;
+	final long stackSize;
 	//thread name counter
 	final AtomicInteger threadNumber = new AtomicInteger(1);
 
@@ -27,6 +28,13 @@ class NamedDeamonThreadFactory implements ThreadFactory {
 	}
 
 	public NamedDeamonThreadFactory(String namePrefix, boolean deamon) {
+		this(namePrefix, deamon, 0);
+	}
+
+	/**
+	 * @param stackSize 0 means platform default
+	 */
+	public NamedDeamonThreadFactory(String namePrefix, boolean deamon, long stackSize) {
 		if (namePrefix == null || namePrefix.isEmpty()) {
 			throw new IllegalArgumentException("Null or empty namePrefix");
 		}
@@ -34,10 +42,11 @@ class NamedDeamonThreadFactory implements ThreadFactory {
 		SecurityManager s = System.getSecurityManager();
 		this.group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
 		this.deamon = deamon;
+		this.stackSize = stackSize;
 	}
 
 	public Thread newThread(Runnable r) {
-		Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement());
+		Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement(), stackSize);
 		t.setDaemon(deamon);
 		if (t.getPriority() != Thread.NORM_PRIORITY)
 			t.setPriority(Thread.NORM_PRIORITY);
@@ -0,0 +1,209 @@
+package com.nature.client.http.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Future completed explicitly by whoever produces the value - no thread is bound to it while it is pending
+ *
+ * @author martin.vanek
+ *
+ */
+public class SettableFuture<V> implements ListenableFuture<V> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SettableFuture.class);
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+
+	private final Executor callbackExecutor;
+
+	private volatile int state = PENDING;
+
+	private V value;
+
+	private Throwable exception;
+
+	private List<Listener> listeners;
+
+	public SettableFuture() {
+		this(null);
+	}
+
+	/**
+	 * @param callbackExecutor default executor for callbacks. Can be null
+	 */
+	public SettableFuture(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * @return true if this call completed future, false if it was completed before
+	 */
+	public boolean set(V value) {
+		return complete(SUCCEEDED, value, null);
+	}
+
+	/**
+	 * @return true if this call completed future, false if it was completed before
+	 */
+	public boolean setException(Throwable exception) {
+		if (exception == null) {
+			throw new IllegalArgumentException("null exception");
+		}
+		return complete(FAILED, null, exception);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(CANCELLED, null, null);
+	}
+
+	private boolean complete(int state, V value, Throwable exception) {
+		List<Listener> listeners;
+		synchronized (latch) {
+			if (this.state != PENDING) {
+				return false;
+			}
+			this.value = value;
+			this.exception = exception;
+			this.state = state;
+			listeners = this.listeners;
+			this.listeners = null;
+		}
+		latch.countDown();
+		done();
+		if (listeners != null) {
+			for (Listener listener : listeners) {
+				listener.dispatch();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Invoked once when future is completed, by thread completing it, before callbacks. Subclasses may override it
+	 */
+	protected void done() {
+
+	}
+
+	@Override
+	public void addCallback(FutureCallback<? super V> callback) {
+		addCallback(callback, callbackExecutor);
+	}
+
+	@Override
+	public void addCallback(FutureCallback<? super V> callback, Executor executor) {
+		if (callback == null) {
+			throw new IllegalArgumentException("null callback");
+		}
+		Listener listener = new Listener(callback, executor);
+		synchronized (latch) {
+			if (state == PENDING) {
+				if (listeners == null) {
+					listeners = new ArrayList<Listener>(2);
+				}
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.dispatch();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state != PENDING;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return report();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("Not completed in " + unit.toMillis(timeout) + " ms");
+		}
+		return report();
+	}
+
+	private V report() throws ExecutionException {
+		switch (state) {
+		case SUCCEEDED:
+			return value;
+		case FAILED:
+			throw new ExecutionException(exception);
+		case CANCELLED:
+			throw new CancellationException();
+		default:
+			throw new IllegalStateException("Not completed");
+		}
+	}
+
+	/**
+	 * Registered callback with it's executor
+	 */
+	private class Listener implements Runnable {
+
+		private final FutureCallback<? super V> callback;
+
+		private final Executor executor;
+
+		public Listener(FutureCallback<? super V> callback, Executor executor) {
+			this.callback = callback;
+			this.executor = executor;
+		}
+
+		public void dispatch() {
+			if (executor != null) {
+				try {
+					executor.execute(this);
+				} catch (Exception x) {
+					logger.warn("Callback executor rejected " + callback, x);
+				}
+			} else {
+				run();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				switch (state) {
+				case SUCCEEDED:
+					callback.onSuccess(value);
+					break;
+				case FAILED:
+					callback.onFailure(exception);
+					break;
+				default:
+					callback.onFailure(new CancellationException());
+				}
+			} catch (Exception x) {
+				logger.warn("Callback " + callback + " failed", x);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.nature.client.http.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts new Thread for every task. Number of tasks in flight is capped by Semaphore - when cap is reached, task is
+ * rejected. Submitting thread is never blocked, because it can be selector or other event loop thread.
+ *
+ * Intended for cheap (virtual) threads where pooling does not make sense
+ *
+ * @author martin.vanek
+ *
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+
+	private final ThreadFactory threadFactory;
+
+	private final Semaphore permits;
+
+	private final int maximumInFlight;
+
+	private final Set<Thread> running = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+	private final Object lock = new Object();
+
+	private volatile boolean shutdown;
+
+	public ThreadPerTaskExecutor(ThreadFactory threadFactory, int maximumInFlight) {
+		if (threadFactory == null) {
+			throw new IllegalArgumentException("null threadFactory");
+		}
+		if (maximumInFlight < 1) {
+			throw new IllegalArgumentException("maximumInFlight " + maximumInFlight + " must be >= 1");
+		}
+		this.threadFactory = threadFactory;
+		this.maximumInFlight = maximumInFlight;
+		this.permits = new Semaphore(maximumInFlight);
+	}
+
+	public int getMaximumInFlight() {
+		return maximumInFlight;
+	}
+
+	/**
+	 * @return number of tasks currently executing
+	 */
+	public int getActiveCount() {
+		return maximumInFlight - permits.availablePermits();
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		if (task == null) {
+			throw new IllegalArgumentException("null task");
+		}
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor is shut down");
+		}
+		if (!permits.tryAcquire()) {
+			throw new RejectedExecutionException("Cannot start " + task + " " + this);
+		}
+		Thread thread;
+		try {
+			thread = threadFactory.newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						running.remove(Thread.currentThread());
+						release();
+					}
+				}
+			});
+			if (thread == null) {
+				throw new RejectedExecutionException("ThreadFactory returned null " + threadFactory);
+			}
+			synchronized (lock) {
+				if (shutdown) {
+					throw new RejectedExecutionException("Executor is shut down");
+				}
+				running.add(thread);
+			}
+			thread.start();
+		} catch (RuntimeException rx) {
+			release();
+			throw rx;
+		} catch (Error e) {
+			release();
+			throw e;
+		}
+	}
+
+	private void release() {
+		permits.release();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		for (Thread thread : running) {
+			thread.interrupt();
+		}
+		return new ArrayList<Runnable>(0); //nothing is queued
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && permits.availablePermits() == maximumInFlight;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (!isTerminated()) {
+				long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (millis <= 0) {
+					return false;
+				}
+				lock.wait(millis);
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ThreadPerTaskExecutor [active: " + getActiveCount() + " of " + maximumInFlight + ", shutdown: " + shutdown
+				+ "]";
+	}
+}
@@ -1,6 +1,8 @@
 package com.nature.client.http.cache;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,6 +18,20 @@ public interface Cache<K, V extends Serializable> {
 
 	public Boolean set(K key, CacheEntry<V> entry);
 
+	/**
+	 * Multi-get. Implementations should use single round trip when backend supports it
+	 * 
+	 * @return found entries only
+	 */
+	public Map<K, CacheEntry<V>> getAll(Collection<K> keys);
+
+	/**
+	 * Multi-set
+	 * 
+	 * @return set status for every key
+	 */
+	public Map<K, Boolean> setAll(Map<K, CacheEntry<V>> entries);
+
 	/**
 	 * remove/delete/evict from cache by provided key
 	 * 
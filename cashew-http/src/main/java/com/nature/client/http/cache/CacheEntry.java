@@ -19,7 +19,7 @@ public class CacheEntry<T extends Serializable> implements Serializable {
 
 	private final T value;
 
-	private final Date sinceDate = new Date(); //when entry was added
+	private final Date sinceDate; //when entry was added
 
 	private final long hardTtl; //seconds - after entry will disapear
 
@@ -46,11 +46,23 @@ public class CacheEntry<T extends Serializable> implements Serializable {
 	 * Http headers based caching
 	 */
 	public CacheEntry(T value, long hardTtl, long softTtl, String serverTag, Date serverDate) {
+		this(value, new Date(), hardTtl, softTtl, serverTag, serverDate);
+	}
+
+	/**
+	 * Entry restored from serialized form keeps it's original sinceDate
+	 */
+	public CacheEntry(T value, Date sinceDate, long hardTtl, long softTtl, String serverTag, Date serverDate) {
 		if (value == null) {
 			throw new IllegalArgumentException("cached value is null");
 		}
 		this.value = value;
 
+		if (sinceDate == null) {
+			throw new IllegalArgumentException("sinceDate is null");
+		}
+		this.sinceDate = sinceDate;
+
 		if (hardTtl < 1) {
 			throw new IllegalArgumentException("hardTtl " + hardTtl + " must be > 1");
 		}
@@ -75,11 +87,11 @@ public class CacheEntry<T extends Serializable> implements Serializable {
 	}
 
 	public boolean isSoftExpired() {
-		return sinceDate.getTime() + (softTtl * 1000) < System.currentTimeMillis();
+		return getSoftExpireMillis() < System.currentTimeMillis();
 	}
 
 	public boolean isHardExpired() {
-		return sinceDate.getTime() + (hardTtl * 1000) < System.currentTimeMillis();
+		return getHardExpireMillis() < System.currentTimeMillis();
 	}
 
 	public T getValue() {
@@ -114,7 +126,14 @@ public class CacheEntry<T extends Serializable> implements Serializable {
 	}
 
 	public Date getSoftExpire() {
-		return new Date(sinceDate.getTime() + (softTtl * 1000));
+		return new Date(getSoftExpireMillis());
+	}
+
+	/**
+	 * Same as getSoftExpire().getTime() without Date allocation
+	 */
+	public long getSoftExpireMillis() {
+		return sinceDate.getTime() + (softTtl * 1000);
 	}
 
 	/**
@@ -125,7 +144,14 @@ public class CacheEntry<T extends Serializable> implements Serializable {
 	}
 
 	public Date getHardExpire() {
-		return new Date(sinceDate.getTime() + (hardTtl * 1000));
+		return new Date(getHardExpireMillis());
+	}
+
+	/**
+	 * Same as getHardExpire().getTime() without Date allocation
+	 */
+	public long getHardExpireMillis() {
+		return sinceDate.getTime() + (hardTtl * 1000);
 	}
 
 	@Override
@@ -0,0 +1,232 @@
+package com.nature.client.http.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.List;
+
+import com.nature.client.http.HttpSender.Multival;
+import com.nature.client.http.cache.OffHeapResponse.ByteBufferInputStream;
+
+/**
+ * Compact binary form of CacheEntry. Used by caches storing entries outside of java heap and by
+ * CacheEntryTranscoder/CacheEntryCopyStrategy instead of java serialization.
+ *
+ * Record is [int metaLength][meta][body]. Meta carries version, CacheEntry fields and CachedResponse code, message and
+ * headers. Dates are stored as epoch millis. Body is CachedResponse content or java serialized value of any other
+ * type. Version is the first byte of meta and records of unknown version are refused, so format can evolve.
+ *
+ * @author martin.vanek
+ *
+ */
+public class CacheEntryCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte VERSION = 1;
+
+	private static final byte KIND_RESPONSE = 1;
+
+	private static final byte KIND_SERIALIZED = 2;
+
+	/**
+	 * Encoded entry ready to be written. Body is not copied
+	 */
+	static class Encoded {
+
+		private final byte[] meta;
+
+		private final ByteBuffer body;
+
+		private Encoded(byte[] meta, ByteBuffer body) {
+			this.meta = meta;
+			this.body = body;
+		}
+
+		public int getLength() {
+			return 4 + meta.length + body.remaining();
+		}
+
+		/**
+		 * Writes record at target position
+		 */
+		public void writeTo(ByteBuffer target) {
+			target.putInt(meta.length);
+			target.put(meta);
+			target.put(body.duplicate());
+		}
+	}
+
+	/**
+	 * @return entry in binary form
+	 */
+	public static byte[] toBytes(CacheEntry<?> entry) throws IOException {
+		Encoded encoded = encode(entry);
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.getLength());
+		encoded.writeTo(buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * @return entry decoded from toBytes result. CachedResponse is plain heap CachedResponse
+	 */
+	public static <V extends Serializable> CacheEntry<V> fromBytes(byte[] bytes) throws IOException,
+			ClassNotFoundException {
+		return decode(ByteBuffer.wrap(bytes), true);
+	}
+
+	static Encoded encode(CacheEntry<?> entry) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream output = new DataOutputStream(bytes);
+		Serializable value = entry.getValue();
+		output.writeByte(VERSION);
+		//subclasses (like CompressedResponse) keep their own form - java serialized
+		boolean plain = value != null
+				&& (value.getClass() == CachedResponse.class || value.getClass() == OffHeapResponse.class);
+		output.writeByte(plain ? KIND_RESPONSE : KIND_SERIALIZED);
+		output.writeLong(entry.getSinceDate().getTime());
+		output.writeLong(entry.getHardTtl());
+		output.writeLong(entry.getSoftTtl());
+		writeString(entry.getServerTag(), output);
+		output.writeLong(entry.getServerDate() != null ? entry.getServerDate().getTime() : -1);
+		ByteBuffer body;
+		if (plain) {
+			CachedResponse response = (CachedResponse) value;
+			output.writeInt(response.getCode());
+			writeString(response.getMessage(), output);
+			Multival headers = response.getHeaders();
+			if (headers == null) {
+				output.writeBoolean(false);
+			} else {
+				output.writeBoolean(true);
+				output.writeBoolean(headers.isCaseInsensitive());
+				output.writeInt(headers.size());
+				for (String name : headers) {
+					writeString(name, output);
+					List<String> values = headers.get(name);
+					output.writeInt(values.size());
+					for (int i = 0; i < values.size(); ++i) {
+						writeString(values.get(i), output);
+					}
+				}
+			}
+			if (response instanceof OffHeapResponse) {
+				OffHeapResponse offheap = (OffHeapResponse) response;
+				output.writeBoolean(offheap.isString());
+				body = offheap.getBody();
+			} else if (response.getContentBinary() != null) {
+				output.writeBoolean(false);
+				body = ByteBuffer.wrap(response.getContentBinary());
+			} else {
+				output.writeBoolean(true);
+				String content = response.getContentString();
+				body = ByteBuffer.wrap(content != null ? content.getBytes(response.getCharset()) : new byte[0]);
+			}
+		} else {
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(serialized);
+			oos.writeObject(value);
+			oos.close();
+			body = ByteBuffer.wrap(serialized.toByteArray());
+		}
+		output.flush();
+		return new Encoded(bytes.toByteArray(), body);
+	}
+
+	/**
+	 * @param record buffer positioned at record start with limit at record end. CachedResponse body will be slice of it
+	 */
+	static <V extends Serializable> CacheEntry<V> decode(ByteBuffer record) throws IOException, ClassNotFoundException {
+		return decode(record, false);
+	}
+
+	/**
+	 * @param heap whether CachedResponse body is copied on heap or OffHeapResponse with slice of record is returned
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V extends Serializable> CacheEntry<V> decode(ByteBuffer record, boolean heap) throws IOException,
+			ClassNotFoundException {
+		ByteBuffer buffer = record.duplicate();
+		int metaLength = buffer.getInt();
+		int bodyStart = buffer.position() + metaLength;
+		byte version = buffer.get();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version);
+		}
+		byte kind = buffer.get();
+		Date since = new Date(buffer.getLong());
+		long hardTtl = buffer.getLong();
+		long softTtl = buffer.getLong();
+		String serverTag = readString(buffer);
+		long serverDate = buffer.getLong();
+		Serializable value;
+		if (kind == KIND_RESPONSE) {
+			int code = buffer.getInt();
+			String message = readString(buffer);
+			Multival headers = null;
+			if (buffer.get() != 0) {
+				headers = new Multival(buffer.get() != 0);
+				int names = buffer.getInt();
+				for (int n = 0; n < names; ++n) {
+					String name = readString(buffer);
+					int values = buffer.getInt();
+					for (int i = 0; i < values; ++i) {
+						headers.add(name, readString(buffer));
+					}
+				}
+			}
+			boolean string = buffer.get() != 0;
+			buffer.position(bodyStart);
+			OffHeapResponse response = new OffHeapResponse(code, message, headers, buffer.slice().asReadOnlyBuffer(), string);
+			value = heap ? response.toHeap() : response;
+		} else if (kind == KIND_SERIALIZED) {
+			buffer.position(bodyStart);
+			ObjectInputStream input = new ObjectInputStream(new ByteBufferInputStream(buffer));
+			value = (Serializable) input.readObject();
+		} else {
+			throw new IOException("Unsupported kind " + kind);
+		}
+		return new CacheEntry<V>((V) value, since, hardTtl, softTtl, serverTag, serverDate != -1 ? new Date(serverDate)
+				: null);
+	}
+
+	/**
+	 * Reads only hard expiry millis without decoding whole record
+	 */
+	static long getHardExpire(ByteBuffer record) throws IOException {
+		int start = record.position();
+		byte version = record.get(start + 4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version);
+		}
+		long since = record.getLong(start + 6);
+		long hardTtl = record.getLong(start + 14);
+		return since + hardTtl * 1000;
+	}
+
+	private static void writeString(String string, DataOutputStream output) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(UTF8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
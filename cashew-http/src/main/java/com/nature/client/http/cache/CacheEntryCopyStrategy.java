@@ -0,0 +1,67 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.compound.ReadWriteSerializationCopyStrategy;
+
+/**
+ * Ehcache copy strategy storing CacheEntry in CacheEntryCodec binary form instead of java serialization. Other values
+ * are copied using java serialization as ReadWriteSerializationCopyStrategy does.
+ *
+ * Configure it on cache together with copyOnRead and copyOnWrite:
+ *
+ * <pre>
+ * CopyStrategyConfiguration copyStrategy = new CopyStrategyConfiguration();
+ * copyStrategy.setClass(CacheEntryCopyStrategy.class.getName());
+ * cacheConfiguration.copyOnRead(true).copyOnWrite(true).addCopyStrategy(copyStrategy);
+ * </pre>
+ *
+ * @author martin.vanek
+ *
+ */
+public class CacheEntryCopyStrategy extends ReadWriteSerializationCopyStrategy {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Element copyForWrite(Element element) {
+		if (element != null && element.getObjectValue() instanceof CacheEntry) {
+			try {
+				Encoded encoded = new Encoded(CacheEntryCodec.toBytes((CacheEntry<?>) element.getObjectValue()));
+				return duplicateElementWithNewValue(element, encoded);
+			} catch (Exception x) {
+				throw new CacheException("Failed to encode " + element.getObjectKey(), x);
+			}
+		}
+		return super.copyForWrite(element);
+	}
+
+	@Override
+	public Element copyForRead(Element element) {
+		if (element != null && element.getObjectValue() instanceof Encoded) {
+			try {
+				CacheEntry<Serializable> entry = CacheEntryCodec.fromBytes(((Encoded) element.getObjectValue()).bytes);
+				return duplicateElementWithNewValue(element, entry);
+			} catch (Exception x) {
+				throw new CacheException("Failed to decode " + element.getObjectKey(), x);
+			}
+		}
+		return super.copyForRead(element);
+	}
+
+	/**
+	 * Stored form of CacheEntry. Distinguishes it from other byte[] values
+	 */
+	private static class Encoded implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] bytes;
+
+		public Encoded(byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
+}
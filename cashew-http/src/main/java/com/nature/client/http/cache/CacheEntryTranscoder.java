@@ -0,0 +1,66 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * SpyMemcached Transcoder storing CacheEntry in CacheEntryCodec binary form instead of java serialization. Values
+ * stored by default SerializingTranscoder (before switching to this one) are still readable
+ *
+ * @author martin.vanek
+ *
+ */
+public class CacheEntryTranscoder<V extends Serializable> implements Transcoder<CacheEntry<V>> {
+
+	/**
+	 * Memcached item flags marking CacheEntryCodec format. Does not clash with SerializingTranscoder flags
+	 */
+	public static final int FLAGS = 0x4300;
+
+	private final SerializingTranscoder fallback = new SerializingTranscoder();
+
+	private final int maxSize;
+
+	public CacheEntryTranscoder() {
+		this(CachedData.MAX_SIZE);
+	}
+
+	public CacheEntryTranscoder(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public boolean asyncDecode(CachedData data) {
+		return false;
+	}
+
+	@Override
+	public CachedData encode(CacheEntry<V> entry) {
+		try {
+			return new CachedData(FLAGS, CacheEntryCodec.toBytes(entry), maxSize);
+		} catch (Exception x) {
+			throw new IllegalArgumentException("Failed to encode " + entry, x);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public CacheEntry<V> decode(CachedData data) {
+		if (data.getFlags() != FLAGS) {
+			return (CacheEntry<V>) fallback.decode(data);
+		}
+		try {
+			return CacheEntryCodec.fromBytes(data.getData());
+		} catch (Exception x) {
+			throw new IllegalArgumentException("Failed to decode " + data, x);
+		}
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -98,6 +99,47 @@ public class CachedResponse extends SenderResponse implements Serializable {
 		}
 	}
 
+	/**
+	 * @return binary body or null when body is String
+	 */
+	byte[] getContentBinary() {
+		return contentBinary;
+	}
+
+	String getContentString() {
+		return contentString;
+	}
+
+	/**
+	 * @return whether body is String (or was String before it was stored in binary form)
+	 */
+	boolean isString() {
+		return contentBinary == null;
+	}
+
+	/**
+	 * @return approximate heap size of body and headers in bytes
+	 */
+	public int getWeight() {
+		int weight = 64;
+		if (contentBinary != null) {
+			weight += contentBinary.length;
+		} else if (contentString != null) {
+			weight += contentString.length() * 2;
+		}
+		Multival headers = getHeaders();
+		if (headers != null) {
+			for (String name : headers) {
+				List<String> values = headers.get(name);
+				weight += (name != null ? name.length() * 2 : 0) + values.size() * 16;
+				for (int i = 0; i < values.size(); ++i) {
+					weight += values.get(i).length() * 2;
+				}
+			}
+		}
+		return weight;
+	}
+
 	@Override
 	public String toString() {
 		return "CachedResponse#" + hashCode() + "{" + getCode() + ", " + getMessage() + "}";
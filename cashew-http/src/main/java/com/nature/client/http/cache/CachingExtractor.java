@@ -2,16 +2,16 @@ package com.nature.client.http.cache;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.nature.client.http.HttpSender;
 import com.nature.client.http.ResponseExtractor.ExtractedResponse;
-import com.nature.client.http.SenderResponse;
+import com.nature.client.http.cache.RefreshRegistry.Refresh;
 
 /**
  * 
@@ -28,7 +28,13 @@ public class CachingExtractor {
 
 	private ExecutorService executor;
 
-	private Map<String, CachingExtractorRequest<?>> updating = new HashMap<String, CachingExtractorRequest<?>>();
+	private RefreshRegistry refreshes = new RefreshRegistry();
+
+	private RefreshAheadScheduler refreshAhead;
+
+	private final SingleFlight<Serializable> flights = new SingleFlight<Serializable>();
+
+	private long coalescingTimeout = 10 * 1000; //millis
 
 	//private ReadWriteLock lock = new ReentrantReadWriteLock();
 
@@ -58,6 +64,49 @@ public class CachingExtractor {
 		this.executor = executor;
 	}
 
+	/**
+	 * @return registry of cache entries being refreshed
+	 */
+	public RefreshRegistry getRefreshes() {
+		return refreshes;
+	}
+
+	public void setRefreshes(RefreshRegistry refreshes) {
+		if (refreshes == null) {
+			throw new IllegalArgumentException("refreshes is null");
+		}
+		this.refreshes = refreshes;
+	}
+
+	public RefreshAheadScheduler getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * Popular requests will be refreshed by scheduler before they become soft expired. Null disables refresh ahead
+	 */
+	public void setRefreshAhead(RefreshAheadScheduler refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	/**
+	 * @return maximal time in milliseconds concurrent cache misses of the same request wait for the first one
+	 */
+	public long getCoalescingTimeout() {
+		return coalescingTimeout;
+	}
+
+	/**
+	 * Concurrent cache misses of the same request wait for the first one to complete instead of sending own request.
+	 * When timeout elapses, waiting caller sends own request. Zero timeout disables coalescing
+	 */
+	public void setCoalescingTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout " + timeout + " must be >= 0");
+		}
+		this.coalescingTimeout = unit.toMillis(timeout);
+	}
+
 	/**
 	 * @return underlying sender
 	 */
@@ -82,6 +131,9 @@ public class CachingExtractor {
 		}
 		String cacheKey = sender.getCacheKey(request.getRequest());
 		CacheEntry<Serializable> entry = cache.get(cacheKey);
+		if (refreshAhead != null) {
+			refreshAhead.record(cacheKey, request, entry, refresher);
+		}
 		if (entry != null) {
 			if (!entry.isSoftExpired()) {
 				return (T) entry.getValue(); //nice hit
@@ -90,22 +142,31 @@ public class CachingExtractor {
 				//soft expired -  refresh needed
 				if (request.isAsyncUpdate()) {
 					//start asynchronous update for request this cache entry
-					synchronized (updating) {
-						if (updating.containsKey(cacheKey)) {
-							logger.debug("Request is already being refreshed " + cacheKey);
-						} else {
-							logger.debug("Request async refresh start " + cacheKey);
-							executor.execute(new CacheUpdateRunner<T>(request));
-							updating.put(cacheKey, request);
+					Refresh refresh = refreshes.claim(cacheKey, request);
+					if (refresh == null) {
+						logger.debug("Request is already being refreshed " + cacheKey);
+					} else {
+						logger.debug("Request async refresh start " + cacheKey);
+						try {
+							executor.execute(new CacheUpdateRunner<T>(request, refresh));
+						} catch (RejectedExecutionException rx) {
+							refreshes.release(refresh);
+							logger.warn("Request async refresh rejected " + cacheKey, rx);
 						}
 					}
 					//return soft expired value
 					logger.debug("Request soft expired value returned " + cacheKey);
 					return (T) entry.getValue();
 				} else { //sync update
+					Refresh refresh = refreshes.claim(cacheKey, request);
+					if (refresh == null) {
+						logger.debug("Request is already being refreshed " + cacheKey);
+						@SuppressWarnings("unchecked")
+						T stale = (T) entry.getValue();
+						return stale;
+					}
 					logger.debug("Request sync refresh start " + cacheKey);
 					try {
-						updating.put(cacheKey, request);
 						ExtractedResponse<T> extract = sender.extract(request.getRequest(), request.getExtractor());
 						entry = new CacheEntry<Serializable>(extract.getExtracted(), request.getHardTtl(), request.getSoftTtl());
 						cache.set(cacheKey, entry);
@@ -116,15 +177,26 @@ public class CachingExtractor {
 						logger.debug("Request soft expired value returned " + cacheKey);
 						return (T) entry.getValue();
 					} finally {
-						updating.remove(cacheKey);
+						refreshes.release(refresh);
 					}
 				}
 			}
 		} else { //entry is null -> execute request, extract response and put it into cache
-			ExtractedResponse<T> extracted = sender.extract(request.getRequest(), request.getExtractor());
-			entry = new CacheEntry<Serializable>(extracted.getExtracted(), request.getHardTtl(), request.getSoftTtl());
-			cache.set(cacheKey, entry);
-			return extracted.getExtracted();
+			final CachingExtractorRequest<T> crequest = request;
+			final String ckey = cacheKey;
+			//flights are shared by all requests, but same cache key always means same extractor
+			@SuppressWarnings("unchecked")
+			T loaded = (T) flights.execute(cacheKey, new SingleFlight.Loader<Serializable>() {
+
+				@Override
+				public Serializable load() throws IOException {
+					ExtractedResponse<T> extracted = sender.extract(crequest.getRequest(), crequest.getExtractor());
+					cache.set(ckey, new CacheEntry<Serializable>(extracted.getExtracted(), crequest.getHardTtl(), crequest
+							.getSoftTtl()));
+					return extracted.getExtracted();
+				}
+			}, coalescingTimeout);
+			return loaded;
 		}
 	}
 
@@ -142,30 +214,56 @@ public class CachingExtractor {
 		}
 	}
 
+	/**
+	 * Executes request and stores extracted value into cache
+	 */
+	private <T extends Serializable> CacheEntry<Serializable> update(String cacheKey, CachingExtractorRequest<T> request)
+			throws IOException {
+		T extracted = sender.extract(request.getRequest(), request.getExtractor()).getExtracted();
+		CacheEntry<Serializable> entry = new CacheEntry<Serializable>(extracted, request.getHardTtl(), request.getSoftTtl());
+		cache.set(cacheKey, entry);
+		return entry;
+	}
+
+	private final RefreshAheadScheduler.Refresher<CachingExtractorRequest<?>> refresher = new RefreshAheadScheduler.Refresher<CachingExtractorRequest<?>>() {
+
+		@Override
+		public CacheEntry<?> refresh(String cacheKey, CachingExtractorRequest<?> request) throws Exception {
+			Refresh refresh = refreshes.claim(cacheKey, request);
+			if (refresh == null) {
+				return null; //already being refreshed
+			}
+			try {
+				return update(cacheKey, request);
+			} finally {
+				refreshes.release(refresh);
+			}
+		}
+	};
+
 	private class CacheUpdateRunner<T extends Serializable> implements Runnable {
 
 		private final CachingExtractorRequest<T> request;
 
-		public CacheUpdateRunner(CachingExtractorRequest<T> request) {
+		private final Refresh refresh;
+
+		public CacheUpdateRunner(CachingExtractorRequest<T> request, Refresh refresh) {
 			if (request == null) {
 				throw new IllegalArgumentException("request is null");
 			}
 			this.request = request;
+			this.refresh = refresh;
 		}
 
 		@Override
 		public void run() {
-			String cacheKey = sender.getCacheKey(request.getRequest());
+			String cacheKey = refresh.getKey();
 			try {
-				SenderResponse response = sender.execute(request.getRequest());
-				T extracted = request.getExtractor().extract(response);
-				CacheEntry<Serializable> entry = new CacheEntry<Serializable>(extracted, request.getHardTtl(),
-						request.getSoftTtl());
-				cache.set(cacheKey, entry);
+				update(cacheKey, request);
 			} catch (Exception x) {
 				logger.warn("Failed to update request " + request.getRequest(), x);
 			} finally {
-				updating.remove(cacheKey);
+				refreshes.release(refresh);
 			}
 		}
 	}
@@ -3,9 +3,15 @@ package com.nature.client.http.cache;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -19,6 +25,10 @@ import com.nature.client.http.ResponseExtractor;
 import com.nature.client.http.ResponseExtractor.ExtractedResponse;
 import com.nature.client.http.SenderRequest;
 import com.nature.client.http.SenderResponse;
+import com.nature.client.http.async.FutureCallback;
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.SettableFuture;
+import com.nature.client.http.cache.RefreshRegistry.Refresh;
 
 /**
  * Sender warpper that caches Responses as they are recieved from remote server
@@ -34,10 +44,16 @@ public class CachingSender {
 
 	private final RequestCache<CachedResponse> cache;
 
-	private Map<String, CachingRequest> updating = new HashMap<String, CachingRequest>();
+	private RefreshRegistry refreshes = new RefreshRegistry();
+
+	private RefreshAheadScheduler refreshAhead;
 
 	private ExecutorService executor;
 
+	private final SingleFlight<CachedResponse> flights = new SingleFlight<CachedResponse>();
+
+	private long coalescingTimeout = 10 * 1000; //millis
+
 	public CachingSender(HttpSender sender, RequestCache<CachedResponse> cache) {
 		this(sender, cache, null);
 	}
@@ -64,6 +80,49 @@ public class CachingSender {
 		this.executor = executor;
 	}
 
+	/**
+	 * @return registry of cache entries being refreshed
+	 */
+	public RefreshRegistry getRefreshes() {
+		return refreshes;
+	}
+
+	public void setRefreshes(RefreshRegistry refreshes) {
+		if (refreshes == null) {
+			throw new IllegalArgumentException("refreshes is null");
+		}
+		this.refreshes = refreshes;
+	}
+
+	public RefreshAheadScheduler getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * Popular requests will be refreshed by scheduler before they become soft expired. Null disables refresh ahead
+	 */
+	public void setRefreshAhead(RefreshAheadScheduler refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	/**
+	 * @return maximal time in milliseconds concurrent cache misses of the same request wait for the first one
+	 */
+	public long getCoalescingTimeout() {
+		return coalescingTimeout;
+	}
+
+	/**
+	 * Concurrent cache misses of the same request wait for the first one to complete instead of sending own request.
+	 * When timeout elapses, waiting caller sends own request. Zero timeout disables coalescing
+	 */
+	public void setCoalescingTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout " + timeout + " must be >= 0");
+		}
+		this.coalescingTimeout = unit.toMillis(timeout);
+	}
+
 	/**
 	 * @return underlying sender
 	 */
@@ -84,6 +143,71 @@ public class CachingSender {
 		}
 		String cacheKey = sender.getCacheKey(request.getRequest());
 		CacheEntry<CachedResponse> entry = cache.get(cacheKey);
+		if (refreshAhead != null) {
+			refreshAhead.record(cacheKey, request, entry, refresher);
+		}
+		return execute(request, cacheKey, entry);
+	}
+
+	/**
+	 * Asynchronous execution. Cache lookup does not block caller. Hit (or soft expired entry with asynchronous update)
+	 * completes returned future by thread completing cache lookup, miss and synchronous refresh are executed by
+	 * executor
+	 */
+	public ListenableFuture<SenderResponse> executeAsync(final CachingRequest request) {
+		if (request == null) {
+			throw new IllegalArgumentException("request is null");
+		}
+		if (this.executor == null) {
+			throw new IllegalStateException("Executor for asynchronous requests is not configured");
+		}
+		final String cacheKey = sender.getCacheKey(request.getRequest());
+		final SettableFuture<SenderResponse> future = new SettableFuture<SenderResponse>();
+		cache.getAsync(cacheKey).addCallback(new FutureCallback<CacheEntry<CachedResponse>>() {
+
+			@Override
+			public void onSuccess(final CacheEntry<CachedResponse> entry) {
+				if (refreshAhead != null) {
+					refreshAhead.record(cacheKey, request, entry, refresher);
+				}
+				if (entry != null && (!entry.isSoftExpired() || request.isAsyncUpdate())) {
+					complete(entry);
+				} else {
+					try {
+						executor.execute(new Runnable() {
+
+							@Override
+							public void run() {
+								complete(entry);
+							}
+						});
+					} catch (RejectedExecutionException rx) {
+						future.setException(rx);
+					}
+				}
+			}
+
+			private void complete(CacheEntry<CachedResponse> entry) {
+				try {
+					future.set(execute(request, cacheKey, entry));
+				} catch (Exception x) {
+					future.setException(x);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				future.setException(failure); //getAsync does not fail
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @param entry current cache entry or null on miss
+	 */
+	private SenderResponse execute(CachingRequest request, String cacheKey, CacheEntry<CachedResponse> entry)
+			throws IOException {
 		if (entry != null) {
 			if (!entry.isSoftExpired()) {
 				return entry.getValue(); //nice hit
@@ -92,26 +216,33 @@ public class CachingSender {
 				//soft expired -  refresh needed
 				if (request.isAsyncUpdate()) {
 					//start asynchronous update for request this cache entry
-					synchronized (updating) {
-						if (updating.containsKey(cacheKey)) {
-							logger.debug("Request is already being refreshed " + cacheKey);
-						} else {
-							logger.debug("Request async refresh start " + cacheKey);
-							executor.execute(new CacheUpdateRunner<Serializable>(request));
-							updating.put(cacheKey, request);
+					Refresh refresh = refreshes.claim(cacheKey, request);
+					if (refresh == null) {
+						logger.debug("Request is already being refreshed " + cacheKey);
+					} else {
+						logger.debug("Request async refresh start " + cacheKey);
+						try {
+							executor.execute(new CacheUpdateRunner<Serializable>(request, refresh));
+						} catch (RejectedExecutionException rx) {
+							refreshes.release(refresh);
+							logger.warn("Request async refresh rejected " + cacheKey, rx);
 						}
 					}
 					//return soft expired value
 					logger.debug("Request soft expired value returned " + cacheKey);
 					return entry.getValue();
 				} else { //sync update
+					Refresh refresh = refreshes.claim(cacheKey, request);
+					if (refresh == null) {
+						logger.debug("Request is already being refreshed " + cacheKey);
+						return entry.getValue();
+					}
 					logger.debug("Request sync refresh start " + cacheKey);
 					try {
-						updating.put(cacheKey, request);
 						SenderResponse response = sender.execute(request.getRequest());
 						CachedResponse cached = new CachedResponse(response);
 						entry = new CacheEntry<CachedResponse>(cached, request.getHardTtl(), request.getSoftTtl());
-						cache.set(cacheKey, entry);
+						cache.setAsync(cacheKey, entry); //don't wait for remote cache
 						return cached;
 					} catch (Exception x) {
 						logger.warn("Request refresh failed for " + request, x);
@@ -119,19 +250,130 @@ public class CachingSender {
 						logger.debug("Request soft expired value returned " + cacheKey);
 						return entry.getValue();
 					} finally {
-						updating.remove(cacheKey);
+						refreshes.release(refresh);
 					}
 				}
 			}
 		} else { //entry is null -> execute request, extract response and put it into cache
-			SenderResponse response = sender.execute(request.getRequest());
-			CachedResponse cached = new CachedResponse(response);
-			entry = new CacheEntry<CachedResponse>(cached, request.getHardTtl(), request.getSoftTtl());
-			cache.set(cacheKey, entry);
-			return cached;
+			final CachingRequest crequest = request;
+			final String ckey = cacheKey;
+			return flights.execute(cacheKey, new SingleFlight.Loader<CachedResponse>() {
+
+				@Override
+				public CachedResponse load() throws IOException {
+					SenderResponse response = sender.execute(crequest.getRequest());
+					CachedResponse cached = new CachedResponse(response);
+					cache.setAsync(ckey, new CacheEntry<CachedResponse>(cached, crequest.getHardTtl(), crequest.getSoftTtl()));
+					return cached;
+				}
+			}, coalescingTimeout);
 		}
 	}
 
+	/**
+	 * Bulk execution. All requests are looked up in cache with single multi-get. Misses (and soft expired entries
+	 * without asynchronous update) are executed in parallel by HttpSender.executeAll and stored with single multi-set.
+	 * 
+	 * Unlike single execute, concurrent misses of the same request are not coalesced
+	 * 
+	 * @return completed Futures in order of requests. Failed request Future throws ExecutionException
+	 */
+	public List<Future<SenderResponse>> executeAll(Collection<CachingRequest> requests, int maxParallel) {
+		if (requests == null) {
+			throw new IllegalArgumentException("null requests");
+		}
+		List<CachingRequest> list = new ArrayList<CachingRequest>(requests);
+		List<String> keys = new ArrayList<String>(list.size());
+		for (CachingRequest request : list) {
+			if (request.isAsyncUpdate() && this.executor == null) {
+				throw new IllegalStateException("Executor for asynchronous requests is not configured");
+			}
+			keys.add(sender.getCacheKey(request.getRequest()));
+		}
+		Map<String, CacheEntry<CachedResponse>> entries = cache.getAll(keys);
+
+		List<SettableFuture<SenderResponse>> futures = new ArrayList<SettableFuture<SenderResponse>>(list.size());
+		List<Integer> fetchIndexes = new ArrayList<Integer>();
+		List<SenderRequest> fetchRequests = new ArrayList<SenderRequest>();
+		List<Refresh> fetchRefreshes = new ArrayList<Refresh>();
+		for (int i = 0; i < list.size(); ++i) {
+			CachingRequest request = list.get(i);
+			String cacheKey = keys.get(i);
+			CacheEntry<CachedResponse> entry = entries.get(cacheKey);
+			if (refreshAhead != null) {
+				refreshAhead.record(cacheKey, request, entry, refresher);
+			}
+			SettableFuture<SenderResponse> future = new SettableFuture<SenderResponse>();
+			futures.add(future);
+			Refresh refresh = null;
+			if (entry != null && (!entry.isSoftExpired() || request.isAsyncUpdate())) {
+				try {
+					future.set(execute(request, cacheKey, entry)); //hit or asynchronous refresh
+				} catch (Exception x) {
+					future.setException(x);
+				}
+				continue;
+			} else if (entry != null) {
+				refresh = refreshes.claim(cacheKey, request);
+				if (refresh == null) {
+					logger.debug("Request is already being refreshed " + cacheKey);
+					future.set(entry.getValue());
+					continue;
+				}
+			}
+			fetchIndexes.add(i);
+			fetchRequests.add(request.getRequest());
+			fetchRefreshes.add(refresh);
+		}
+		if (fetchRequests.isEmpty()) {
+			return new ArrayList<Future<SenderResponse>>(futures);
+		}
+
+		try {
+			List<Future<SenderResponse>> fetched = sender.executeAll(fetchRequests, maxParallel);
+			Map<String, CacheEntry<CachedResponse>> updates = new HashMap<String, CacheEntry<CachedResponse>>();
+			for (int j = 0; j < fetched.size(); ++j) {
+				int index = fetchIndexes.get(j);
+				CachingRequest request = list.get(index);
+				String cacheKey = keys.get(index);
+				try {
+					SenderResponse response = fetched.get(j).get();
+					CachedResponse cached;
+					if (response instanceof CachedResponse) {
+						cached = (CachedResponse) response;
+					} else {
+						try {
+							cached = new CachedResponse(response);
+						} finally {
+							Cutils.close(response);
+						}
+					}
+					updates.put(cacheKey, new CacheEntry<CachedResponse>(cached, request.getHardTtl(), request.getSoftTtl()));
+					futures.get(index).set(cached);
+				} catch (Exception x) {
+					Throwable cause = x instanceof ExecutionException ? x.getCause() : x;
+					CacheEntry<CachedResponse> entry = entries.get(cacheKey);
+					if (entry != null) {
+						logger.warn("Request refresh failed for " + request, cause);
+						futures.get(index).set(entry.getValue()); //soft expired value
+					} else {
+						futures.get(index).setException(cause);
+					}
+				}
+			}
+			if (!updates.isEmpty()) {
+				cache.setAll(updates);
+			}
+		} finally {
+			for (Refresh refresh : fetchRefreshes) {
+				if (refresh != null) {
+					refreshes.release(refresh);
+				}
+			}
+		}
+		return new ArrayList<Future<SenderResponse>>(futures);
+	}
+
 	/**
 	 * Static caching based on specified ttl and unit
 	 */
@@ -151,7 +393,8 @@ public class CachingSender {
 
 		SenderResponse response = sender.execute(request);
 		CachedResponse cached = new CachedResponse(response);
-		cache.set(cacheKey, cached, ttl, unit);
+		long ttlSeconds = unit.toSeconds(ttl);
+		cache.setAsync(cacheKey, new CacheEntry<CachedResponse>(cached, ttlSeconds, ttlSeconds));
 
 		return cached;
 	}
@@ -185,21 +428,46 @@ public class CachingSender {
 		}
 		String cacheKey = sender.getCacheKey(request);
 		CacheEntry<CachedResponse> entry = cache.get(cacheKey);
-		if (entry != null) {
-			if (!entry.isSoftExpired()) {
-				return entry.getValue(); //cache hit and not soft expired
-			} else {
-				//soft expired - verify freshness
-				if (entry.getServerTag() != null) {//ETag
-					request.setHeader("If-None-Match", entry.getServerTag()); //XXX this modifies request so hashCode will change as well
-				}
-				if (entry.getServerDate() != null) {//Last-Modified
-					request.setHeader("If-Modified-Since", HttpDateUtil.formatDate(entry.getServerDate()));
-				}
+		if (entry == null) {
+			if (request.getFirstHeader("If-None-Match") != null) {
+				throw new IllegalStateException("Cannot use request ETag without holding cached response");
 			}
-		} else if (request.getFirstHeader("If-None-Match") != null) {
-			throw new IllegalStateException("Cannot use request ETag without holding cached response");
+			//miss - concurrent callers share response if it turns out to be cacheable
+			final SenderRequest srequest = request;
+			final String ckey = cacheKey;
+			final SenderResponse[] uncached = new SenderResponse[1];
+			CachedResponse cached = flights.execute(cacheKey, new SingleFlight.Loader<CachedResponse>() {
+
+				@Override
+				public CachedResponse load() throws IOException {
+					SenderResponse response = fetch(srequest, ckey, null);
+					if (response instanceof CachedResponse) {
+						return (CachedResponse) response;
+					} else {
+						uncached[0] = response;
+						return null; //not shareable
+					}
+				}
+			}, coalescingTimeout);
+			return cached != null ? cached : uncached[0];
+		} else if (!entry.isSoftExpired()) {
+			return entry.getValue(); //cache hit and not soft expired
+		}
+		//soft expired - verify freshness
+		if (entry.getServerTag() != null) {//ETag
+			request.setHeader("If-None-Match", entry.getServerTag()); //conditional headers are not part of cache key
+		}
+		if (entry.getServerDate() != null) {//Last-Modified
+			request.setHeader("If-Modified-Since", HttpDateUtil.formatEpoch(entry.getServerDate().getTime()));
 		}
+		return fetch(request, cacheKey, entry);
+	}
+
+	/**
+	 * Executes request and caches response when http headers allow it
+	 */
+	private SenderResponse fetch(SenderRequest request, String cacheKey, CacheEntry<CachedResponse> entry)
+			throws IOException {
 		SenderResponse response = sender.execute(request);
 
 		if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
@@ -211,7 +479,7 @@ public class CachingSender {
 		if (response.getCode() == HttpURLConnection.HTTP_OK) {
 			CacheEntry<CachedResponse> entryNew = HttpHeaderUtil.buildCacheEntry(response);
 			if (entryNew != null) {
-				cache.set(cacheKey, entryNew);
+				cache.setAsync(cacheKey, entryNew);
 				return entryNew.getValue();
 			} else {
 				logger.info("Response http headers disallows caching");
@@ -256,31 +524,57 @@ public class CachingSender {
 		}
 	}
 
+	/**
+	 * Executes request and stores response into cache
+	 */
+	private CacheEntry<CachedResponse> update(String cacheKey, CachingRequest request) throws IOException {
+		SenderResponse response = sender.execute(request.getRequest());
+		CachedResponse cached = new CachedResponse(response);
+		CacheEntry<CachedResponse> entry = new CacheEntry<CachedResponse>(cached, request.getHardTtl(),
+				request.getSoftTtl());
+		cache.setAsync(cacheKey, entry);
+		return entry;
+	}
+
+	private final RefreshAheadScheduler.Refresher<CachingRequest> refresher = new RefreshAheadScheduler.Refresher<CachingRequest>() {
+
+		@Override
+		public CacheEntry<?> refresh(String cacheKey, CachingRequest request) throws Exception {
+			Refresh refresh = refreshes.claim(cacheKey, request);
+			if (refresh == null) {
+				return null; //already being refreshed
+			}
+			try {
+				return update(cacheKey, request);
+			} finally {
+				refreshes.release(refresh);
+			}
+		}
+	};
+
 	private class CacheUpdateRunner<T extends Serializable> implements Runnable {
 
 		private final CachingRequest request;
 
-		public CacheUpdateRunner(CachingRequest request) {
+		private final Refresh refresh;
+
+		public CacheUpdateRunner(CachingRequest request, Refresh refresh) {
 			if (request == null) {
 				throw new IllegalArgumentException("request is null");
 			}
 			this.request = request;
+			this.refresh = refresh;
 		}
 
 		@Override
 		public void run() {
-			String cacheKey = sender.getCacheKey(request.getRequest());
+			String cacheKey = refresh.getKey();
 			try {
-				SenderResponse response = sender.execute(request.getRequest());
-				CachedResponse cached = new CachedResponse(response);
-				CacheEntry<CachedResponse> entry = new CacheEntry<CachedResponse>(cached, request.getHardTtl(),
-						request.getSoftTtl());
-				cache.set(cacheKey, entry);
+				update(cacheKey, request);
 			} catch (Exception x) {
 				logger.warn("Failed to update request " + cacheKey, x);
 			} finally {
-
-				updating.remove(cacheKey);
+				refreshes.release(refresh);
 			}
 		}
 	}
@@ -0,0 +1,129 @@
+package com.nature.client.http.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import com.nature.client.http.HttpSender.Multival;
+
+/**
+ * CachedResponse keeping body compressed. Body is decompressed only when it is read and it is never kept decompressed
+ *
+ * @author martin.vanek
+ *
+ */
+public class CompressedResponse extends CachedResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	private final byte[] compressed;
+
+	private final int length;
+
+	private final boolean string;
+
+	private final Compressor compressor;
+
+	/**
+	 * @param compressed body bytes (in response charset when string) compressed by compressor
+	 * @param length of uncompressed body
+	 * @param string whether original body was String
+	 */
+	public CompressedResponse(int code, String message, Multival headers, byte[] compressed, int length,
+			boolean string, Compressor compressor) {
+		super(code, message, headers, (byte[]) null);
+		if (compressed == null) {
+			throw new IllegalArgumentException("null compressed");
+		}
+		this.compressed = compressed;
+		this.length = length;
+		this.string = string;
+		if (compressor == null) {
+			throw new IllegalArgumentException("null compressor");
+		}
+		this.compressor = compressor;
+	}
+
+	@Override
+	public InputStream getStream() {
+		try {
+			return compressor.decompress(new ByteArrayInputStream(compressed));
+		} catch (IOException iox) {
+			throw new IllegalStateException("Failed to decompress " + this, iox);
+		}
+	}
+
+	@Override
+	public Reader getReader() {
+		return new InputStreamReader(getStream(), getCharset());
+	}
+
+	@Override
+	public byte[] getAsBytes() {
+		InputStream stream = getStream();
+		try {
+			byte[] bytes = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int read = stream.read(bytes, offset, length - offset);
+				if (read == -1) {
+					throw new IllegalStateException("Premature end of " + this + " at " + offset);
+				}
+				offset += read;
+			}
+			return bytes;
+		} catch (IOException iox) {
+			throw new IllegalStateException("Failed to decompress " + this, iox);
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException iox) {
+				//ignore
+			}
+		}
+	}
+
+	@Override
+	public String getAsString() {
+		return new String(getAsBytes(), getCharset());
+	}
+
+	@Override
+	boolean isString() {
+		return string;
+	}
+
+	/**
+	 * @return number of uncompressed body bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return number of compressed body bytes
+	 */
+	public int getCompressedLength() {
+		return compressed.length;
+	}
+
+	public Compressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * @return headers and compressed body size
+	 */
+	@Override
+	public int getWeight() {
+		return super.getWeight() + compressed.length;
+	}
+
+	@Override
+	public String toString() {
+		return "CompressedResponse#" + hashCode() + "{" + getCode() + ", " + getMessage() + ", " + length + "/"
+				+ compressed.length + " bytes}";
+	}
+}
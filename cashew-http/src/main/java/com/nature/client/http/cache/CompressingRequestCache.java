@@ -0,0 +1,165 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nature.client.http.async.ListenableFuture;
+
+/**
+ * Decorator compressing CachedResponse bodies bigger than threshold before they are stored into delegate cache.
+ * Entries are returned as CompressedResponse and body is decompressed only when it is read.
+ *
+ * Body is stored uncompressed when compression does not make it smaller
+ *
+ * @author martin.vanek
+ *
+ */
+public class CompressingRequestCache<V extends Serializable> extends RequestCache<V> {
+
+	private final RequestCache<V> delegate;
+
+	private final int threshold;
+
+	private final Compressor compressor;
+
+	private final AtomicLong compressedCount = new AtomicLong();
+
+	private final AtomicLong savedBytes = new AtomicLong();
+
+	/**
+	 * Deflate bodies bigger than 1 KB
+	 */
+	public CompressingRequestCache(RequestCache<V> delegate) {
+		this(delegate, 1024, Compressor.DEFLATE);
+	}
+
+	/**
+	 * @param threshold minimal body size in bytes to be compressed
+	 */
+	public CompressingRequestCache(RequestCache<V> delegate, int threshold, Compressor compressor) {
+		super(delegate != null ? delegate.getName() : null);
+		if (delegate == null) {
+			throw new IllegalArgumentException("null delegate");
+		}
+		this.delegate = delegate;
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold " + threshold + " must be >= 0");
+		}
+		this.threshold = threshold;
+		if (compressor == null) {
+			throw new IllegalArgumentException("null compressor");
+		}
+		this.compressor = compressor;
+	}
+
+	@Override
+	protected CacheEntry<V> doGet(String key) throws Exception {
+		return delegate.get(key);
+	}
+
+	@Override
+	protected Boolean doSet(String key, CacheEntry<V> entry) throws Exception {
+		return delegate.set(key, compress(entry));
+	}
+
+	@Override
+	protected ListenableFuture<CacheEntry<V>> doGetAsync(String key) throws Exception {
+		return delegate.getAsync(key);
+	}
+
+	@Override
+	protected ListenableFuture<Boolean> doSetAsync(String key, CacheEntry<V> entry) throws Exception {
+		return delegate.setAsync(key, compress(entry));
+	}
+
+	@Override
+	protected Map<String, CacheEntry<V>> doGetAll(Collection<String> keys) throws Exception {
+		return delegate.getAll(keys);
+	}
+
+	@Override
+	protected Map<String, Boolean> doSetAll(Map<String, CacheEntry<V>> entries) throws Exception {
+		Map<String, CacheEntry<V>> compressed = new LinkedHashMap<String, CacheEntry<V>>();
+		for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+			compressed.put(entry.getKey(), compress(entry.getValue()));
+		}
+		return delegate.setAll(compressed);
+	}
+
+	@SuppressWarnings("unchecked")
+	private CacheEntry<V> compress(CacheEntry<V> entry) throws Exception {
+		if (!(entry.getValue() instanceof CachedResponse) || entry.getValue() instanceof CompressedResponse) {
+			return entry;
+		}
+		CachedResponse response = (CachedResponse) entry.getValue();
+		String string = response.getContentString();
+		byte[] body = string != null ? string.getBytes(response.getCharset()) : response.getContentBinary();
+		if (response instanceof OffHeapResponse) {
+			body = response.getAsBytes();
+		}
+		if (body == null || body.length < threshold) {
+			return entry;
+		}
+		byte[] compressed = compressor.compress(body);
+		if (compressed.length >= body.length) {
+			return entry;
+		}
+		compressedCount.incrementAndGet();
+		savedBytes.addAndGet(body.length - compressed.length);
+		CompressedResponse value = new CompressedResponse(response.getCode(), response.getMessage(),
+				response.getHeaders(), compressed, body.length, response.isString(), compressor);
+		return new CacheEntry<V>((V) value, entry.getSinceDate(), entry.getHardTtl(), entry.getSoftTtl(),
+				entry.getServerTag(), entry.getServerDate());
+	}
+
+	@Override
+	protected Boolean doRemove(String key) throws Exception {
+		return delegate.remove(key);
+	}
+
+	@Override
+	public void removeAll() {
+		delegate.removeAll();
+	}
+
+	@Override
+	public void destroy() {
+		delegate.destroy();
+	}
+
+	public RequestCache<V> getDelegate() {
+		return delegate;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public Compressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * @return number of responses stored compressed
+	 */
+	public long getCompressedCount() {
+		return compressedCount.get();
+	}
+
+	/**
+	 * @return sum of bytes saved by compression
+	 */
+	public long getSavedBytes() {
+		return savedBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return "CompressingRequestCache [delegate=" + delegate + ", threshold=" + threshold + ", compressor="
+				+ compressor + "]";
+	}
+}
@@ -0,0 +1,26 @@
+package com.nature.client.http.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * Compression algorithm used by CompressingRequestCache. Travels with CompressedResponse, so it must be Serializable
+ *
+ * @author martin.vanek
+ *
+ */
+public interface Compressor extends Serializable {
+
+	public byte[] compress(byte[] data) throws IOException;
+
+	/**
+	 * @return stream decompressing data lazily while being read
+	 */
+	public InputStream decompress(InputStream compressed) throws IOException;
+
+	/**
+	 * Deflate with default compression level
+	 */
+	public static final Compressor DEFLATE = new DeflateCompressor();
+}
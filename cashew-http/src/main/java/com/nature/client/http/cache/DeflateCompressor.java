@@ -0,0 +1,113 @@
+package com.nature.client.http.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * java.util.zip Deflate (zlib) Compressor
+ *
+ * @author martin.vanek
+ *
+ */
+public class DeflateCompressor implements Compressor {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int level;
+
+	public DeflateCompressor() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level 0-9 or Deflater.DEFAULT_COMPRESSION
+	 */
+	public DeflateCompressor(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+			throw new IllegalArgumentException("level " + level + " must be 0-9");
+		}
+		this.level = level;
+	}
+
+	@Override
+	public byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 4 + 64);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				output.write(buffer, 0, count);
+			}
+			return output.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Native Inflater memory is released at the end of data or when stream is closed, whichever comes first
+	 */
+	@Override
+	public InputStream decompress(InputStream compressed) {
+		return new EndingInflaterInputStream(compressed);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public String toString() {
+		return "DeflateCompressor [level=" + level + "]";
+	}
+
+	/**
+	 * Callers often read decompressed body to the end and never close the stream, so Inflater is ended at the end of
+	 * data, not only in close()
+	 */
+	private static class EndingInflaterInputStream extends InflaterInputStream {
+
+		private boolean ended;
+
+		public EndingInflaterInputStream(InputStream compressed) {
+			super(compressed, new Inflater());
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int count = super.read(bytes, offset, length);
+			if (count == -1) {
+				end();
+			}
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return ended ? 0 : super.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			end();
+			super.close();
+		}
+
+		private void end() {
+			if (!ended) {
+				ended = true;
+				inf.end();
+			}
+		}
+	}
+}
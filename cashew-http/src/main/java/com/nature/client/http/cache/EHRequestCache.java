@@ -1,6 +1,12 @@
 package com.nature.client.http.cache;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import net.sf.ehcache.Element;
 
@@ -43,6 +49,31 @@ public class EHRequestCache<V extends Serializable> extends RequestCache<V> {
 		return true;
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Map<String, CacheEntry<V>> doGetAll(Collection<String> keys) {
+		Map<String, CacheEntry<V>> entries = new HashMap<String, CacheEntry<V>>();
+		for (Entry<Object, Element> entry : ehCache.getAll(keys).entrySet()) {
+			if (entry.getValue() != null) {
+				entries.put((String) entry.getKey(), (CacheEntry<V>) entry.getValue().getObjectValue());
+			}
+		}
+		return entries;
+	}
+
+	@Override
+	protected Map<String, Boolean> doSetAll(Map<String, CacheEntry<V>> entries) {
+		List<Element> elements = new ArrayList<Element>(entries.size());
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+			elements.add(new Element(entry.getKey(), entry.getValue(), Boolean.FALSE, 0, (int) entry.getValue()
+					.getHardTtl()));
+			result.put(entry.getKey(), Boolean.TRUE);
+		}
+		ehCache.putAll(elements);
+		return result;
+	}
+
 	@Override
 	public Boolean doRemove(String cacheKey) {
 		try {
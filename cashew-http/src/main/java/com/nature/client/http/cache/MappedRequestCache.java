@@ -0,0 +1,537 @@
+package com.nature.client.http.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.nature.client.http.cache.CacheEntryCodec.Encoded;
+
+/**
+ * Persistent cache storing entries in memory mapped segment files, so it is warm after application restart. Only small
+ * index (key, segment, offset, length) stays on heap. CachedResponse is returned as OffHeapResponse streaming it's body
+ * straight from the mapped file.
+ *
+ * Segments are append only logs of records [int payloadLength][int payloadCrc32][byte status][payload], payload being
+ * [int keyLength][key][CacheEntryCodec record]. Removed and replaced records are only marked as dead. When all
+ * segments are used, the sparsest one is compacted into new segment or the oldest is evicted (deleted). Segment keeps
+ * list of keys written into it, so neither compaction nor eviction has to scan whole index.
+ *
+ * On open, segments are scanned in order they were created and index is rebuilt. Scan of a segment stops on first
+ * empty, torn or corrupted record, so a crash in the middle of write loses only that record. Hard expired entries are
+ * skipped. Directory must not be shared by multiple instances.
+ *
+ * Writes are not forced to disk - operating system writes dirty pages on it's own, which survives application crash.
+ * Call flush() to survive also power loss.
+ *
+ * @author martin.vanek
+ *
+ */
+public class MappedRequestCache<V extends Serializable> extends RequestCache<V> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String PREFIX = "segment-";
+
+	private static final String SUFFIX = ".dat";
+
+	private static final int HEADER = 9; //length + crc + status
+
+	private static final byte LIVE = 1;
+
+	private static final byte DEAD = 2;
+
+	private final File directory;
+
+	private final int segmentSize;
+
+	private final int maximumSegments;
+
+	private final ConcurrentHashMap<String, Slot> index = new ConcurrentHashMap<String, Slot>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final List<Segment> segments = new ArrayList<Segment>(); //guarded by lock - oldest first
+
+	private Segment current; //guarded by lock - always the newest
+
+	private long nextSequence; //guarded by lock
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong compactionCount = new AtomicLong();
+
+	/**
+	 * 64 MB segments
+	 */
+	public MappedRequestCache(File directory, long capacity) throws IOException {
+		this(directory, capacity, 64 * 1024 * 1024);
+	}
+
+	/**
+	 * @param directory where segment files are stored. Existing segments are recovered
+	 * @param capacity maximal disk bytes (rounded up to whole segments, at least 2)
+	 * @param segmentSize size of single segment file. Limits maximal entry size as well
+	 */
+	public MappedRequestCache(File directory, long capacity, int segmentSize) throws IOException {
+		super("MAPPED");
+		if (directory == null) {
+			throw new IllegalArgumentException("null directory");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create directory " + directory);
+		}
+		this.directory = directory;
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segmentSize " + segmentSize + " must be >= 1024");
+		}
+		this.segmentSize = segmentSize;
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be > 0");
+		}
+		this.maximumSegments = (int) Math.max(2, (capacity + segmentSize - 1) / segmentSize);
+		recover();
+	}
+
+	@Override
+	protected CacheEntry<V> doGet(String key) throws Exception {
+		Slot slot = index.get(key);
+		if (slot == null) {
+			return null;
+		} else if (slot.hardExpire < System.currentTimeMillis()) {
+			remove(key, slot);
+			return null;
+		} else {
+			ByteBuffer record = slot.segment.buffer.duplicate();
+			int keyLength = record.getInt(slot.offset + HEADER);
+			record.position(slot.offset + HEADER + 4 + keyLength);
+			record.limit(slot.offset + slot.length);
+			return CacheEntryCodec.decode(record);
+		}
+	}
+
+	@Override
+	protected Boolean doSet(String key, CacheEntry<V> entry) throws Exception {
+		Encoded encoded = CacheEntryCodec.encode(entry);
+		byte[] keyBytes = key.getBytes(UTF8);
+		int length = HEADER + 4 + keyBytes.length + encoded.getLength();
+		if (length > segmentSize) {
+			logger.debug("Entry " + key + " size " + length + " exceeds segment size " + segmentSize);
+			Slot stale = index.get(key);
+			if (stale != null) {
+				remove(key, stale);
+			}
+			return false;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(length - HEADER);
+		payload.putInt(keyBytes.length);
+		payload.put(keyBytes);
+		encoded.writeTo(payload);
+		CRC32 crc = new CRC32();
+		crc.update(payload.array());
+
+		long hardExpire = entry.getHardExpireMillis();
+		lock.lock();
+		try {
+			Segment segment = allocate(length);
+			int offset = segment.position;
+			ByteBuffer target = segment.buffer.duplicate();
+			//length goes last - record is not visible to recovery until it is complete
+			target.position(offset + 4);
+			target.putInt((int) crc.getValue());
+			target.put(LIVE);
+			target.put(payload.array());
+			target.putInt(offset, payload.capacity());
+			segment.position += length;
+			segment.live.addAndGet(length);
+			segment.keys.add(key);
+			Slot previous = index.put(key, new Slot(segment, offset, length, hardExpire));
+			if (previous != null) {
+				kill(previous);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	@Override
+	protected Boolean doRemove(String key) {
+		Slot slot = index.get(key);
+		return slot != null && remove(key, slot) ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	private boolean remove(String key, Slot slot) {
+		lock.lock();
+		try {
+			if (index.remove(key, slot)) {
+				kill(slot);
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks record as dead, so it is not recovered. Must hold lock
+	 */
+	private void kill(Slot slot) {
+		slot.segment.live.addAndGet(-slot.length);
+		slot.segment.buffer.put(slot.offset + 8, DEAD);
+	}
+
+	/**
+	 * Deletes all segment files
+	 */
+	@Override
+	public void removeAll() {
+		lock.lock();
+		try {
+			index.clear();
+			for (Segment segment : segments) {
+				segment.delete();
+			}
+			segments.clear();
+			current = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes segments to disk. Segment files are kept for next start
+	 */
+	@Override
+	public void destroy() {
+		flush();
+	}
+
+	/**
+	 * Forces all segments to be written on disk
+	 */
+	public void flush() {
+		lock.lock();
+		try {
+			for (Segment segment : segments) {
+				segment.buffer.force();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return maximal disk bytes
+	 */
+	public long getCapacity() {
+		return (long) maximumSegments * segmentSize;
+	}
+
+	/**
+	 * @return disk bytes occupied by live entries
+	 */
+	public long getLiveBytes() {
+		lock.lock();
+		try {
+			long live = 0;
+			for (Segment segment : segments) {
+				live += segment.live.get();
+			}
+			return live;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of entries evicted to make space
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getCompactionCount() {
+		return compactionCount.get();
+	}
+
+	/**
+	 * Rebuilds index from segment files
+	 */
+	private void recover() throws IOException {
+		File[] files = directory.listFiles();
+		List<Segment> found = new ArrayList<Segment>();
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+				try {
+					long sequence = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+					found.add(new Segment(sequence, file, 0));
+				} catch (NumberFormatException nfx) {
+					logger.warn("Ignoring file " + file);
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<Segment>() {
+
+			@Override
+			public int compare(Segment o1, Segment o2) {
+				return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+			}
+		});
+		long now = System.currentTimeMillis();
+		int recovered = 0;
+		int dropped = 0;
+		byte[] payload = new byte[1024];
+		CRC32 crc = new CRC32();
+		for (Segment segment : found) {
+			ByteBuffer buffer = segment.buffer.duplicate();
+			int capacity = buffer.capacity();
+			int offset = 0;
+			while (offset + HEADER <= capacity) {
+				int length = buffer.getInt(offset);
+				byte status = buffer.get(offset + 8);
+				if (length < 4 || length > capacity - offset - HEADER || (status != LIVE && status != DEAD)) {
+					break; //end of log or torn header
+				}
+				if (payload.length < length) {
+					payload = new byte[Math.max(length, payload.length * 2)];
+				}
+				buffer.position(offset + HEADER);
+				buffer.get(payload, 0, length);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+					break; //torn or corrupted payload
+				}
+				if (status == LIVE) {
+					int keyLength = buffer.getInt(offset + HEADER);
+					String key = new String(payload, 4, keyLength, UTF8);
+					buffer.position(offset + HEADER + 4 + keyLength);
+					long hardExpire = CacheEntryCodec.getHardExpire(buffer);
+					Slot slot = new Slot(segment, offset, HEADER + length, hardExpire);
+					if (hardExpire < now) {
+						++dropped;
+						buffer.put(offset + 8, DEAD);
+					} else {
+						segment.live.addAndGet(slot.length);
+						segment.keys.add(key);
+						Slot previous = index.put(key, slot);
+						if (previous != null) {
+							kill(previous); //crashed before previous record was marked
+						} else {
+							++recovered;
+						}
+					}
+				}
+				offset += HEADER + length;
+			}
+			segment.position = offset;
+			//wipe leftovers of torn write, so they cannot be mistaken for record later
+			for (int i = offset; i < capacity && i < offset + HEADER; ++i) {
+				if (buffer.get(i) != 0) {
+					logger.warn("Segment " + segment.file + " truncated at " + offset);
+					for (int j = offset; j < capacity; ++j) {
+						buffer.put(j, (byte) 0);
+					}
+					break;
+				}
+			}
+			segments.add(segment);
+			nextSequence = segment.sequence + 1;
+		}
+		if (!segments.isEmpty()) {
+			current = segments.get(segments.size() - 1);
+		}
+		while (segments.size() > maximumSegments) {
+			evict(segments.remove(0));
+		}
+		logger.info("Recovered " + recovered + " entries from " + segments.size() + " segments, " + dropped + " expired");
+	}
+
+	/**
+	 * @return segment with at least length free bytes. Must hold lock
+	 */
+	private Segment allocate(int length) throws IOException {
+		if (current != null && current.capacity() - current.position >= length) {
+			return current;
+		}
+		if (segments.size() < maximumSegments) {
+			return append();
+		}
+		Segment sparsest = segments.get(0);
+		for (Segment segment : segments) {
+			if (segment.live.get() < sparsest.live.get()) {
+				sparsest = segment;
+			}
+		}
+		if (sparsest.live.get() <= (segmentSize - length) / 2) {
+			compact(sparsest);
+			if (current.capacity() - current.position >= length) {
+				return current;
+			}
+		}
+		evict(segments.remove(0));
+		return append();
+	}
+
+	/**
+	 * Creates new segment which becomes current. Must hold lock
+	 */
+	private Segment append() throws IOException {
+		File file = new File(directory, PREFIX + nextSequence + SUFFIX);
+		current = new Segment(nextSequence++, file, segmentSize);
+		segments.add(current);
+		return current;
+	}
+
+	/**
+	 * Drops index entries of segment and deletes it's file. Must hold lock
+	 */
+	private void evict(Segment segment) {
+		for (String key : segment.keys) {
+			Slot slot = index.get(key);
+			if (slot != null && slot.segment == segment && index.remove(key, slot)) {
+				evictionCount.incrementAndGet();
+			}
+		}
+		segment.delete();
+		if (current == segment) {
+			current = null;
+		}
+	}
+
+	/**
+	 * Copies live records into new segment and deletes the sparse one. Must hold lock
+	 */
+	private void compact(Segment sparse) throws IOException {
+		Segment target = append();
+		ByteBuffer source = sparse.buffer.duplicate();
+		ByteBuffer destination = target.buffer.duplicate();
+		long now = System.currentTimeMillis();
+		for (String key : sparse.keys) {
+			Slot slot = index.get(key);
+			if (slot == null || slot.segment != sparse) {
+				continue; //removed, overwritten or already moved
+			}
+			if (slot.hardExpire < now) {
+				index.remove(key, slot);
+				continue;
+			}
+			source.clear();
+			source.position(slot.offset);
+			source.limit(slot.offset + slot.length);
+			destination.position(target.position);
+			destination.put(source);
+			Slot moved = new Slot(target, target.position, slot.length, slot.hardExpire);
+			target.position += slot.length;
+			if (index.replace(key, slot, moved)) {
+				target.live.addAndGet(slot.length);
+				target.keys.add(key);
+			}
+		}
+		segments.remove(sparse);
+		sparse.delete();
+		compactionCount.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "MappedRequestCache [directory=" + directory + ", entries=" + index.size() + ", capacity=" + getCapacity()
+				+ ", segmentSize=" + segmentSize + "]";
+	}
+
+	/**
+	 * Memory mapped segment file filled from start to end
+	 */
+	private class Segment {
+
+		private final long sequence;
+
+		private final File file;
+
+		private final MappedByteBuffer buffer;
+
+		private int position; //guarded by lock
+
+		private final AtomicLong live = new AtomicLong();
+
+		private final List<String> keys = new ArrayList<String>(); //guarded by lock - written keys, some might be stale
+
+		/**
+		 * @param size of new file or 0 to map existing file
+		 */
+		public Segment(long sequence, File file, int size) throws IOException {
+			this.sequence = sequence;
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				if (size != 0) {
+					raf.setLength(size);
+				}
+				FileChannel channel = raf.getChannel();
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			} finally {
+				raf.close(); //mapping stays valid
+			}
+		}
+
+		public int capacity() {
+			return buffer.capacity();
+		}
+
+		/**
+		 * Mapping is released by garbage collector, so responses handed out earlier stay valid
+		 */
+		public void delete() {
+			if (!file.delete()) {
+				logger.warn("Failed to delete " + file);
+			}
+		}
+	}
+
+	/**
+	 * Immutable location of the record
+	 */
+	private class Slot {
+
+		private final Segment segment;
+
+		private final int offset;
+
+		private final int length;
+
+		private final long hardExpire;
+
+		public Slot(Segment segment, int offset, int length, long hardExpire) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.hardExpire = hardExpire;
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nature.client.http.cache.CacheEntryCodec.Encoded;
+
+/**
+ * Cache storing serialized entries in direct ByteBuffer slabs. Only small index (key, slab, offset, length) stays on
+ * heap. CachedResponse is returned as OffHeapResponse streaming it's body straight from the slab.
+ *
+ * Slabs are append only. When all slabs are used, the one with least live bytes is compacted into fresh slab if it
+ * frees enough space, otherwise the oldest slab is evicted with all it's entries. Every slab knows keys written into
+ * it, so compaction and eviction touch only entries of that slab.
+ *
+ * Retired slab is recycled through small free list instead of allocating new direct buffer, but only after every
+ * OffHeapResponse handed out from it became unreachable, so responses stay valid. Retired slab referenced by some
+ * response is released by garbage collector together with the last response.
+ *
+ * Other Serializable values are stored using java serialization and deserialized on every get
+ *
+ * @author martin.vanek
+ *
+ */
+public class OffHeapRequestCache<V extends Serializable> extends RequestCache<V> {
+
+	private static final Logger logger = LoggerFactory.getLogger(OffHeapRequestCache.class);
+
+	private final ConcurrentHashMap<String, Slot> index = new ConcurrentHashMap<String, Slot>();
+
+	private final int slabSize;
+
+	private final int maximumSlabs;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final List<Slab> slabs = new ArrayList<Slab>(); //guarded by lock - oldest first
+
+	private Slab current; //guarded by lock
+
+	private final ReferenceQueue<Object> retiredQueue = new ReferenceQueue<Object>();
+
+	private final Set<Retired> retired = new HashSet<Retired>(); //guarded by lock - keeps references alive
+
+	private final LinkedList<ByteBuffer> free = new LinkedList<ByteBuffer>(); //guarded by lock
+
+	private final int maximumFree;
+
+	private final AtomicLong recycledCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong compactionCount = new AtomicLong();
+
+	/**
+	 * 16 MB slabs
+	 */
+	public OffHeapRequestCache(long capacity) {
+		this(capacity, 16 * 1024 * 1024);
+	}
+
+	/**
+	 * @param capacity maximal off-heap bytes (rounded up to whole slabs, at least 2)
+	 * @param slabSize size of single direct ByteBuffer. Limits maximal entry size as well
+	 */
+	public OffHeapRequestCache(long capacity, int slabSize) {
+		super("OFFHEAP");
+		if (slabSize < 1024) {
+			throw new IllegalArgumentException("slabSize " + slabSize + " must be >= 1024");
+		}
+		this.slabSize = slabSize;
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " must be > 0");
+		}
+		this.maximumSlabs = (int) Math.max(2, (capacity + slabSize - 1) / slabSize);
+		this.maximumFree = 2;
+	}
+
+	@Override
+	protected CacheEntry<V> doGet(String key) throws Exception {
+		Slot slot = index.get(key);
+		if (slot == null) {
+			return null;
+		} else if (slot.hardExpire < System.currentTimeMillis()) {
+			remove(key, slot);
+			return null;
+		} else {
+			ByteBuffer record = slot.slab.buffer.duplicate();
+			record.position(slot.offset);
+			record.limit(slot.offset + slot.length);
+			CacheEntry<V> entry = CacheEntryCodec.decode(record);
+			if (entry.getValue() instanceof OffHeapResponse) {
+				((OffHeapResponse) entry.getValue()).setOwner(slot.slab.token); //keeps slab from being recycled
+			}
+			return entry;
+		}
+	}
+
+	@Override
+	protected Boolean doSet(String key, CacheEntry<V> entry) throws Exception {
+		Encoded encoded = CacheEntryCodec.encode(entry);
+		int length = encoded.getLength();
+		if (length > slabSize) {
+			logger.debug("Entry " + key + " size " + length + " exceeds slab size " + slabSize);
+			Slot stale = index.get(key);
+			if (stale != null) {
+				remove(key, stale);
+			}
+			return false;
+		}
+		long hardExpire = entry.getHardExpireMillis();
+		lock.lock();
+		try {
+			Slab slab = allocate(length);
+			ByteBuffer target = slab.buffer.duplicate();
+			target.position(slab.position);
+			encoded.writeTo(target);
+			Slot slot = new Slot(slab, slab.position, length, hardExpire);
+			slab.position += length;
+			slab.live.addAndGet(length);
+			slab.keys.add(key);
+			Slot previous = index.put(key, slot);
+			if (previous != null) {
+				previous.slab.live.addAndGet(-previous.length);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	@Override
+	protected Boolean doRemove(String key) {
+		Slot slot = index.get(key);
+		return slot != null && remove(key, slot) ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	private boolean remove(String key, Slot slot) {
+		if (index.remove(key, slot)) {
+			slot.slab.live.addAndGet(-slot.length);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void removeAll() {
+		lock.lock();
+		try {
+			index.clear();
+			for (Slab slab : slabs) {
+				retire(slab);
+			}
+			slabs.clear();
+			current = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		removeAll();
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return maximal off-heap bytes
+	 */
+	public long getCapacity() {
+		return (long) maximumSlabs * slabSize;
+	}
+
+	/**
+	 * @return off-heap bytes occupied by live entries
+	 */
+	public long getLiveBytes() {
+		lock.lock();
+		try {
+			long live = 0;
+			for (Slab slab : slabs) {
+				live += slab.live.get();
+			}
+			return live;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of entries evicted to make space
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getCompactionCount() {
+		return compactionCount.get();
+	}
+
+	/**
+	 * @return number of slabs reused instead of allocating new direct buffer
+	 */
+	public long getRecycledCount() {
+		return recycledCount.get();
+	}
+
+	/**
+	 * @return slab with at least length free bytes. Must hold lock
+	 */
+	private Slab allocate(int length) {
+		if (current != null && slabSize - current.position >= length) {
+			return current;
+		}
+		if (slabs.size() < maximumSlabs) {
+			current = newSlab();
+			slabs.add(current);
+			return current;
+		}
+		Slab sparsest = slabs.get(0);
+		for (Slab slab : slabs) {
+			if (slab.live.get() < sparsest.live.get()) {
+				sparsest = slab;
+			}
+		}
+		if (sparsest.live.get() <= (slabSize - length) / 2) {
+			current = compact(sparsest);
+			if (slabSize - current.position >= length) {
+				return current;
+			}
+		}
+		Slab oldest = slabs.remove(0);
+		for (String key : oldest.keys) {
+			Slot slot = index.get(key);
+			if (slot != null && slot.slab == oldest && index.remove(key, slot)) {
+				evictionCount.incrementAndGet();
+			}
+		}
+		retire(oldest);
+		current = newSlab();
+		slabs.add(current);
+		return current;
+	}
+
+	/**
+	 * Copies live entries into fresh slab, which replaces the sparse one. Must hold lock
+	 */
+	private Slab compact(Slab sparse) {
+		Slab target = newSlab();
+		ByteBuffer source = sparse.buffer.duplicate();
+		ByteBuffer destination = target.buffer.duplicate();
+		long now = System.currentTimeMillis();
+		for (String key : sparse.keys) {
+			Slot slot = index.get(key);
+			if (slot == null || slot.slab != sparse) {
+				continue; //removed, overwritten or already moved
+			}
+			if (slot.hardExpire < now) {
+				remove(key, slot);
+				continue;
+			}
+			source.clear();
+			source.position(slot.offset);
+			source.limit(slot.offset + slot.length);
+			destination.position(target.position);
+			destination.put(source);
+			Slot moved = new Slot(target, target.position, slot.length, slot.hardExpire);
+			target.position += slot.length;
+			if (index.replace(key, slot, moved)) {
+				target.live.addAndGet(slot.length);
+				target.keys.add(key);
+			} //else removed meanwhile
+		}
+		slabs.set(slabs.indexOf(sparse), target);
+		retire(sparse);
+		compactionCount.incrementAndGet();
+		return target;
+	}
+
+	/**
+	 * @return slab with recycled buffer if there is some, otherwise with new one. Must hold lock
+	 */
+	private Slab newSlab() {
+		Retired reclaimed;
+		while ((reclaimed = (Retired) retiredQueue.poll()) != null) {
+			retired.remove(reclaimed);
+			if (free.size() < maximumFree) {
+				free.add(reclaimed.buffer);
+			} //else released by garbage collector
+		}
+		ByteBuffer buffer = free.poll();
+		if (buffer != null) {
+			recycledCount.incrementAndGet();
+			return new Slab(buffer);
+		}
+		return new Slab(ByteBuffer.allocateDirect(slabSize));
+	}
+
+	/**
+	 * Slab buffer becomes reusable when nothing (reader or handed out response) references slab token. Must hold lock
+	 */
+	private void retire(Slab slab) {
+		retired.add(new Retired(slab.token, slab.buffer, retiredQueue));
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapRequestCache [entries=" + index.size() + ", capacity=" + getCapacity() + ", slabSize=" + slabSize
+				+ "]";
+	}
+
+	/**
+	 * Fixed size direct buffer filled from start to end
+	 */
+	private static class Slab {
+
+		private final ByteBuffer buffer;
+
+		private final Object token = new Object(); //referenced by slab users
+
+		private int position; //guarded by lock
+
+		private final AtomicLong live = new AtomicLong();
+
+		private final List<String> keys = new ArrayList<String>(); //guarded by lock - written keys, some might be stale
+
+		public Slab(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Buffer of retired slab waiting until slab token is garbage collected
+	 */
+	private static class Retired extends WeakReference<Object> {
+
+		private final ByteBuffer buffer;
+
+		public Retired(Object token, ByteBuffer buffer, ReferenceQueue<Object> queue) {
+			super(token, queue);
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Immutable location of the entry
+	 */
+	private static class Slot {
+
+		private final Slab slab;
+
+		private final int offset;
+
+		private final int length;
+
+		private final long hardExpire;
+
+		public Slot(Slab slab, int offset, int length, long hardExpire) {
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+			this.hardExpire = hardExpire;
+		}
+	}
+}
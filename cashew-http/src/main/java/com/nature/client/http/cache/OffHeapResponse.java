@@ -0,0 +1,180 @@
+package com.nature.client.http.cache;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectStreamException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.nature.client.http.HttpSender.Multival;
+
+/**
+ * CachedResponse with body kept in slice of off-heap slab. Body is streamed straight from the slice without copying it
+ * on heap. Slab content is never overwritten, so slice stays valid even after cache compacts or evicts it
+ *
+ * @author martin.vanek
+ *
+ */
+public class OffHeapResponse extends CachedResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient ByteBuffer body;
+
+	private final boolean string;
+
+	private transient Object owner; //keeps body storage from being reused
+
+	/**
+	 * @param body read only slice with body bytes in response charset
+	 * @param string whether original body was String
+	 */
+	public OffHeapResponse(int code, String message, Multival headers, ByteBuffer body, boolean string) {
+		super(code, message, headers, (byte[]) null);
+		this.body = body;
+		this.string = string;
+	}
+
+	/**
+	 * @param owner object which must stay reachable as long as this response is
+	 */
+	void setOwner(Object owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * @return number of body bytes
+	 */
+	public int getBodyLength() {
+		return body.remaining();
+	}
+
+	@Override
+	public InputStream getStream() {
+		return new ByteBufferInputStream(body.duplicate(), owner); //stream can outlive response
+	}
+
+	@Override
+	public Reader getReader() {
+		return new InputStreamReader(getStream(), getCharset());
+	}
+
+	@Override
+	public byte[] getAsBytes() {
+		byte[] bytes = new byte[body.remaining()];
+		body.duplicate().get(bytes);
+		return bytes;
+	}
+
+	@Override
+	public String getAsString() {
+		Charset charset = getCharset();
+		return charset.decode(body.duplicate()).toString();
+	}
+
+	/**
+	 * Serialized as plain heap CachedResponse
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return toHeap();
+	}
+
+	/**
+	 * @return plain CachedResponse with body copied on heap
+	 */
+	CachedResponse toHeap() {
+		if (string) {
+			return new CachedResponse(getCode(), getMessage(), getHeaders(), getAsString());
+		} else {
+			return new CachedResponse(getCode(), getMessage(), getHeaders(), getAsBytes());
+		}
+	}
+
+	@Override
+	boolean isString() {
+		return string;
+	}
+
+	/**
+	 * @return body slice positioned at start
+	 */
+	ByteBuffer getBody() {
+		return body.duplicate();
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapResponse#" + hashCode() + "{" + getCode() + ", " + getMessage() + ", " + body.remaining() + " bytes}";
+	}
+
+	/**
+	 * InputStream over ByteBuffer. Buffer must not be shared
+	 */
+	static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private final Object owner;
+
+		private int mark;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this(buffer, null);
+		}
+
+		/**
+		 * @param owner kept reachable as long as this stream is
+		 */
+		ByteBufferInputStream(ByteBuffer buffer, Object owner) {
+			this.buffer = buffer;
+			this.owner = owner;
+			this.mark = buffer.position();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skip);
+			return skip;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = buffer.position();
+		}
+
+		@Override
+		public synchronized void reset() {
+			buffer.position(mark);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package com.nature.client.http.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes popular cache entries shortly before they become soft expired, so their callers are never served stale
+ * value nor blocked by synchronous refresh.
+ *
+ * Every access is recorded as a hit of cache key. Periodically, hit counts are halved (so frequency reflects recent
+ * accesses), keys without hits are forgotten and the hottest keys close to soft expiry are refreshed on executor. Number
+ * of refreshes started per period and number of refreshes in flight are bounded.
+ *
+ * @author martin.vanek
+ *
+ */
+public class RefreshAheadScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(RefreshAheadScheduler.class);
+
+	/**
+	 * Performs actual refresh - executes request and stores new value into cache
+	 */
+	public static interface Refresher<R> {
+
+		/**
+		 * @return new cache entry or null when refresh was skipped
+		 */
+		public CacheEntry<?> refresh(String cacheKey, R request) throws Exception;
+	}
+
+	private final ConcurrentMap<String, Tracked<?>> tracked = new ConcurrentHashMap<String, Tracked<?>>();
+
+	private final ExecutorService executor;
+
+	private final ScheduledExecutorService timer;
+
+	private final Semaphore permits;
+
+	private final long periodMillis;
+
+	private long aheadMillis = 2000;
+
+	private int minimumHits = 2;
+
+	private int maximumPerPeriod = 10;
+
+	private int maximumTracked = 10000;
+
+	private final AtomicLong refreshCount = new AtomicLong();
+
+	/**
+	 * Checks entries every second, maximum 10 refreshes in flight
+	 */
+	public RefreshAheadScheduler(ExecutorService executor) {
+		this(executor, 1, TimeUnit.SECONDS, 10);
+	}
+
+	/**
+	 * @param executor executes refreshes
+	 * @param period how often are tracked entries checked
+	 * @param maximumInFlight maximal number of refreshes running on executor
+	 */
+	public RefreshAheadScheduler(ExecutorService executor, long period, TimeUnit unit, int maximumInFlight) {
+		if (executor == null) {
+			throw new IllegalArgumentException("null executor");
+		}
+		this.executor = executor;
+		if (period <= 0) {
+			throw new IllegalArgumentException("period " + period + " must be > 0");
+		}
+		this.periodMillis = unit.toMillis(period);
+		if (maximumInFlight < 1) {
+			throw new IllegalArgumentException("maximumInFlight " + maximumInFlight + " must be >= 1");
+		}
+		this.permits = new Semaphore(maximumInFlight);
+
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "refresh-ahead");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.timer.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (Exception x) {
+					logger.warn("Refresh ahead check failed", x);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Records access of cache key
+	 *
+	 * @param entry current cache entry. Can be null on cache miss
+	 */
+	public <R> void record(String cacheKey, R request, CacheEntry<?> entry, Refresher<R> refresher) {
+		Tracked<?> track = tracked.get(cacheKey);
+		if (track == null) {
+			if (tracked.size() >= maximumTracked) {
+				return; //full - key will get a chance after cold keys are forgotten
+			}
+			Tracked<R> created = new Tracked<R>(cacheKey, request, refresher);
+			track = tracked.putIfAbsent(cacheKey, created);
+			if (track == null) {
+				track = created;
+			}
+		}
+		track.hits.incrementAndGet();
+		if (entry != null) {
+			track.update(entry);
+		}
+	}
+
+	/**
+	 * Single pass over tracked keys. Runs periodically on timer thread
+	 */
+	void check() {
+		long now = System.currentTimeMillis();
+		List<Tracked<?>> due = new ArrayList<Tracked<?>>();
+		for (Iterator<Tracked<?>> iterator = tracked.values().iterator(); iterator.hasNext();) {
+			Tracked<?> track = iterator.next();
+			int hits = track.hits.get();
+			track.hits.addAndGet(-(hits - hits / 2)); //decay
+			if (track.refreshing.get()) {
+				continue;
+			}
+			if (hits == 0) {
+				iterator.remove(); //cold
+			} else if (hits >= minimumHits && track.isDue(now, aheadMillis)) {
+				track.score = hits;
+				due.add(track);
+			}
+		}
+		if (due.isEmpty()) {
+			return;
+		}
+		Collections.sort(due, HOTTEST_FIRST);
+		for (int i = 0; i < due.size() && i < maximumPerPeriod; ++i) {
+			if (!permits.tryAcquire()) {
+				logger.debug("Refresh ahead budget exhausted, " + (due.size() - i) + " entries postponed");
+				break;
+			}
+			Tracked<?> track = due.get(i);
+			track.refreshing.set(true);
+			try {
+				executor.execute(new RefreshRunner(track));
+			} catch (RejectedExecutionException rx) {
+				track.refreshing.set(false);
+				permits.release();
+				logger.warn("Refresh ahead rejected " + track.key, rx);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stops checking of tracked entries. Executor is not shut down
+	 */
+	public void close() {
+		timer.shutdownNow();
+		tracked.clear();
+	}
+
+	/**
+	 * @return number of keys currently tracked
+	 */
+	public int getTrackedCount() {
+		return tracked.size();
+	}
+
+	/**
+	 * @return number of refreshes completed so far
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	public long getAheadMillis() {
+		return aheadMillis;
+	}
+
+	/**
+	 * How long before soft expiry is entry refreshed. At most half of entry's soft ttl
+	 */
+	public void setAhead(long ahead, TimeUnit unit) {
+		if (ahead <= 0) {
+			throw new IllegalArgumentException("ahead " + ahead + " must be > 0");
+		}
+		this.aheadMillis = unit.toMillis(ahead);
+	}
+
+	public int getMinimumHits() {
+		return minimumHits;
+	}
+
+	/**
+	 * Minimal number of (decayed) hits for key to be considered popular
+	 */
+	public void setMinimumHits(int minimumHits) {
+		if (minimumHits < 1) {
+			throw new IllegalArgumentException("minimumHits " + minimumHits + " must be >= 1");
+		}
+		this.minimumHits = minimumHits;
+	}
+
+	public int getMaximumPerPeriod() {
+		return maximumPerPeriod;
+	}
+
+	public void setMaximumPerPeriod(int maximumPerPeriod) {
+		if (maximumPerPeriod < 1) {
+			throw new IllegalArgumentException("maximumPerPeriod " + maximumPerPeriod + " must be >= 1");
+		}
+		this.maximumPerPeriod = maximumPerPeriod;
+	}
+
+	public int getMaximumTracked() {
+		return maximumTracked;
+	}
+
+	public void setMaximumTracked(int maximumTracked) {
+		if (maximumTracked < 1) {
+			throw new IllegalArgumentException("maximumTracked " + maximumTracked + " must be >= 1");
+		}
+		this.maximumTracked = maximumTracked;
+	}
+
+	@Override
+	public String toString() {
+		return "RefreshAheadScheduler [tracked=" + tracked.size() + ", refreshed=" + refreshCount.get() + ", periodMillis="
+				+ periodMillis + ", aheadMillis=" + aheadMillis + "]";
+	}
+
+	private static final Comparator<Tracked<?>> HOTTEST_FIRST = new Comparator<Tracked<?>>() {
+
+		@Override
+		public int compare(Tracked<?> o1, Tracked<?> o2) {
+			return o2.score < o1.score ? -1 : (o2.score == o1.score ? 0 : 1);
+		}
+	};
+
+	private class RefreshRunner implements Runnable {
+
+		private final Tracked<?> track;
+
+		public RefreshRunner(Tracked<?> track) {
+			this.track = track;
+		}
+
+		@Override
+		public void run() {
+			try {
+				CacheEntry<?> entry = track.refresh();
+				if (entry != null) {
+					track.update(entry);
+					refreshCount.incrementAndGet();
+				}
+			} catch (Exception x) {
+				logger.warn("Refresh ahead failed " + track.key, x);
+			} finally {
+				track.refreshing.set(false);
+				permits.release();
+			}
+		}
+	}
+
+	private static class Tracked<R> {
+
+		private final String key;
+
+		private final R request;
+
+		private final Refresher<R> refresher;
+
+		private final AtomicInteger hits = new AtomicInteger();
+
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		private volatile long since; //entry creation millis
+
+		private volatile long softExpire; //entry soft expiry millis
+
+		private int score; //hits snapshot used by timer thread only
+
+		public Tracked(String key, R request, Refresher<R> refresher) {
+			this.key = key;
+			this.request = request;
+			this.refresher = refresher;
+		}
+
+		public void update(CacheEntry<?> entry) {
+			since = entry.getSinceDate().getTime();
+			softExpire = entry.getSoftExpireMillis();
+		}
+
+		public CacheEntry<?> refresh() throws Exception {
+			return refresher.refresh(key, request);
+		}
+
+		/**
+		 * Entry is due when it is closer to soft expiry than ahead, but not younger than half of it's soft ttl
+		 */
+		public boolean isDue(long now, long ahead) {
+			long expire = softExpire;
+			if (expire == 0) {
+				return false; //not known yet
+			}
+			long ttl = expire - since;
+			return now >= expire - Math.min(ahead, ttl / 2);
+		}
+	}
+}
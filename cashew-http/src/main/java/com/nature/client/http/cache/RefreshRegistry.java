@@ -0,0 +1,157 @@
+package com.nature.client.http.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks cache entries being refreshed. Refresh of a key is claimed atomically - only one caller wins the claim, others
+ * skip the refresh and keep using soft expired value.
+ *
+ * Number of refreshes in flight is bounded. Claim older than timeout is considered lost and can be taken over
+ *
+ * @author martin.vanek
+ *
+ */
+public class RefreshRegistry {
+
+	private final ConcurrentMap<String, Refresh> refreshing = new ConcurrentHashMap<String, Refresh>();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final int maximumInFlight;
+
+	private final long timeoutMillis;
+
+	public RefreshRegistry() {
+		this(100, 60, TimeUnit.SECONDS);
+	}
+
+	public RefreshRegistry(int maximumInFlight, long timeout, TimeUnit unit) {
+		if (maximumInFlight < 1) {
+			throw new IllegalArgumentException("maximumInFlight " + maximumInFlight + " must be >= 1");
+		}
+		this.maximumInFlight = maximumInFlight;
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout " + timeout + " must be > 0");
+		}
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * @return Refresh to be released after refresh completes or null when key is already being refreshed or there is too
+	 *         many refreshes in flight
+	 */
+	public Refresh claim(String key, Object request) {
+		if (key == null) {
+			throw new IllegalArgumentException("null key");
+		}
+		Refresh refresh = new Refresh(key, request, System.currentTimeMillis());
+		Refresh existing = refreshing.get(key);
+		if (existing != null) {
+			//take over timed out claim - it keeps it's in flight slot
+			if (existing.isTimedOut(refresh.started) && refreshing.replace(key, existing, refresh)) {
+				return refresh;
+			}
+			return null;
+		}
+		if (inFlight.incrementAndGet() > maximumInFlight) {
+			inFlight.decrementAndGet();
+			return null;
+		}
+		if (refreshing.putIfAbsent(key, refresh) != null) {
+			inFlight.decrementAndGet();
+			return null;
+		}
+		return refresh;
+	}
+
+	/**
+	 * Releases claimed refresh. Refresh taken over after timeout is not released
+	 */
+	public void release(Refresh refresh) {
+		if (refresh == null) {
+			throw new IllegalArgumentException("null refresh");
+		}
+		if (refreshing.remove(refresh.key, refresh)) {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	public boolean isRefreshing(String key) {
+		Refresh refresh = refreshing.get(key);
+		return refresh != null && !refresh.isTimedOut(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return snapshot of refreshes in flight
+	 */
+	public List<Refresh> getRefreshing() {
+		return new ArrayList<Refresh>(refreshing.values());
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getMaximumInFlight() {
+		return maximumInFlight;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "RefreshRegistry [inFlight=" + inFlight.get() + ", maximumInFlight=" + maximumInFlight + ", timeoutMillis="
+				+ timeoutMillis + "]";
+	}
+
+	/**
+	 *
+	 * @author martin.vanek
+	 *
+	 */
+	public class Refresh {
+
+		private final String key;
+
+		private final Object request;
+
+		private final long started;
+
+		private Refresh(String key, Object request, long started) {
+			this.key = key;
+			this.request = request;
+			this.started = started;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return CachingRequest or CachingExtractorRequest being refreshed
+		 */
+		public Object getRequest() {
+			return request;
+		}
+
+		public long getStarted() {
+			return started;
+		}
+
+		private boolean isTimedOut(long now) {
+			return started + timeoutMillis < now;
+		}
+
+		@Override
+		public String toString() {
+			return "Refresh [key=" + key + ", started=" + started + ", request=" + request + "]";
+		}
+	}
+}
@@ -1,11 +1,21 @@
 package com.nature.client.http.cache;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.nature.client.http.async.FutureCallback;
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.SettableFuture;
+
 /**
  * This is actualy caching Responses, but SenderRequest is generic parameter here...
  * 
@@ -39,10 +49,17 @@ public abstract class RequestCache<V extends Serializable> implements Cache<Stri
 			logger.warn("Failed to get value for: " + key, x);
 			return null;
 		}
+		return checkHit(key, entry);
+	}
 
+	/**
+	 * @return entry or null when it is hard expired
+	 */
+	private CacheEntry<V> checkHit(String key, CacheEntry<V> entry) {
 		if (entry != null && entry.isHardExpired()) {
-			logger.warn("Cache returned hard expired entry: " + entry + " for: " + key);
-			//XXX maybe throw away hard expired entry and return null
+			//memcached expires with whole second granularity so it might return entry little bit after hard ttl
+			logger.debug("Cache returned hard expired entry: " + entry + " for: " + key);
+			entry = null;
 		}
 		if (logger.isDebugEnabled()) {
 			if (entry != null) {
@@ -56,6 +73,90 @@ public abstract class RequestCache<V extends Serializable> implements Cache<Stri
 
 	protected abstract CacheEntry<V> doGet(String key) throws Exception;
 
+	/**
+	 * Non blocking get. Like get, failure is logged and returned future is completed with null
+	 * 
+	 * Callbacks are executed by thread completing the backend operation so they should be short and must not block
+	 */
+	public final ListenableFuture<CacheEntry<V>> getAsync(final String key) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cache get async: " + key);
+		}
+		final SettableFuture<CacheEntry<V>> result = new SettableFuture<CacheEntry<V>>();
+		ListenableFuture<CacheEntry<V>> future;
+		try {
+			future = doGetAsync(key);
+		} catch (Exception x) {
+			logger.warn("Failed to get value for: " + key, x);
+			result.set(null);
+			return result;
+		}
+		future.addCallback(new FutureCallback<CacheEntry<V>>() {
+
+			@Override
+			public void onSuccess(CacheEntry<V> entry) {
+				result.set(checkHit(key, entry));
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				logger.warn("Failed to get value for: " + key, failure);
+				result.set(null);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Default implementation completes future synchronously using doGet. In-memory caches have nothing to wait for.
+	 * Override when backend has asynchronous client
+	 */
+	protected ListenableFuture<CacheEntry<V>> doGetAsync(String key) throws Exception {
+		SettableFuture<CacheEntry<V>> future = new SettableFuture<CacheEntry<V>>();
+		future.set(doGet(key));
+		return future;
+	}
+
+	@Override
+	public final Map<String, CacheEntry<V>> getAll(Collection<String> keys) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cache get all: " + keys.size() + " keys");
+		}
+		Map<String, CacheEntry<V>> entries;
+		try {
+			entries = doGetAll(keys);
+		} catch (Exception x) {
+			logger.warn("Failed to get values for: " + keys, x);
+			return Collections.emptyMap();
+		}
+		for (Iterator<CacheEntry<V>> iterator = entries.values().iterator(); iterator.hasNext();) {
+			CacheEntry<V> entry = iterator.next();
+			if (entry == null || entry.isHardExpired()) {
+				iterator.remove();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cache get all: " + entries.size() + " hits of " + keys.size() + " keys");
+		}
+		return entries;
+	}
+
+	/**
+	 * Default implementation gets keys one by one. Override when backend supports multi-get
+	 * 
+	 * @return mutable map of found entries
+	 */
+	protected Map<String, CacheEntry<V>> doGetAll(Collection<String> keys) throws Exception {
+		Map<String, CacheEntry<V>> entries = new HashMap<String, CacheEntry<V>>();
+		for (String key : keys) {
+			CacheEntry<V> entry = get(key);
+			if (entry != null) {
+				entries.put(key, entry);
+			}
+		}
+		return entries;
+	}
+
 	@Override
 	public Boolean set(String request, V data, long duration, TimeUnit unit) {
 		long ttlSeconds = unit.toSeconds(duration);
@@ -78,6 +179,76 @@ public abstract class RequestCache<V extends Serializable> implements Cache<Stri
 
 	protected abstract Boolean doSet(String cacheKey, CacheEntry<V> entry) throws Exception;
 
+	/**
+	 * Non blocking set. Caller does not have to wait for the result at all (fire and forget). Like set, failure is
+	 * logged and returned future is completed with false
+	 */
+	public final ListenableFuture<Boolean> setAsync(final String key, CacheEntry<V> entry) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cache set async: " + key + " entry: " + entry);
+		}
+		final SettableFuture<Boolean> result = new SettableFuture<Boolean>();
+		ListenableFuture<Boolean> future;
+		try {
+			future = doSetAsync(key, entry);
+		} catch (Exception x) {
+			logger.warn("Failed to set: " + key, x);
+			result.set(Boolean.FALSE);
+			return result;
+		}
+		future.addCallback(new FutureCallback<Boolean>() {
+
+			@Override
+			public void onSuccess(Boolean stored) {
+				result.set(stored);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				logger.warn("Failed to set: " + key, failure);
+				result.set(Boolean.FALSE);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Default implementation completes future synchronously using doSet. Override when backend has asynchronous client
+	 */
+	protected ListenableFuture<Boolean> doSetAsync(String key, CacheEntry<V> entry) throws Exception {
+		SettableFuture<Boolean> future = new SettableFuture<Boolean>();
+		future.set(doSet(key, entry));
+		return future;
+	}
+
+	@Override
+	public final Map<String, Boolean> setAll(Map<String, CacheEntry<V>> entries) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cache set all: " + entries.size() + " entries");
+		}
+		try {
+			return doSetAll(entries);
+		} catch (Exception x) {
+			logger.warn("Failed to set: " + entries.keySet(), x);
+			Map<String, Boolean> result = new HashMap<String, Boolean>();
+			for (String key : entries.keySet()) {
+				result.put(key, Boolean.FALSE);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Default implementation sets entries one by one. Override when backend supports multi-set
+	 */
+	protected Map<String, Boolean> doSetAll(Map<String, CacheEntry<V>> entries) throws Exception {
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+			result.put(entry.getKey(), set(entry.getKey(), entry.getValue()));
+		}
+		return result;
+	}
+
 	@Override
 	public final Boolean remove(String key) {
 		if (logger.isDebugEnabled()) {
@@ -1,16 +1,28 @@
 package com.nature.client.http.cache;
 
 import java.io.Serializable;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 
+ * In memory cache. Unbounded by default - entries are only dropped after hard ttl.
+ *
+ * When evictionInterval is set, hard expired entries are removed by background thread using TimerWheel, so expiry
+ * costs are proportional to number of expired entries, not to cache size.
+ *
+ * When maximumWeight is set, cache is bounded by sum of entry weights (approximate bytes) and evicts using segmented
+ * LRU. New entries enter probation segment, entries accessed again while in probation are promoted into protected
+ * segment (80% of maximumWeight). One-hit wonders are therefore evicted before frequently used entries.
+ *
+ * Reads are lock-free - access only marks the entry and promotion happens lazily on eviction (second chance).
+ * Writes and evictions are serialized by lock
+ *
  * @author martin.vanek
  *
  */
@@ -20,50 +32,165 @@ public class SimpleRequestCache<V extends Serializable> extends RequestCache<V>
 
 	private TtlEvictingThread ttlEvictingThread;
 
-	private Map<String, CacheEntry<V>> storage = new ConcurrentHashMap<String, CacheEntry<V>>();
+	private final TimerWheel<Node<V>> wheel; //guarded by lock - null without evictionInterval
+
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	private volatile int lastTickExpired;
+
+	private final ConcurrentHashMap<String, Node<V>> storage = new ConcurrentHashMap<String, Node<V>>();
+
+	private final long maximumWeight; //0 means unbounded
+
+	private final long protectedMaximum;
+
+	private final Weigher weigher;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Node<V> probation = new Node<V>(null, null, 0); //sentinel - head.next is most recent
+
+	private final Node<V> protect = new Node<V>(null, null, 0); //sentinel
+
+	private long probationWeight; //guarded by lock
+
+	private long protectedWeight; //guarded by lock
+
+	private final AtomicLong evictionCount = new AtomicLong();
 
 	public SimpleRequestCache() {
 		this(0, null);
 	}
 
 	public SimpleRequestCache(int evictionInterval, TimeUnit evictionUnit) {
+		this(evictionInterval, evictionUnit, 0, null);
+	}
+
+	/**
+	 * Bounded cache with default Weigher
+	 */
+	public SimpleRequestCache(long maximumWeight) {
+		this(0, null, maximumWeight, Weigher.DEFAULT);
+	}
+
+	/**
+	 * @param maximumWeight maximal sum of entry weights. 0 means unbounded
+	 * @param weigher computes entry weight. Can be null when unbounded
+	 */
+	public SimpleRequestCache(int evictionInterval, TimeUnit evictionUnit, long maximumWeight, Weigher weigher) {
 		super("SIMPLE");
+		if (maximumWeight < 0) {
+			throw new IllegalArgumentException("maximumWeight " + maximumWeight + " must be >= 0");
+		}
+		if (maximumWeight > 0 && weigher == null) {
+			throw new IllegalArgumentException("null weigher");
+		}
+		this.maximumWeight = maximumWeight;
+		this.protectedMaximum = maximumWeight * 8 / 10;
+		this.weigher = weigher;
+		probation.prev = probation.next = probation;
+		protect.prev = protect.next = protect;
+
 		if (evictionInterval > 0) {
 			ttlEvictingThread = new TtlEvictingThread(evictionInterval, evictionUnit);
+			wheel = new TimerWheel<Node<V>>(ttlEvictingThread.interval, System.currentTimeMillis());
 			ttlEvictingThread.start();
+		} else {
+			wheel = null;
 		}
 	}
 
 	@Override
 	protected CacheEntry<V> doGet(String key) {
-		CacheEntry<V> entry = this.storage.get(key);
-		if (entry == null) {
+		Node<V> node = this.storage.get(key);
+		if (node == null) {
 			return null;
-		} else if (entry.getHardExpire().getTime() < System.currentTimeMillis()) {
+		} else if (node.entry.getHardExpireMillis() < System.currentTimeMillis()) {
 			//silly but true - don't return if it's expired
-			storage.remove(key);
+			remove(key, node);
 			return null;
 		} else {
-			return entry;
+			node.accessed = true;
+			return node.entry;
 		}
 	}
 
 	@Override
 	protected Boolean doSet(String key, CacheEntry<V> entry) {
-		this.storage.put(key, entry);
+		if (maximumWeight == 0 && wheel == null) {
+			this.storage.put(key, new Node<V>(key, entry, 0));
+			return true;
+		}
+		int weight = 0;
+		if (maximumWeight != 0) {
+			weight = weigher.weigh(key, entry.getValue());
+			if (weight > maximumWeight - protectedMaximum) {
+				logger.debug("Entry " + key + " weight " + weight + " exceeds probation segment");
+				remove(key, storage.get(key)); //stale value must not stay
+				return false;
+			}
+		}
+		Node<V> node = new Node<V>(key, entry, weight);
+		lock.lock();
+		try {
+			Node<V> previous = this.storage.put(key, node);
+			if (previous != null) {
+				discard(previous);
+			}
+			if (wheel != null) {
+				wheel.schedule(node, entry.getHardExpireMillis());
+			}
+			if (maximumWeight != 0) {
+				link(probation, node);
+				probationWeight += weight;
+				evict();
+			}
+		} finally {
+			lock.unlock();
+		}
 		return true;
 	}
 
 	@Override
 	public Boolean doRemove(String key) {
-		CacheEntry<V> entry = this.storage.remove(key);
-		return entry != null ? Boolean.TRUE : Boolean.FALSE;
+		Node<V> node = this.storage.get(key);
+		return node != null && remove(key, node) ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	private boolean remove(String key, Node<V> node) {
+		if (node == null) {
+			return false;
+		}
+		if (maximumWeight == 0 && wheel == null) {
+			return storage.remove(key, node);
+		}
+		lock.lock();
+		try {
+			if (storage.remove(key, node)) {
+				discard(node);
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void removeAll() {
 		logger.debug("Cache clear");
-		this.storage.clear();
+		lock.lock();
+		try {
+			this.storage.clear();
+			probation.prev = probation.next = probation;
+			protect.prev = protect.next = protect;
+			probationWeight = protectedWeight = 0;
+			if (wheel != null) {
+				wheel.clear();
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
@@ -75,6 +202,136 @@ public class SimpleRequestCache<V extends Serializable> extends RequestCache<V>
 		}
 	}
 
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return storage.size();
+	}
+
+	/**
+	 * @return 0 when cache is unbounded
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @return sum of entry weights. Always 0 when cache is unbounded
+	 */
+	public long getWeight() {
+		lock.lock();
+		try {
+			return probationWeight + protectedWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of entries evicted because of maximumWeight
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return number of entries removed by background thread after hard ttl
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * @return number of entries removed by last run of background thread
+	 */
+	public int getLastTickExpired() {
+		return lastTickExpired;
+	}
+
+	/**
+	 * Evicts from probation tail until weight fits. Accessed probation entries are promoted instead of being evicted.
+	 * Protected overflow is demoted back to probation. Must hold lock
+	 */
+	private void evict() {
+		while (probationWeight + protectedWeight > maximumWeight) {
+			Node<V> victim = probation.prev;
+			if (victim == probation) {
+				victim = protect.prev; //probation is empty
+			} else if (victim.accessed) {
+				victim.accessed = false;
+				unlink(victim);
+				link(protect, victim);
+				protectedWeight += victim.weight;
+				while (protectedWeight > protectedMaximum) {
+					Node<V> demoted = protect.prev;
+					unlink(demoted);
+					link(probation, demoted);
+					probationWeight += demoted.weight;
+				}
+				continue;
+			}
+			discard(victim);
+			storage.remove(victim.key, victim);
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Unlinks node removed from storage from both LRU and TimerWheel. Must hold lock
+	 */
+	private void discard(Node<V> node) {
+		unlink(node);
+		if (wheel != null) {
+			wheel.cancel(node);
+		}
+	}
+
+	private void link(Node<V> head, Node<V> node) {
+		node.inProtected = head == protect;
+		node.prev = head;
+		node.next = head.next;
+		head.next.prev = node;
+		head.next = node;
+	}
+
+	private void unlink(Node<V> node) {
+		if (node.prev == null) {
+			return; //not linked (unbounded mode)
+		}
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = node.next = null;
+		if (node.inProtected) {
+			protectedWeight -= node.weight;
+		} else {
+			probationWeight -= node.weight;
+		}
+	}
+
+	private static class Node<V extends Serializable> extends TimerWheel.Timer {
+
+		private final String key;
+
+		private final CacheEntry<V> entry;
+
+		private final int weight;
+
+		private volatile boolean accessed;
+
+		private boolean inProtected; //guarded by lock
+
+		private Node<V> prev; //guarded by lock
+
+		private Node<V> next; //guarded by lock
+
+		public Node(String key, CacheEntry<V> entry, int weight) {
+			this.key = key;
+			this.entry = entry;
+			this.weight = weight;
+		}
+	}
+
 	private class TtlEvictingThread extends Thread {
 
 		private final long interval;
@@ -83,8 +340,8 @@ public class SimpleRequestCache<V extends Serializable> extends RequestCache<V>
 
 		public TtlEvictingThread(int interval, TimeUnit unit) {
 			this.interval = unit.toMillis(interval);
-			if (this.interval < 1000) {
-				throw new IllegalArgumentException("Interval " + this.interval + " must be >= 1000 millis");
+			if (this.interval < 10) {
+				throw new IllegalArgumentException("Interval " + this.interval + " must be >= 10 millis");
 			}
 			this.setName(getName() + "-reaper");
 			this.setDaemon(true);
@@ -109,12 +366,24 @@ public class SimpleRequestCache<V extends Serializable> extends RequestCache<V>
 		}
 
 		private void doEviction() {
-			long now = System.currentTimeMillis();
 			try {
-				for (Entry<String, CacheEntry<V>> entry : storage.entrySet()) {
-					if (entry.getValue().getHardExpire().getTime() < now) {
-						storage.remove(entry.getKey());
+				int count = 0;
+				lock.lock();
+				try {
+					List<Node<V>> expired = wheel.advance(System.currentTimeMillis());
+					for (Node<V> node : expired) {
+						if (storage.remove(node.key, node)) {
+							unlink(node);
+							++count;
+						}
 					}
+				} finally {
+					lock.unlock();
+				}
+				lastTickExpired = count;
+				if (count != 0) {
+					expiredCount.addAndGet(count);
+					logger.debug("Expired " + count + " entries");
 				}
 			} catch (Exception x) {
 				logger.warn("Exception during eviction", x);
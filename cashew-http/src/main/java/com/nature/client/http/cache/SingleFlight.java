@@ -0,0 +1,115 @@
+package com.nature.client.http.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nature.client.http.async.SettableFuture;
+
+/**
+ * Coalesces concurrent loads of the same key. First caller (leader) executes the Loader, concurrent callers (followers)
+ * wait for leader's result instead of executing their own request.
+ *
+ * Follower executes Loader by itself when leader does not finish in timeout or when leader's result is null
+ * (not shareable - for example response not allowed to be cached)
+ *
+ * @author martin.vanek
+ *
+ */
+public class SingleFlight<V> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+	private final ConcurrentMap<String, SettableFuture<V>> flights = new ConcurrentHashMap<String, SettableFuture<V>>();
+
+	public static interface Loader<V> {
+
+		public V load() throws IOException;
+	}
+
+	/**
+	 * @param timeoutMillis maximal time follower waits for leader. Zero or negative disables coalescing
+	 */
+	public V execute(String key, Loader<V> loader, long timeoutMillis) throws IOException {
+		if (key == null) {
+			throw new IllegalArgumentException("null key");
+		}
+		if (loader == null) {
+			throw new IllegalArgumentException("null loader");
+		}
+		if (timeoutMillis <= 0) {
+			return loader.load();
+		}
+		SettableFuture<V> flight = new SettableFuture<V>();
+		SettableFuture<V> leader = flights.putIfAbsent(key, flight);
+		if (leader == null) {
+			return lead(key, flight, loader);
+		} else {
+			return follow(key, leader, loader, timeoutMillis);
+		}
+	}
+
+	/**
+	 * @return number of keys being loaded right now
+	 */
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	private V lead(String key, SettableFuture<V> flight, Loader<V> loader) throws IOException {
+		try {
+			V value = loader.load();
+			flight.set(value);
+			return value;
+		} catch (IOException iox) {
+			flight.setException(iox);
+			throw iox;
+		} catch (RuntimeException rx) {
+			flight.setException(rx);
+			throw rx;
+		} catch (Error e) {
+			flight.setException(e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	private V follow(String key, SettableFuture<V> leader, Loader<V> loader, long timeoutMillis) throws IOException {
+		logger.debug("Waiting for in flight request " + key);
+		V value;
+		try {
+			value = leader.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException tx) {
+			logger.debug("In flight request timeout " + key);
+			return loader.load();
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException iiox = new InterruptedIOException("Interrupted while waiting for " + key);
+			iiox.initCause(ix);
+			throw iiox;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("In flight request failed " + key, cause);
+		}
+		if (value == null) {
+			return loader.load();
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight [inFlight=" + flights.size() + "]";
+	}
+}
@@ -3,13 +3,26 @@ package com.nature.client.http.cache;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.transcoders.Transcoder;
+
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.SettableFuture;
 
 /**
  * SpyMemcached implementation
@@ -28,6 +41,10 @@ public class SpyRequestCache<V extends Serializable> extends RequestCache<V> {
 
 	private final long timeout; //memcached timeout in milliseconds
 
+	private Transcoder<CacheEntry<V>> transcoder; //null means client's default
+
+	private Completer completer; //started with first asynchronous operation
+
 	public SpyRequestCache(String name, MemcachedClient client, ConnectionFactory connectionFactory,
 			List<InetSocketAddress> addrs) throws IOException {
 		super(name);
@@ -43,6 +60,9 @@ public class SpyRequestCache<V extends Serializable> extends RequestCache<V> {
 
 	@Override
 	public CacheEntry<V> doGet(String key) throws Exception {
+		if (transcoder != null) {
+			return client.asyncGet(key, transcoder).get(timeout, TimeUnit.MILLISECONDS);
+		}
 		GetFuture<Object> future = client.asyncGet(key);
 		return (CacheEntry<V>) future.get(timeout, TimeUnit.MILLISECONDS);
 	}
@@ -50,10 +70,104 @@ public class SpyRequestCache<V extends Serializable> extends RequestCache<V> {
 	@Override
 	public Boolean doSet(String key, CacheEntry<V> entry) throws Exception {
 		int ttlMillis = (int) entry.getHardTtl();
-		OperationFuture<Boolean> future = client.set(key, ttlMillis, entry);
+		OperationFuture<Boolean> future;
+		if (transcoder != null) {
+			future = client.set(key, ttlMillis, entry, transcoder);
+		} else {
+			future = client.set(key, ttlMillis, entry);
+		}
 		return future.get(timeout, TimeUnit.MILLISECONDS);
 	}
 
+	/**
+	 * Operation is sent and completed by completer thread when memcached replies
+	 */
+	@Override
+	protected ListenableFuture<CacheEntry<V>> doGetAsync(String key) throws Exception {
+		if (transcoder != null) {
+			return complete(client.asyncGet(key, transcoder));
+		}
+		return complete(client.asyncGet(key));
+	}
+
+	/**
+	 * Operation is sent and completed by completer thread when memcached replies
+	 */
+	@Override
+	protected ListenableFuture<Boolean> doSetAsync(String key, CacheEntry<V> entry) throws Exception {
+		int ttlMillis = (int) entry.getHardTtl();
+		if (transcoder != null) {
+			return complete(client.set(key, ttlMillis, entry, transcoder));
+		}
+		return complete(client.set(key, ttlMillis, entry));
+	}
+
+	private <T> ListenableFuture<T> complete(Future<?> operation) {
+		Completer completer;
+		synchronized (this) {
+			if (this.completer == null) {
+				this.completer = new Completer();
+				Thread thread = new Thread(this.completer, "spy-cache-" + getName());
+				thread.setDaemon(true);
+				this.completer.thread = thread;
+				thread.start();
+			}
+			completer = this.completer;
+		}
+		Pending<T> pending = new Pending<T>(operation, System.currentTimeMillis() + timeout);
+		completer.queue.add(pending);
+		return pending.future;
+	}
+
+	/**
+	 * Single round trip using asyncGetBulk
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Map<String, CacheEntry<V>> doGetAll(Collection<String> keys) throws Exception {
+		if (transcoder != null) {
+			BulkFuture<Map<String, CacheEntry<V>>> future = client.asyncGetBulk(keys, transcoder);
+			return new HashMap<String, CacheEntry<V>>(future.get(timeout, TimeUnit.MILLISECONDS));
+		}
+		BulkFuture<Map<String, Object>> future = client.asyncGetBulk(keys);
+		Map<String, Object> values = future.get(timeout, TimeUnit.MILLISECONDS);
+		Map<String, CacheEntry<V>> entries = new HashMap<String, CacheEntry<V>>();
+		for (Entry<String, Object> entry : values.entrySet()) {
+			entries.put(entry.getKey(), (CacheEntry<V>) entry.getValue());
+		}
+		return entries;
+	}
+
+	/**
+	 * All sets are sent before waiting for the first reply
+	 */
+	@Override
+	protected Map<String, Boolean> doSetAll(Map<String, CacheEntry<V>> entries) throws Exception {
+		Map<String, OperationFuture<Boolean>> futures = new HashMap<String, OperationFuture<Boolean>>();
+		for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+			int ttlMillis = (int) entry.getValue().getHardTtl();
+			if (transcoder != null) {
+				futures.put(entry.getKey(), client.set(entry.getKey(), ttlMillis, entry.getValue(), transcoder));
+			} else {
+				futures.put(entry.getKey(), client.set(entry.getKey(), ttlMillis, entry.getValue()));
+			}
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		Map<String, Boolean> result = new HashMap<String, Boolean>();
+		for (Entry<String, OperationFuture<Boolean>> entry : futures.entrySet()) {
+			Boolean stored;
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				stored = entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+			} catch (Exception x) {
+				logger.warn("Failed to set: " + entry.getKey(), x);
+				stored = Boolean.FALSE;
+			}
+			result.put(entry.getKey(), stored);
+		}
+		return result;
+	}
+
 	@Override
 	public Boolean doRemove(String key) throws Exception {
 		OperationFuture<Boolean> future = client.delete(key);
@@ -92,9 +206,27 @@ public class SpyRequestCache<V extends Serializable> extends RequestCache<V> {
 		return getName() + "-" + nsVersion;
 	}
 
+	public Transcoder<CacheEntry<V>> getTranscoder() {
+		return transcoder;
+	}
+
+	/**
+	 * @param transcoder used for cache entries, for example CacheEntryTranscoder. null means client's default
+	 *          (SerializingTranscoder)
+	 */
+	public void setTranscoder(Transcoder<CacheEntry<V>> transcoder) {
+		this.transcoder = transcoder;
+	}
+
 	@Override
 	public void destroy() {
 		client.shutdown();
+		synchronized (this) {
+			if (completer != null) {
+				completer.thread.interrupt();
+				completer = null;
+			}
+		}
 	}
 
 	private boolean doAdd(String key, int exp, Serializable value) throws Exception {
@@ -102,29 +234,60 @@ public class SpyRequestCache<V extends Serializable> extends RequestCache<V> {
 		return future.get(timeout, TimeUnit.MILLISECONDS);
 	}
 
-	//default Transcoder is SerializingTranscoder
-	/*
-	private static class CacheEntryTranscoder implements Transcoder<CacheEntry<CachedResponse>> {
+	/**
+	 * Spymemcached 2.8 futures have no completion listeners, so single daemon thread waits for pending operations and
+	 * completes their ListenableFutures. Replies of single connection arrive in order they were sent, so waiting for
+	 * the oldest operation first rarely delays the others
+	 */
+	private static class Completer implements Runnable {
 
-		@Override
-		public boolean asyncDecode(CachedData d) {
-			return false;
-		}
+		private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<Pending<?>>();
+
+		private Thread thread;
 
 		@Override
-		public CachedData encode(CacheEntry<CachedResponse> o) {
-			return null;
+		public void run() {
+			try {
+				while (true) {
+					queue.take().complete();
+				}
+			} catch (InterruptedException ix) {
+				//destroyed
+			}
+			Pending<?> pending;
+			while ((pending = queue.poll()) != null) {
+				pending.future.setException(new IllegalStateException("Cache destroyed"));
+			}
 		}
+	}
 
-		@Override
-		public CacheEntry<CachedResponse> decode(CachedData d) {
-			return null;
+	private static class Pending<T> {
+
+		private final Future<?> operation;
+
+		private final long deadline;
+
+		private final SettableFuture<T> future = new SettableFuture<T>();
+
+		public Pending(Future<?> operation, long deadline) {
+			this.operation = operation;
+			this.deadline = deadline;
 		}
 
-		@Override
-		public int getMaxSize() {
-			return 0;
+		@SuppressWarnings("unchecked")
+		public void complete() throws InterruptedException {
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				future.set((T) operation.get(remaining, TimeUnit.MILLISECONDS));
+			} catch (InterruptedException ix) {
+				future.setException(ix);
+				throw ix;
+			} catch (ExecutionException ex) {
+				future.setException(ex.getCause());
+			} catch (Exception x) {
+				operation.cancel(false);
+				future.setException(x);
+			}
 		}
 	}
-	*/
 }
@@ -0,0 +1,326 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nature.client.http.async.FutureCallback;
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.SettableFuture;
+
+/**
+ * Two tier (near) cache. Small local cache (SimpleRequestCache) is in front of shared remote cache (SpyRequestCache,
+ * EHRequestCache), so hot keys are served from memory without network round trip.
+ *
+ * Local tier holds remote entries wrapped in CacheEntry with short local ttl. Because other cluster members might
+ * change or remove remote entry meanwhile, local copy can be stale at most for local ttl. Original entry ttls are kept
+ * untouched.
+ *
+ * Writes go through to remote cache by default. When write behind executor is set, remote cache is updated
+ * asynchronously.
+ *
+ * @author martin.vanek
+ *
+ */
+public class TieredRequestCache<V extends Serializable> extends RequestCache<V> {
+
+	private final RequestCache<CacheEntry<V>> local;
+
+	private final RequestCache<V> remote;
+
+	private final long localTtl; //seconds
+
+	private ExecutorService writeBehind;
+
+	private boolean invalidateRemote = true;
+
+	private final AtomicLong localHits = new AtomicLong();
+
+	private final AtomicLong remoteHits = new AtomicLong();
+
+	/**
+	 * @param local small in-process cache
+	 * @param remote shared cache
+	 * @param localTtl how long can be entry served from local cache without consulting remote one. At least 1 second
+	 */
+	public TieredRequestCache(RequestCache<CacheEntry<V>> local, RequestCache<V> remote, long localTtl, TimeUnit unit) {
+		super("TIERED");
+		if (local == null) {
+			throw new IllegalArgumentException("null local");
+		}
+		this.local = local;
+		if (remote == null) {
+			throw new IllegalArgumentException("null remote");
+		}
+		this.remote = remote;
+		this.localTtl = unit.toSeconds(localTtl);
+		if (this.localTtl < 1) {
+			throw new IllegalArgumentException("localTtl " + localTtl + " " + unit + " must be >= 1 second");
+		}
+	}
+
+	@Override
+	protected CacheEntry<V> doGet(String key) throws Exception {
+		CacheEntry<CacheEntry<V>> near = local.get(key);
+		if (near != null && !near.getValue().isHardExpired()) {
+			localHits.incrementAndGet();
+			return near.getValue();
+		}
+		CacheEntry<V> entry = remote.get(key);
+		if (entry != null) {
+			remoteHits.incrementAndGet();
+			setLocal(key, entry);
+		} else if (near != null) {
+			local.remove(key);
+		}
+		return entry;
+	}
+
+	@Override
+	protected Boolean doSet(final String key, final CacheEntry<V> entry) throws Exception {
+		if (writeBehind != null) {
+			setLocal(key, entry);
+			try {
+				writeBehind.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						remote.set(key, entry);
+					}
+				});
+				return true;
+			} catch (RejectedExecutionException rx) {
+				logger.debug("Write behind rejected " + key + ", writing through");
+			}
+		}
+		Boolean stored = remote.set(key, entry);
+		if (stored != null && stored) {
+			setLocal(key, entry);
+		} else {
+			local.remove(key); //don't keep what remote does not have
+		}
+		return stored;
+	}
+
+	/**
+	 * Local hit completes immediately, local miss waits for remote cache without blocking caller
+	 */
+	@Override
+	protected ListenableFuture<CacheEntry<V>> doGetAsync(final String key) throws Exception {
+		final SettableFuture<CacheEntry<V>> result = new SettableFuture<CacheEntry<V>>();
+		final CacheEntry<CacheEntry<V>> near = local.get(key);
+		if (near != null && !near.getValue().isHardExpired()) {
+			localHits.incrementAndGet();
+			result.set(near.getValue());
+			return result;
+		}
+		remote.getAsync(key).addCallback(new FutureCallback<CacheEntry<V>>() {
+
+			@Override
+			public void onSuccess(CacheEntry<V> entry) {
+				if (entry != null) {
+					remoteHits.incrementAndGet();
+					setLocal(key, entry);
+				} else if (near != null) {
+					local.remove(key);
+				}
+				result.set(entry);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				result.setException(failure);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Write behind is asynchronous already. Write through updates local tier when remote set completes
+	 */
+	@Override
+	protected ListenableFuture<Boolean> doSetAsync(final String key, final CacheEntry<V> entry) throws Exception {
+		if (writeBehind != null) {
+			return super.doSetAsync(key, entry);
+		}
+		final SettableFuture<Boolean> result = new SettableFuture<Boolean>();
+		remote.setAsync(key, entry).addCallback(new FutureCallback<Boolean>() {
+
+			@Override
+			public void onSuccess(Boolean stored) {
+				if (stored != null && stored) {
+					setLocal(key, entry);
+				} else {
+					local.remove(key);
+				}
+				result.set(stored);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				local.remove(key);
+				result.setException(failure);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Local misses are looked up in remote cache with single multi-get
+	 */
+	@Override
+	protected Map<String, CacheEntry<V>> doGetAll(Collection<String> keys) throws Exception {
+		Map<String, CacheEntry<CacheEntry<V>>> nears = local.getAll(keys);
+		Map<String, CacheEntry<V>> entries = new HashMap<String, CacheEntry<V>>();
+		List<String> missing = new ArrayList<String>();
+		for (String key : keys) {
+			CacheEntry<CacheEntry<V>> near = nears.get(key);
+			if (near != null && !near.getValue().isHardExpired()) {
+				localHits.incrementAndGet();
+				entries.put(key, near.getValue());
+			} else {
+				missing.add(key);
+			}
+		}
+		if (!missing.isEmpty()) {
+			Map<String, CacheEntry<V>> remotes = remote.getAll(missing);
+			for (Entry<String, CacheEntry<V>> entry : remotes.entrySet()) {
+				remoteHits.incrementAndGet();
+				setLocal(entry.getKey(), entry.getValue());
+				entries.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return entries;
+	}
+
+	@Override
+	protected Map<String, Boolean> doSetAll(Map<String, CacheEntry<V>> entries) throws Exception {
+		if (writeBehind != null) {
+			Map<String, Boolean> result = new HashMap<String, Boolean>();
+			for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+				setLocal(entry.getKey(), entry.getValue());
+				result.put(entry.getKey(), Boolean.TRUE);
+			}
+			final Map<String, CacheEntry<V>> pending = new HashMap<String, CacheEntry<V>>(entries);
+			try {
+				writeBehind.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						remote.setAll(pending);
+					}
+				});
+				return result;
+			} catch (RejectedExecutionException rx) {
+				logger.debug("Write behind rejected " + entries.size() + " entries, writing through");
+			}
+		}
+		Map<String, Boolean> result = remote.setAll(entries);
+		for (Entry<String, CacheEntry<V>> entry : entries.entrySet()) {
+			Boolean stored = result.get(entry.getKey());
+			if (stored != null && stored) {
+				setLocal(entry.getKey(), entry.getValue());
+			} else {
+				local.remove(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private void setLocal(String key, CacheEntry<V> entry) {
+		long remaining = (entry.getHardExpireMillis() - System.currentTimeMillis()) / 1000;
+		long ttl = Math.max(1, Math.min(localTtl, remaining));
+		local.set(key, new CacheEntry<CacheEntry<V>>(entry, ttl, ttl));
+	}
+
+	@Override
+	protected Boolean doRemove(String key) throws Exception {
+		Boolean removed = local.remove(key);
+		if (invalidateRemote) {
+			removed = remote.remove(key);
+		}
+		return removed;
+	}
+
+	@Override
+	public void removeAll() {
+		local.removeAll();
+		if (invalidateRemote) {
+			remote.removeAll();
+		}
+	}
+
+	/**
+	 * Destroys both tiers
+	 */
+	@Override
+	public void destroy() {
+		local.destroy();
+		remote.destroy();
+	}
+
+	public RequestCache<CacheEntry<V>> getLocal() {
+		return local;
+	}
+
+	public RequestCache<V> getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @return seconds
+	 */
+	public long getLocalTtl() {
+		return localTtl;
+	}
+
+	public ExecutorService getWriteBehind() {
+		return writeBehind;
+	}
+
+	/**
+	 * @param writeBehind executor updating remote cache asynchronously. null (default) means write through
+	 */
+	public void setWriteBehind(ExecutorService writeBehind) {
+		this.writeBehind = writeBehind;
+	}
+
+	public boolean isInvalidateRemote() {
+		return invalidateRemote;
+	}
+
+	/**
+	 * @param invalidateRemote whether remove and removeAll are propagated to remote cache (default) or only local copy
+	 *          is dropped
+	 */
+	public void setInvalidateRemote(boolean invalidateRemote) {
+		this.invalidateRemote = invalidateRemote;
+	}
+
+	/**
+	 * @return number of gets served by local cache
+	 */
+	public long getLocalHitCount() {
+		return localHits.get();
+	}
+
+	/**
+	 * @return number of gets served by remote cache
+	 */
+	public long getRemoteHitCount() {
+		return remoteHits.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TieredRequestCache [local=" + local + ", remote=" + remote + ", localTtl=" + localTtl + "]";
+	}
+}
@@ -0,0 +1,178 @@
+package com.nature.client.http.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel. Each of 5 levels has 64 buckets, bucket of level n spans 64^n ticks. Timer is placed into
+ * the lowest level which can tell it's expiry apart from current tick and it is moved into lower level when tick reaches
+ * it's bucket. Scheduling, cancelling and expiring is amortized O(1) per timer.
+ *
+ * Not thread safe - caller must synchronize
+ *
+ * @author martin.vanek
+ *
+ */
+class TimerWheel<T extends TimerWheel.Timer> {
+
+	private static final int BITS = 6;
+
+	private static final int BUCKETS = 1 << BITS;
+
+	private static final int LEVELS = 5;
+
+	/**
+	 * Element of bucket doubly linked list. Extended by scheduled object to avoid extra allocation
+	 */
+	static class Timer {
+
+		private long expireTick;
+
+		private Timer prev;
+
+		private Timer next;
+	}
+
+	private final long tickMillis;
+
+	private final Timer[][] wheel = new Timer[LEVELS][BUCKETS]; //sentinels
+
+	private long currentTick; //last processed tick
+
+	private int size;
+
+	/**
+	 * @param tickMillis timer granularity
+	 * @param nowMillis current time
+	 */
+	public TimerWheel(long tickMillis, long nowMillis) {
+		if (tickMillis < 1) {
+			throw new IllegalArgumentException("tickMillis " + tickMillis + " must be > 0");
+		}
+		this.tickMillis = tickMillis;
+		this.currentTick = nowMillis / tickMillis;
+		for (Timer[] level : wheel) {
+			for (int i = 0; i < BUCKETS; ++i) {
+				Timer sentinel = new Timer();
+				sentinel.prev = sentinel.next = sentinel;
+				level[i] = sentinel;
+			}
+		}
+	}
+
+	/**
+	 * Schedules timer or reschedules already scheduled one. Timer never expires before expireMillis
+	 */
+	public void schedule(T scheduled, long expireMillis) {
+		Timer timer = scheduled;
+		cancel(scheduled);
+		timer.expireTick = (expireMillis + tickMillis - 1) / tickMillis;
+		++size;
+		place(timer, null);
+	}
+
+	/**
+	 * Removes timer if it is scheduled
+	 */
+	public void cancel(T cancelled) {
+		Timer timer = cancelled;
+		if (timer.prev != null) {
+			unlink(timer);
+			--size;
+		}
+	}
+
+	/**
+	 * Moves wheel to current time
+	 *
+	 * @return timers expired since last advance
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> advance(long nowMillis) {
+		long nowTick = nowMillis / tickMillis;
+		if (size == 0) {
+			currentTick = Math.max(currentTick, nowTick);
+			return Collections.emptyList();
+		}
+		List<Timer> expired = new ArrayList<Timer>();
+		while (currentTick < nowTick && size != 0) {
+			long tick = ++currentTick;
+			//cascade from top, so timers can fall through more levels in one tick
+			for (int level = LEVELS - 1; level > 0; --level) {
+				if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+					Timer sentinel = wheel[level][(int) (tick >>> (BITS * level)) & (BUCKETS - 1)];
+					drain(sentinel, expired);
+				}
+			}
+			drain(wheel[0][(int) tick & (BUCKETS - 1)], expired);
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return (List<T>) expired;
+	}
+
+	/**
+	 * Removes all timers
+	 */
+	public void clear() {
+		for (Timer[] level : wheel) {
+			for (Timer sentinel : level) {
+				while (sentinel.next != sentinel) {
+					unlink(sentinel.next);
+				}
+			}
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return number of scheduled timers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Places all timers of the bucket again, expired are moved into expired list
+	 */
+	private void drain(Timer sentinel, List<Timer> expired) {
+		Timer timer = sentinel.next;
+		sentinel.prev = sentinel.next = sentinel;
+		while (timer != sentinel) {
+			Timer next = timer.next;
+			timer.prev = timer.next = null;
+			place(timer, expired);
+			timer = next;
+		}
+	}
+
+	/**
+	 * @param expired null when timer must not expire in current tick (it was already processed)
+	 */
+	private void place(Timer timer, List<Timer> expired) {
+		long expireTick = timer.expireTick;
+		if (expireTick <= currentTick) {
+			if (expired != null) {
+				--size;
+				expired.add(timer);
+				return;
+			}
+			expireTick = currentTick + 1;
+		}
+		int level = 0;
+		while (level < LEVELS - 1 && (expireTick >>> (BITS * (level + 1))) != (currentTick >>> (BITS * (level + 1)))) {
+			++level;
+		}
+		Timer sentinel = wheel[level][(int) (expireTick >>> (BITS * level)) & (BUCKETS - 1)];
+		timer.prev = sentinel.prev;
+		timer.next = sentinel;
+		sentinel.prev.next = timer;
+		sentinel.prev = timer;
+	}
+
+	private void unlink(Timer timer) {
+		timer.prev.next = timer.next;
+		timer.next.prev = timer.prev;
+		timer.prev = timer.next = null;
+	}
+}
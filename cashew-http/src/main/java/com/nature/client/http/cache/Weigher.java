@@ -0,0 +1,47 @@
+package com.nature.client.http.cache;
+
+import java.io.Serializable;
+
+/**
+ * Estimates how many bytes of memory cached value occupies. Used by caches with bounded size
+ *
+ * @author martin.vanek
+ *
+ */
+public interface Weigher {
+
+	/**
+	 * @return approximate size in bytes. Must be positive
+	 */
+	public int weigh(String key, Serializable value);
+
+	/**
+	 * CachedResponse body and headers, String and byte[] values are weighted by their length, other values get fixed
+	 * weight. Nested CacheEntry (TieredRequestCache local tier) is weighted by it's value
+	 */
+	public static final Weigher DEFAULT = new Weigher() {
+
+		private static final int ENTRY_OVERHEAD = 128; //map node, CacheEntry, Dates
+
+		private static final int UNKNOWN_VALUE = 256;
+
+		@Override
+		public int weigh(String key, Serializable value) {
+			int weight = ENTRY_OVERHEAD + key.length() * 2;
+			if (value instanceof CacheEntry) {
+				weight += ENTRY_OVERHEAD;
+				value = ((CacheEntry<?>) value).getValue();
+			}
+			if (value instanceof CachedResponse) {
+				weight += ((CachedResponse) value).getWeight();
+			} else if (value instanceof String) {
+				weight += ((String) value).length() * 2;
+			} else if (value instanceof byte[]) {
+				weight += ((byte[]) value).length;
+			} else {
+				weight += UNKNOWN_VALUE;
+			}
+			return weight;
+		}
+	};
+}
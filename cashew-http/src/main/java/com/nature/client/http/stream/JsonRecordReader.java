@@ -0,0 +1,230 @@
+package com.nature.client.http.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal JSON tokenizer walking to array on path and returning it's elements as raw JSON text.
+ * Values outside of path are skipped without being kept in memory
+ *
+ * @author martin.vanek
+ *
+ */
+public class JsonRecordReader extends RecordReader {
+
+	private static final int START = 0;
+	private static final int ARRAY = 1;
+	private static final int END = 2;
+
+	private final String[] path;
+
+	private final char[] buffer = new char[8192];
+
+	private int position;
+
+	private int limit;
+
+	private int state = START;
+
+	private int count;
+
+	public JsonRecordReader(Reader reader, String path) {
+		this(reader, path, null);
+	}
+
+	JsonRecordReader(Reader reader, String path, Closeable resource) {
+		super(reader, resource);
+		this.path = (path == null || path.length() == 0) ? new String[0] : path.split("\\.");
+	}
+
+	@Override
+	public String next() throws IOException {
+		if (state == START) {
+			state = navigate() ? ARRAY : END;
+		}
+		if (state == END) {
+			return null;
+		}
+		char c = skipWhitespace();
+		if (c == ']') {
+			state = END;
+			return null;
+		}
+		if (count != 0) {
+			if (c != ',') {
+				throw error("Expected , or ] but got " + c);
+			}
+			c = skipWhitespace();
+		}
+		--position; //unread
+		StringBuilder record = new StringBuilder(256);
+		scanValue(record);
+		++count;
+		return record.toString();
+	}
+
+	/**
+	 * @return true when positioned inside of target array
+	 */
+	private boolean navigate() throws IOException {
+		for (String segment : path) {
+			if (skipWhitespace() != '{') {
+				throw error("Expected object for " + segment);
+			}
+			boolean found = false;
+			char c = skipWhitespace();
+			while (c != '}') {
+				if (c == ',') {
+					c = skipWhitespace();
+				}
+				if (c != '"') {
+					throw error("Expected object key but got " + c);
+				}
+				String key = readString();
+				if (skipWhitespace() != ':') {
+					throw error("Expected : after " + key);
+				}
+				if (key.equals(segment)) {
+					found = true;
+					break;
+				}
+				scanValue(null);
+				c = skipWhitespace();
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		char c = skipWhitespace();
+		if (c == 'n') {
+			return false; //null instead of array
+		} else if (c != '[') {
+			throw error("Expected array but got " + c);
+		}
+		return true;
+	}
+
+	/**
+	 * Scans complete value. Copies it into output unless it is null
+	 */
+	private void scanValue(StringBuilder output) throws IOException {
+		char c = skipWhitespace();
+		if (c == '{' || c == '[') {
+			int depth = 0;
+			while (true) {
+				if (output != null) {
+					output.append(c);
+				}
+				if (c == '"') {
+					scanString(output);
+				} else if (c == '{' || c == '[') {
+					++depth;
+				} else if (c == '}' || c == ']') {
+					if (--depth == 0) {
+						return;
+					}
+				}
+				c = read();
+			}
+		} else if (c == '"') {
+			if (output != null) {
+				output.append(c);
+			}
+			scanString(output);
+		} else {
+			//number, true, false, null
+			while (c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+				if (output != null) {
+					output.append(c);
+				}
+				c = read();
+			}
+			--position; //unread delimiter
+		}
+	}
+
+	/**
+	 * Scans rest of string after opening quote including closing quote
+	 */
+	private void scanString(StringBuilder output) throws IOException {
+		boolean escaped = false;
+		while (true) {
+			char c = read();
+			if (output != null) {
+				output.append(c);
+			}
+			if (escaped) {
+				escaped = false;
+			} else if (c == '\\') {
+				escaped = true;
+			} else if (c == '"') {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads rest of string after opening quote and unescapes it
+	 */
+	private String readString() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			char c = read();
+			if (c == '"') {
+				return sb.toString();
+			} else if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					char[] hex = { read(), read(), read(), read() };
+					sb.append((char) Integer.parseInt(new String(hex), 16));
+					break;
+				default:
+					sb.append(c); // " \ /
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	private char skipWhitespace() throws IOException {
+		char c;
+		do {
+			c = read();
+		} while (Character.isWhitespace(c));
+		return c;
+	}
+
+	private char read() throws IOException {
+		if (position == limit) {
+			limit = getReader().read(buffer, 0, buffer.length);
+			if (limit == -1) {
+				limit = 0;
+				throw error("Unexpected end of JSON");
+			}
+			position = 0; //unread after read is always possible
+		}
+		return buffer[position++];
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " at record " + count);
+	}
+}
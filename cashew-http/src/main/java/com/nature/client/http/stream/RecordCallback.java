@@ -0,0 +1,17 @@
+package com.nature.client.http.stream;
+
+import java.io.IOException;
+
+/**
+ * Receives records as they are read from response
+ * 
+ * @author martin.vanek
+ *
+ */
+public interface RecordCallback {
+
+	/**
+	 * @return false to stop reading
+	 */
+	public boolean onRecord(String record) throws IOException;
+}
@@ -0,0 +1,80 @@
+package com.nature.client.http.stream;
+
+import java.io.IOException;
+
+import com.nature.client.http.ResponseExtractor;
+import com.nature.client.http.SenderResponse;
+
+/**
+ * Push style streaming extractor. Records are handed to callback while response is still being read. Extracted value
+ * is number of records processed
+ * 
+ * @author martin.vanek
+ *
+ */
+public class RecordExtractor implements ResponseExtractor<Integer> {
+
+	public static enum Format {
+		JSON, XML;
+	}
+
+	/**
+	 * @param path dot separated object keys leading to array of records. Empty path for top level array
+	 */
+	public static RecordExtractor json(String path, RecordCallback callback) {
+		return new RecordExtractor(Format.JSON, path, callback);
+	}
+
+	/**
+	 * @param path slash separated element names from root element to record element - feed/entry
+	 */
+	public static RecordExtractor xml(String path, RecordCallback callback) {
+		return new RecordExtractor(Format.XML, path, callback);
+	}
+
+	private final Format format;
+
+	private final String path;
+
+	private final RecordCallback callback;
+
+	public RecordExtractor(Format format, String path, RecordCallback callback) {
+		if (format == null) {
+			throw new IllegalArgumentException("null format");
+		}
+		if (callback == null) {
+			throw new IllegalArgumentException("null callback");
+		}
+		this.format = format;
+		this.path = path;
+		this.callback = callback;
+	}
+
+	@Override
+	public Integer extract(SenderResponse response) throws IOException {
+		RecordReader reader;
+		if (format == Format.JSON) {
+			reader = new JsonRecordReader(response.getReader(), path);
+		} else {
+			reader = new XmlRecordReader(response.getReader(), path);
+		}
+		int count = 0;
+		try {
+			String record;
+			while ((record = reader.next()) != null) {
+				++count;
+				if (!callback.onRecord(record)) {
+					break;
+				}
+			}
+		} finally {
+			reader.close(); //response is closed by sender
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "RecordExtractor [" + format + " " + path + "]";
+	}
+}
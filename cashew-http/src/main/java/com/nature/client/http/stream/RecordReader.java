@@ -0,0 +1,102 @@
+package com.nature.client.http.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.nature.client.http.Cutils;
+import com.nature.client.http.SenderResponse;
+
+/**
+ * Pull reader of records from streamed response body. Only single record is held in memory at any time.
+ * 
+ * Closing reader closes underlying response too
+ * 
+ * @author martin.vanek
+ *
+ */
+public abstract class RecordReader implements Closeable, Iterable<String> {
+
+	/**
+	 * @param path dot separated object keys leading to array of records. Empty path for top level array
+	 */
+	public static RecordReader json(SenderResponse response, String path) {
+		return new JsonRecordReader(response.getReader(), path, response);
+	}
+
+	/**
+	 * @param path slash separated element names from root element to record element - feed/entry
+	 */
+	public static RecordReader xml(SenderResponse response, String path) throws IOException {
+		return new XmlRecordReader(response.getReader(), path, response);
+	}
+
+	private final Reader reader;
+
+	private final Closeable resource;
+
+	protected RecordReader(Reader reader, Closeable resource) {
+		if (reader == null) {
+			throw new IllegalArgumentException("null reader");
+		}
+		this.reader = reader;
+		this.resource = resource;
+	}
+
+	protected Reader getReader() {
+		return reader;
+	}
+
+	/**
+	 * @return next record as raw text or null when there is no more
+	 */
+	public abstract String next() throws IOException;
+
+	@Override
+	public void close() {
+		Cutils.close(reader);
+		if (resource != null) {
+			Cutils.close(resource);
+		}
+	}
+
+	/**
+	 * Iterator wraps IOException into IllegalStateException
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private String next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = RecordReader.this.next();
+					} catch (IOException iox) {
+						throw new IllegalStateException("Failed to read record", iox);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String record = next;
+				next = null;
+				return record;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,122 @@
+package com.nature.client.http.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.LinkedList;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * StAX based reader returning elements on path as XML fragments. Only one record is held in memory at once
+ *
+ * @author martin.vanek
+ *
+ */
+public class XmlRecordReader extends RecordReader {
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	static {
+		//no external entities from remote content
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private final String[] path;
+
+	private final XMLEventReader events;
+
+	private final LinkedList<String> elements = new LinkedList<String>();
+
+	public XmlRecordReader(Reader reader, String path) throws IOException {
+		this(reader, path, null);
+	}
+
+	XmlRecordReader(Reader reader, String path, Closeable resource) throws IOException {
+		super(reader, resource);
+		if (path == null || path.length() == 0) {
+			throw new IllegalArgumentException("Blank path");
+		}
+		this.path = path.split("/");
+		try {
+			this.events = inputFactory.createXMLEventReader(reader);
+		} catch (XMLStreamException xsx) {
+			throw new IOException(xsx.getMessage(), xsx);
+		}
+	}
+
+	@Override
+	public String next() throws IOException {
+		try {
+			while (events.hasNext()) {
+				XMLEvent event = events.nextEvent();
+				if (event.isStartElement()) {
+					elements.addLast(event.asStartElement().getName().getLocalPart());
+					if (isOnPath()) {
+						String record = copy(event);
+						elements.removeLast();
+						return record;
+					}
+				} else if (event.isEndElement()) {
+					elements.removeLast();
+				}
+			}
+			return null;
+		} catch (XMLStreamException xsx) {
+			throw new IOException(xsx.getMessage(), xsx);
+		}
+	}
+
+	private boolean isOnPath() {
+		if (elements.size() != path.length) {
+			return false;
+		}
+		int i = 0;
+		for (String element : elements) {
+			if (!element.equals(path[i++])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies start element and it's whole subtree
+	 */
+	private String copy(XMLEvent start) throws XMLStreamException {
+		StringWriter output = new StringWriter(256);
+		XMLEventWriter writer = outputFactory.createXMLEventWriter(output);
+		writer.add(start);
+		int depth = 1;
+		while (depth != 0) {
+			XMLEvent event = events.nextEvent();
+			if (event.isStartElement()) {
+				++depth;
+			} else if (event.isEndElement()) {
+				--depth;
+			}
+			writer.add(event);
+		}
+		writer.close();
+		return output.toString();
+	}
+
+	@Override
+	public void close() {
+		try {
+			events.close();
+		} catch (XMLStreamException xsx) {
+			//ignore
+		}
+		super.close();
+	}
+}
@@ -0,0 +1,233 @@
+package com.nature.client.http;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.nature.client.http.ResponseExtractor.ExtractedResponse;
+import com.nature.client.http.async.ExecutorServiceBuilder;
+import com.nature.client.http.async.FutureCallback;
+import com.nature.client.http.async.ListenableFuture;
+import com.nature.client.http.async.ThreadPerTaskExecutor;
+
+/**
+ *
+ * @author martin.vanek
+ *
+ */
+public class AsyncTest {
+
+	private JokerServer server = new JokerServer();
+
+	private ExecutorService executor;
+
+	@BeforeClass
+	public void setup() throws Exception {
+		this.server.start();
+		this.executor = new ExecutorServiceBuilder().setCorePoolSize(0).setMaximumPoolSize(5).setMaximumQueueSize(0)
+				.build();
+	}
+
+	@AfterClass
+	public void destroy() throws Exception {
+		this.executor.shutdown();
+		this.server.stop();
+	}
+
+	@Test
+	public void callbacks() throws Exception {
+		String url = "localhost:" + server.getHttpPort();
+		callbacks(new HttpClient4Config(url).buildSender());
+		callbacks(new HttpClient3Config(url).buildSender());
+		callbacks(new SimpleHttpSender(url));
+		callbacks(new NioHttpConfig(url).buildSender());
+	}
+
+	private void callbacks(HttpSender sender) throws Exception {
+		sender.setExecutor(executor);
+		final CountDownLatch latch = new CountDownLatch(2);
+		final AtomicReference<Object> success = new AtomicReference<Object>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		ListenableFuture<ExtractedResponse<String>> future1 = sender.startAsync(new GetRequest(), ResponseExtractor.STRING);
+		future1.addCallback(new FutureCallback<ExtractedResponse<String>>() {
+
+			@Override
+			public void onSuccess(ExtractedResponse<String> result) {
+				success.set(result);
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable x) {
+				latch.countDown();
+			}
+		});
+
+		ListenableFuture<ExtractedResponse<String>> future2 = sender.startAsync(
+				new GetRequest().addParameter("sleep", 1), ResponseExtractor.STRING);
+		future2.cancel(true);
+		//callback added after completion is executed immediately
+		future2.addCallback(new FutureCallback<ExtractedResponse<String>>() {
+
+			@Override
+			public void onSuccess(ExtractedResponse<String> result) {
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable x) {
+				failure.set(x);
+				latch.countDown();
+			}
+		});
+
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		ExtractedResponse<String> extracted = future1.get();
+		assertThat(success.get()).isSameAs(extracted);
+		assertThat(extracted.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+		assertThat(failure.get()).isInstanceOf(CancellationException.class);
+		sender.close();
+	}
+
+	@Test
+	public void abortOnCancel() throws Exception {
+		String url = "localhost:" + server.getHttpPort();
+		HttpClient4Config config = new HttpClient4Config(url);
+		config.setReadTimeout(10 * 1000);
+		config.setPoolMaximum(1);
+		HttpSender sender = config.buildSender();
+		sender.setExecutor(executor);
+
+		Future<SenderResponse> future = sender.start(new GetRequest().addParameter("sleep", 5));
+		Thread.sleep(300); //let the request be sent
+		future.cancel(true);
+		try {
+			future.get();
+			Assert.fail("Previous statement must throw CancellationException");
+		} catch (CancellationException cx) {
+			//expected
+		}
+		//aborted request must release the only pooled connection quickly
+		long started = System.currentTimeMillis();
+		SenderResponse response = sender.execute(new GetRequest());
+		assertThat(response.getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+		assertThat(System.currentTimeMillis() - started).isLessThan(2000);
+		response.close();
+		sender.close();
+	}
+
+	@Test
+	public void virtualThreads() throws Exception {
+		ThreadPerTaskExecutor executor = (ThreadPerTaskExecutor) new ExecutorServiceBuilder().setVirtualThreads(true)
+				.setMaximumInFlight(3).build();
+		HttpClient4Config config = new HttpClient4Config("localhost:" + server.getHttpPort());
+		config.setPoolMaximum(3);
+		HttpSender sender = config.buildSender();
+		sender.setExecutor(executor);
+		//more tasks than maximumInFlight - submitter is rejected instead of blocked
+		final CountDownLatch latch = new CountDownLatch(1);
+		Runnable blocking = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					latch.await();
+				} catch (InterruptedException ix) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		for (int i = 0; i < 3; ++i) {
+			executor.execute(blocking);
+		}
+		assertThat(executor.getActiveCount()).isEqualTo(3);
+		try {
+			sender.start(new GetRequest(), ResponseExtractor.STRING).get(5, TimeUnit.SECONDS);
+			Assert.fail("Previous statement must throw ExecutionException");
+		} catch (ExecutionException eex) {
+			assertThat(eex.getCause()).isInstanceOf(RejectedExecutionException.class);
+		}
+		latch.countDown();
+		while (executor.getActiveCount() != 0) {
+			Thread.sleep(10);
+		}
+		for (int i = 0; i < 20; ++i) {
+			Future<ExtractedResponse<String>> future = sender.start(new GetRequest().addParameter("i", i),
+					ResponseExtractor.STRING);
+			assertThat(future.get(5, TimeUnit.SECONDS).getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+			assertThat(executor.getActiveCount()).isLessThanOrEqualTo(3);
+		}
+		sender.close();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void bulk() throws Exception {
+		HttpClient4Config config = new HttpClient4Config("localhost:" + server.getHttpPort());
+		config.setPoolMaximum(2);
+		config.setReadTimeout(1000);
+		HttpSender sender = config.buildSender();
+		sender.setExecutor(executor);
+		bulk(sender);
+		sender.close();
+
+		NioHttpConfig nconfig = new NioHttpConfig("localhost:" + server.getHttpPort());
+		nconfig.setPoolMaximum(2);
+		nconfig.setReadTimeout(1000);
+		sender = nconfig.buildSender(); //no executor required
+		bulk(sender);
+		sender.close();
+	}
+
+	private void bulk(HttpSender sender) throws Exception {
+		int[] statuses = { 200, 201, 202, 203, 400, 404, 500, 200, 201, 202 };
+		List<SenderRequest> requests = new ArrayList<SenderRequest>();
+		for (int status : statuses) {
+			requests.add(new GetRequest().addParameter("dostatus", status));
+		}
+		requests.add(5, new GetRequest().addParameter("sleep", 2)); //read timeout
+
+		List<Future<ExtractedResponse<String>>> extracted = sender.extractAll(requests, ResponseExtractor.STRING, 10);
+		assertThat(extracted).hasSize(11);
+		for (int i = 0; i < extracted.size(); ++i) {
+			Future<ExtractedResponse<String>> future = extracted.get(i);
+			assertThat(future.isDone()).isTrue();
+			if (i == 5) {
+				try {
+					future.get();
+					Assert.fail("Previous statement must throw ExecutionException");
+				} catch (ExecutionException ex) {
+					assertThat(ex.getCause()).isInstanceOf(SocketTimeoutException.class);
+				}
+			} else {
+				int status = statuses[i < 5 ? i : i - 1];
+				assertThat(future.get().getResponse().getCode()).isEqualTo(status);
+			}
+		}
+
+		List<Future<SenderResponse>> executed = sender.executeAll(requests.subList(0, 5), 10);
+		for (int i = 0; i < executed.size(); ++i) {
+			SenderResponse response = executed.get(i).get();
+			assertThat(response.getCode()).isEqualTo(statuses[i]);
+			assertThat(HttpHeaderUtil.readAsString(response)).startsWith("<h1>Dostatus " + statuses[i]);
+		}
+	}
+}
@@ -2,34 +2,70 @@ package com.nature.client.http;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Signature;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CopyStrategyConfiguration;
 import net.spy.memcached.AddrUtil;
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.transcoders.SerializingTranscoder;
 
 import org.apache.commons.codec.binary.Base64;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.nature.client.http.HttpSender.Multival;
 import com.nature.client.http.ResponseExtractor.ExtractedResponse;
 import com.nature.client.http.cache.CacheEntry;
+import com.nature.client.http.cache.CacheEntryCodec;
+import com.nature.client.http.cache.CacheEntryCopyStrategy;
+import com.nature.client.http.cache.CacheEntryTranscoder;
 import com.nature.client.http.cache.CachedResponse;
+import com.nature.client.http.cache.CachingRequest;
 import com.nature.client.http.cache.CachingSender;
+import com.nature.client.http.cache.CompressedResponse;
+import com.nature.client.http.cache.CompressingRequestCache;
+import com.nature.client.http.cache.Compressor;
 import com.nature.client.http.cache.EHRequestCache;
+import com.nature.client.http.cache.MappedRequestCache;
+import com.nature.client.http.cache.OffHeapRequestCache;
+import com.nature.client.http.cache.OffHeapResponse;
+import com.nature.client.http.cache.RefreshAheadScheduler;
+import com.nature.client.http.cache.RefreshRegistry;
+import com.nature.client.http.cache.RefreshRegistry.Refresh;
 import com.nature.client.http.cache.RequestCache;
 import com.nature.client.http.cache.SimpleRequestCache;
 import com.nature.client.http.cache.SpyRequestCache;
+import com.nature.client.http.cache.TieredRequestCache;
+import com.nature.client.http.cache.Weigher;
 import com.thimbleware.jmemcached.CacheImpl;
 import com.thimbleware.jmemcached.Key;
 import com.thimbleware.jmemcached.LocalCacheElement;
@@ -140,6 +176,348 @@ public class CachingTest {
 		testCache(cache);
 	}
 
+	@Test
+	public void testOffHeapCache() throws Exception {
+		testCache(new OffHeapRequestCache<CachedResponse>(1024 * 1024));
+
+		//4 slabs of 64 KB
+		OffHeapRequestCache<Serializable> cache = new OffHeapRequestCache<Serializable>(256 * 1024, 64 * 1024);
+		Multival headers = new Multival(true);
+		headers.add("Content-Type", "text/plain; charset=utf-8");
+		headers.add("ETag", "abc");
+		byte[] body = new byte[10 * 1024];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) i;
+		}
+		cache.set("binary", new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 5, "etag",
+				new Date(1000)));
+		cache.set("string", new CacheEntry<Serializable>(new CachedResponse(201, null, headers, "Příliš žluťoučký kůň"),
+				10, 10));
+		cache.set("extracted", new CacheEntry<Serializable>(new Date(1234), 10, 10));
+
+		CacheEntry<Serializable> entry = cache.get("binary");
+		assertThat(entry.getServerTag()).isEqualTo("etag");
+		assertThat(entry.getServerDate()).isEqualTo(new Date(1000));
+		assertThat(entry.getSoftTtl()).isEqualTo(5);
+		OffHeapResponse response = (OffHeapResponse) entry.getValue();
+		assertThat(response.getCode()).isEqualTo(200);
+		assertThat(response.getHeaders()).isEqualTo(headers);
+		assertThat(response.getAsBytes()).isEqualTo(body);
+		assertThat(HttpHeaderUtil.readAsBytes(response)).isEqualTo(body);
+
+		response = (OffHeapResponse) cache.get("string").getValue();
+		assertThat(response.getCode()).isEqualTo(201);
+		assertThat(response.getMessage()).isNull();
+		assertThat(response.getAsString()).isEqualTo("Příliš žluťoučký kůň");
+		assertThat(HttpHeaderUtil.readAsString(response)).isEqualTo("Příliš žluťoučký kůň");
+		assertThat(cache.get("extracted").getValue()).isEqualTo(new Date(1234));
+
+		//serialized as heap CachedResponse
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(response);
+		oos.close();
+		Object deserialized = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertThat(deserialized.getClass() == CachedResponse.class).isTrue();
+		assertThat(((CachedResponse) deserialized).getAsString()).isEqualTo("Příliš žluťoučký kůň");
+
+		//overwriting the same keys makes slabs sparse - compaction keeps live entries
+		CachedResponse held = (CachedResponse) cache.get("binary").getValue();
+		for (int i = 0; i < 100; ++i) {
+			cache.set("binary", new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 10));
+		}
+		assertThat(cache.getCompactionCount()).isGreaterThan(0);
+		assertThat(cache.getEvictionCount()).isEqualTo(0);
+		assertThat(cache.get("string")).isNotNull();
+		assertThat(cache.get("extracted")).isNotNull();
+		assertThat(held.getAsBytes()).isEqualTo(body); //still valid
+
+		//unique keys evict oldest slabs
+		for (int i = 0; i < 100; ++i) {
+			cache.set("key" + i, new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 10));
+		}
+		assertThat(cache.getEvictionCount()).isGreaterThan(0);
+		assertThat(cache.get("key0")).isNull();
+		assertThat(((CachedResponse) cache.get("key99").getValue()).getAsBytes()).isEqualTo(body);
+		assertThat(cache.getLiveBytes()).isLessThanOrEqualTo(cache.getCapacity());
+		assertThat(held.getAsBytes()).isEqualTo(body); //still valid
+
+		//slabs are reused once responses handed out from them are unreachable
+		held = null;
+		for (int round = 0; round < 10 && cache.getRecycledCount() == 0; ++round) {
+			System.gc();
+			for (int i = 0; i < 20; ++i) {
+				cache.set("key" + i, new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 10));
+			}
+		}
+		assertThat(cache.getRecycledCount()).isGreaterThan(0);
+		assertThat(((CachedResponse) cache.get("key19").getValue()).getAsBytes()).isEqualTo(body);
+
+		//too big for slab
+		assertThat(cache.set("huge", new CacheEntry<Serializable>(new byte[100 * 1024], 10, 10))).isFalse();
+		cache.destroy();
+	}
+
+	@Test
+	public void testMappedCache() throws Exception {
+		File directory = File.createTempFile("cashew", "cache");
+		directory.delete();
+		testCache(new MappedRequestCache<CachedResponse>(directory, 1024 * 1024, 256 * 1024));
+
+		MappedRequestCache<Serializable> cache = new MappedRequestCache<Serializable>(directory, 256 * 1024, 64 * 1024);
+		cache.removeAll();
+		Multival headers = new Multival(true);
+		headers.add("Content-Type", "text/plain; charset=utf-8");
+		byte[] body = new byte[10 * 1024];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) i;
+		}
+		long now = System.currentTimeMillis();
+		cache.set("binary", new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 5, "etag",
+				new Date(1000)));
+		cache.set("string", new CacheEntry<Serializable>(new CachedResponse(201, null, headers, "Příliš žluťoučký kůň"),
+				10, 10));
+		cache.set("extracted", new CacheEntry<Serializable>(new Date(1234), 10, 10));
+		cache.set("removed", new CacheEntry<Serializable>(new Date(1234), 10, 10));
+		cache.remove("removed");
+		cache.set("replaced", new CacheEntry<Serializable>("first", 10, 10));
+		cache.set("replaced", new CacheEntry<Serializable>("second", 10, 10));
+		cache.set("expired", new CacheEntry<Serializable>("old", new Date(now - 20000), 10, 10, null, null));
+		cache.set("torn", new CacheEntry<Serializable>("torn value", 10, 10));
+		cache.destroy();
+
+		//corrupt last record as if write was interrupted by crash
+		File[] segments = directory.listFiles();
+		assertThat(segments).hasSize(1);
+		RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+		byte[] content = new byte[(int) raf.length()];
+		raf.readFully(content);
+		int torn = new String(content, "ISO-8859-1").lastIndexOf("torn value");
+		raf.seek(torn);
+		raf.write('X');
+		raf.close();
+
+		//reopen - as after restart
+		cache = new MappedRequestCache<Serializable>(directory, 256 * 1024, 64 * 1024);
+		assertThat(cache.size()).isEqualTo(4);
+		CacheEntry<Serializable> entry = cache.get("binary");
+		assertThat(entry.getServerTag()).isEqualTo("etag");
+		assertThat(entry.getServerDate()).isEqualTo(new Date(1000));
+		assertThat(entry.getHardTtl()).isEqualTo(10);
+		assertThat(entry.getSoftTtl()).isEqualTo(5);
+		assertThat(entry.getSinceDate().getTime()).isGreaterThanOrEqualTo(now);
+		OffHeapResponse response = (OffHeapResponse) entry.getValue();
+		assertThat(response.getHeaders()).isEqualTo(headers);
+		assertThat(response.getAsBytes()).isEqualTo(body);
+		assertThat(((CachedResponse) cache.get("string").getValue()).getAsString()).isEqualTo("Příliš žluťoučký kůň");
+		assertThat(cache.get("extracted").getValue()).isEqualTo(new Date(1234));
+		assertThat(cache.get("replaced").getValue()).isEqualTo("second");
+		assertThat(cache.get("removed")).isNull();
+		assertThat(cache.get("expired")).isNull();
+		assertThat(cache.get("torn")).isNull();
+
+		//log continues after recovered records
+		cache.set("after", new CacheEntry<Serializable>("after crash", 10, 10));
+		cache.destroy();
+		cache = new MappedRequestCache<Serializable>(directory, 256 * 1024, 64 * 1024);
+		assertThat(cache.get("after").getValue()).isEqualTo("after crash");
+		assertThat(cache.get("binary")).isNotNull();
+
+		//overwriting makes segments sparse, unique keys evict oldest segments
+		for (int i = 0; i < 100; ++i) {
+			cache.set("binary", new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 10));
+		}
+		assertThat(cache.getCompactionCount()).isGreaterThan(0);
+		assertThat(cache.get("after")).isNotNull();
+		for (int i = 0; i < 100; ++i) {
+			cache.set("key" + i, new CacheEntry<Serializable>(new CachedResponse(200, "OK", headers, body), 10, 10));
+		}
+		assertThat(cache.getEvictionCount()).isGreaterThan(0);
+		assertThat(cache.get("key0")).isNull();
+		assertThat(directory.listFiles().length).isLessThanOrEqualTo(4);
+		cache.destroy();
+
+		cache = new MappedRequestCache<Serializable>(directory, 256 * 1024, 64 * 1024);
+		assertThat(((CachedResponse) cache.get("key99").getValue()).getAsBytes()).isEqualTo(body);
+		cache.removeAll();
+		assertThat(directory.listFiles()).isEmpty();
+		directory.delete();
+	}
+
+	@Test
+	public void testCompressingCache() throws Exception {
+		testCache(new CompressingRequestCache<CachedResponse>(new SimpleRequestCache<CachedResponse>(), 0,
+				Compressor.DEFLATE));
+
+		SimpleRequestCache<CachedResponse> simple = new SimpleRequestCache<CachedResponse>(1024 * 1024);
+		CompressingRequestCache<CachedResponse> cache = new CompressingRequestCache<CachedResponse>(simple);
+		Multival headers = new Multival(true);
+		headers.add("Content-Type", "application/json; charset=utf-8");
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 200; ++i) {
+			sb.append("{\"id\":").append(i).append(",\"name\":\"Příliš žluťoučký kůň\",\"active\":true},");
+		}
+		String json = sb.append("]").toString();
+		cache.set("json", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", headers, json), 10, 5, "etag",
+				null));
+		cache.set("small", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", headers, "{}"), 10, 5));
+		byte[] binary = json.getBytes("utf-8");
+		cache.set("binary", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", headers, binary), 10, 5));
+
+		CacheEntry<CachedResponse> entry = cache.get("json");
+		assertThat(entry.getServerTag()).isEqualTo("etag");
+		assertThat(entry.getSoftTtl()).isEqualTo(5);
+		CompressedResponse response = (CompressedResponse) entry.getValue();
+		assertThat(response.getCompressedLength()).isLessThan(response.getLength() / 5);
+		assertThat(response.getAsString()).isEqualTo(json);
+		assertThat(HttpHeaderUtil.readAsString(response)).isEqualTo(json);
+		//inflater is ended at the end of data, stream stays usable
+		InputStream stream = response.getStream();
+		byte[] buffer = new byte[4096];
+		int total = 0;
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			total += read;
+		}
+		assertThat(total).isEqualTo(response.getLength());
+		assertThat(stream.read()).isEqualTo(-1);
+		assertThat(stream.available()).isEqualTo(0);
+		stream.close();
+		assertThat(HttpHeaderUtil.readAsBytes(cache.get("binary").getValue())).isEqualTo(binary);
+		assertThat(cache.get("small").getValue().getClass() == CachedResponse.class).isTrue();
+		assertThat(cache.getCompressedCount()).isEqualTo(2);
+		assertThat(simple.getWeight()).isLessThan(binary.length);
+
+		//through binary codec of off-heap cache
+		CompressingRequestCache<CachedResponse> offheap = new CompressingRequestCache<CachedResponse>(
+				new OffHeapRequestCache<CachedResponse>(1024 * 1024), 1024, Compressor.DEFLATE);
+		offheap.set("json", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", headers, json), 10, 5));
+		assertThat(offheap.get("json").getValue().getAsString()).isEqualTo(json);
+		offheap.destroy();
+	}
+
+	@Test
+	public void testTieredCache() throws Exception {
+		testCache(new TieredRequestCache<CachedResponse>(new SimpleRequestCache<CacheEntry<CachedResponse>>(1024 * 1024),
+				new SimpleRequestCache<CachedResponse>(), 1, TimeUnit.SECONDS));
+
+		SimpleRequestCache<CacheEntry<String>> local = new SimpleRequestCache<CacheEntry<String>>(1024 * 1024);
+		SimpleRequestCache<String> remote = new SimpleRequestCache<String>();
+		TieredRequestCache<String> cache = new TieredRequestCache<String>(local, remote, 1, TimeUnit.SECONDS);
+		cache.set("key", new CacheEntry<String>("value", 10, 5, "etag", null));
+		assertThat(remote.get("key").getValue()).isEqualTo("value");
+		CacheEntry<String> entry = cache.get("key");
+		assertThat(entry.getValue()).isEqualTo("value");
+		assertThat(entry.getServerTag()).isEqualTo("etag");
+		assertThat(entry.getHardTtl()).isEqualTo(10); //original ttls
+		assertThat(entry.getSoftTtl()).isEqualTo(5);
+		assertThat(cache.getLocalHitCount()).isEqualTo(1);
+
+		//changed by other cluster member - local copy is served until local ttl passes
+		remote.set("key", new CacheEntry<String>("changed", 10, 5));
+		assertThat(cache.get("key").getValue()).isEqualTo("value");
+		Thread.sleep(2100);
+		assertThat(cache.get("key").getValue()).isEqualTo("changed");
+		assertThat(cache.getRemoteHitCount()).isEqualTo(1);
+		assertThat(cache.get("key").getValue()).isEqualTo("changed");
+		assertThat(cache.getLocalHitCount()).isEqualTo(3);
+
+		//local only invalidation
+		cache.setInvalidateRemote(false);
+		cache.remove("key");
+		assertThat(local.get("key")).isNull();
+		assertThat(remote.get("key")).isNotNull();
+		cache.setInvalidateRemote(true);
+		cache.remove("key");
+		assertThat(remote.get("key")).isNull();
+		assertThat(cache.get("key")).isNull();
+
+		//write behind
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		cache.setWriteBehind(executor);
+		cache.set("behind", new CacheEntry<String>("value", 10, 5));
+		assertThat(local.get("behind")).isNotNull();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.SECONDS);
+		assertThat(remote.get("behind").getValue()).isEqualTo("value");
+		cache.destroy();
+	}
+
+	@Test
+	public void testExpiringSimpleCache() throws Exception {
+		testCache(new SimpleRequestCache<CachedResponse>(50, TimeUnit.MILLISECONDS));
+
+		SimpleRequestCache<String> cache = new SimpleRequestCache<String>(50, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 1000; ++i) {
+			cache.set("short" + i, new CacheEntry<String>("value", 1, 1));
+		}
+		for (int i = 0; i < 100; ++i) {
+			cache.set("long" + i, new CacheEntry<String>("value", 100000, 100000)); //higher wheel level
+		}
+		cache.set("replaced", new CacheEntry<String>("value", 1, 1));
+		cache.set("replaced", new CacheEntry<String>("value", 60, 60));
+		cache.set("removed", new CacheEntry<String>("value", 1, 1));
+		cache.remove("removed");
+		assertThat(cache.size()).isEqualTo(1101);
+
+		Thread.sleep(500);
+		assertThat(cache.size()).isEqualTo(1101); //never before hard ttl
+		Thread.sleep(800);
+		assertThat(cache.size()).isEqualTo(101);
+		assertThat(cache.getExpiredCount()).isEqualTo(1000);
+		assertThat(cache.get("replaced")).isNotNull();
+
+		//bounded and expiring together
+		SimpleRequestCache<String> bounded = new SimpleRequestCache<String>(50, TimeUnit.MILLISECONDS, 100 * 1024,
+				Weigher.DEFAULT);
+		for (int i = 0; i < 100; ++i) {
+			bounded.set("key" + i, new CacheEntry<String>("value", 1, 1));
+		}
+		assertThat(bounded.getWeight()).isGreaterThan(0);
+		Thread.sleep(1300);
+		assertThat(bounded.size()).isEqualTo(0);
+		assertThat(bounded.getWeight()).isEqualTo(0);
+		cache.destroy();
+		bounded.destroy();
+	}
+
+	@Test
+	public void testBoundedSimpleCache() throws Exception {
+		testCache(new SimpleRequestCache<CachedResponse>(1024 * 1024));
+
+		long maximumWeight = 100 * 1024;
+		SimpleRequestCache<CachedResponse> cache = new SimpleRequestCache<CachedResponse>(maximumWeight);
+		String body = new String(new char[500]); //~1 KB with headers and overhead
+		//hot entries are accessed repeatedly
+		for (int i = 0; i < 10; ++i) {
+			cache.set("hot" + i, new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, body), 10, 10));
+			cache.get("hot" + i);
+		}
+		//burst of one-hit wonders
+		for (int i = 0; i < 1000; ++i) {
+			cache.set("cold" + i, new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, body), 10, 10));
+			if (i % 10 == 0) {
+				for (int h = 0; h < 10; ++h) {
+					assertThat(cache.get("hot" + h)).isNotNull();
+				}
+			}
+			assertThat(cache.getWeight()).isLessThanOrEqualTo(maximumWeight);
+		}
+		assertThat(cache.getEvictionCount()).isGreaterThan(900);
+		assertThat(cache.size()).isLessThan(100);
+		assertThat(cache.get("cold0")).isNull();
+
+		//too big for cache
+		String huge = new String(new char[50 * 1024]);
+		assertThat(cache.set("huge", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, huge), 10, 10)))
+				.isFalse();
+		assertThat(cache.get("huge")).isNull();
+
+		cache.removeAll();
+		assertThat(cache.size()).isEqualTo(0);
+		assertThat(cache.getWeight()).isEqualTo(0);
+	}
+
 	@Test
 	public void testEhCache() throws Exception {
 		RequestCache<CachedResponse> cache;
@@ -155,6 +533,213 @@ public class CachingTest {
 		testCache(cache);
 	}
 
+	@Test
+	public void testCacheEntryCodec() throws Exception {
+		CacheEntry<CachedResponse> entry = newCodecEntry();
+		byte[] bytes = CacheEntryCodec.toBytes(entry);
+		CacheEntry<CachedResponse> decoded = CacheEntryCodec.fromBytes(bytes);
+		assertThat(decoded.getSinceDate()).isEqualTo(entry.getSinceDate());
+		assertThat(decoded.getHardTtl()).isEqualTo(10);
+		assertThat(decoded.getSoftTtl()).isEqualTo(5);
+		assertThat(decoded.getServerTag()).isEqualTo("etag");
+		assertThat(decoded.getServerDate()).isEqualTo(new Date(1000));
+		assertThat(decoded.getValue().getClass() == CachedResponse.class).isTrue();
+		assertThat(decoded.getValue().getHeaders()).isEqualTo(entry.getValue().getHeaders());
+		assertThat(decoded.getValue().getAsString()).isEqualTo(entry.getValue().getAsString());
+		assertThat(bytes.length).isLessThan(javaSerialize(entry).length);
+
+		//memcached transcoder reads also entries written by default SerializingTranscoder
+		CacheEntryTranscoder<CachedResponse> transcoder = new CacheEntryTranscoder<CachedResponse>();
+		CachedData data = transcoder.encode(entry);
+		assertThat(data.getFlags()).isEqualTo(CacheEntryTranscoder.FLAGS);
+		assertThat(transcoder.decode(data).getValue().getAsString()).isEqualTo(entry.getValue().getAsString());
+		data = new SerializingTranscoder().encode(entry);
+		assertThat(transcoder.decode(data).getServerTag()).isEqualTo("etag");
+
+		SpyRequestCache<CachedResponse> memcache = buildMemcache();
+		memcache.setTranscoder(transcoder);
+		testCache(memcache);
+
+		//ehcache copy strategy
+		buildEhCache();
+		CopyStrategyConfiguration copyStrategy = new CopyStrategyConfiguration();
+		copyStrategy.setClass(CacheEntryCopyStrategy.class.getName());
+		CacheConfiguration configuration = new CacheConfiguration("EHCodec", 5000).copyOnRead(true).copyOnWrite(true);
+		configuration.addCopyStrategy(copyStrategy);
+		ehCacheManager.addCache(new Cache(configuration));
+		EHRequestCache<CachedResponse> ehcache = new EHRequestCache<CachedResponse>("EHCodec",
+				ehCacheManager.getCache("EHCodec"));
+		testCache(ehcache);
+		ehcache.set("key", entry);
+		CacheEntry<CachedResponse> copy = ehcache.get("key");
+		assertThat(copy).isNotSameAs(entry);
+		assertThat(copy.getValue().getAsString()).isEqualTo(entry.getValue().getAsString());
+	}
+
+	/**
+	 * Compares CacheEntryCodec with java serialization. Run manually
+	 */
+	//@Test
+	public void benchmarkCacheEntryCodec() throws Exception {
+		CacheEntry<CachedResponse> entry = newCodecEntry();
+		int loops = 100000;
+		for (int round = 0; round < 3; ++round) { //first rounds are warmup
+			long started = System.nanoTime();
+			byte[] bytes = null;
+			for (int i = 0; i < loops; ++i) {
+				bytes = javaSerialize(entry);
+			}
+			long encode = System.nanoTime() - started;
+			started = System.nanoTime();
+			for (int i = 0; i < loops; ++i) {
+				new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+			}
+			long decode = System.nanoTime() - started;
+			System.out.println("java serialization " + bytes.length + " bytes, encode " + (encode / loops)
+					+ " ns/op, decode " + (decode / loops) + " ns/op");
+
+			started = System.nanoTime();
+			for (int i = 0; i < loops; ++i) {
+				bytes = CacheEntryCodec.toBytes(entry);
+			}
+			encode = System.nanoTime() - started;
+			started = System.nanoTime();
+			for (int i = 0; i < loops; ++i) {
+				CacheEntryCodec.fromBytes(bytes);
+			}
+			decode = System.nanoTime() - started;
+			System.out.println("CacheEntryCodec " + bytes.length + " bytes, encode " + (encode / loops) + " ns/op, decode "
+					+ (decode / loops) + " ns/op");
+		}
+	}
+
+	private CacheEntry<CachedResponse> newCodecEntry() {
+		Multival headers = new Multival(true);
+		headers.add("Content-Type", "application/json; charset=utf-8");
+		headers.add("Cache-Control", "max-age=60");
+		headers.add("ETag", "\"abc\"");
+		headers.add("Set-Cookie", "a=1");
+		headers.add("Set-Cookie", "b=2");
+		CachedResponse response = new CachedResponse(200, "OK", headers, "{\"name\":\"Příliš žluťoučký kůň\"}");
+		return new CacheEntry<CachedResponse>(response, 10, 5, "etag", new Date(1000));
+	}
+
+	private byte[] javaSerialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(object);
+		oos.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testExecuteAll() throws Exception {
+		CachingSender csender = newCachedSender();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		csender.getSender().setExecutor(executor);
+		int requestCount = server.getRequestCount();
+		List<CachingRequest> requests = new ArrayList<CachingRequest>();
+		for (int i = 0; i < 6; ++i) {
+			requests.add(new CachingRequest(new GetRequest().addParameter("batch", i), 5, TimeUnit.SECONDS));
+		}
+		List<Future<SenderResponse>> first = csender.executeAll(requests, 4);
+		assertThat(first).hasSize(6);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 6);
+
+		//3 hits and 3 misses
+		for (int i = 6; i < 9; ++i) {
+			requests.add(new CachingRequest(new GetRequest().addParameter("batch", i), 5, TimeUnit.SECONDS));
+		}
+		requests = requests.subList(3, 9);
+		List<Future<SenderResponse>> second = csender.executeAll(requests, 4);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 9);
+		for (int i = 0; i < 3; ++i) {
+			assertThat(second.get(i).get()).isSameAs(first.get(i + 3).get());
+		}
+		for (int i = 3; i < 6; ++i) {
+			assertThat(second.get(i).get().getCode()).isEqualTo(200);
+			String key = csender.getSender().getCacheKey(requests.get(i).getRequest());
+			assertThat(second.get(i).get()).isSameAs(csender.getCache().get(key).getValue());
+		}
+
+		//multi-get/set of other caches
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 3; ++i) {
+			keys.add("bulk" + i);
+		}
+		Map<String, CacheEntry<CachedResponse>> entries = new HashMap<String, CacheEntry<CachedResponse>>();
+		entries.put("bulk0", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, "zero"), 5, 5));
+		entries.put("bulk2", new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, "two"), 5, 5));
+		List<RequestCache<CachedResponse>> caches = new ArrayList<RequestCache<CachedResponse>>();
+		caches.add(buildMemcache());
+		caches.add(buildEhCache());
+		caches.add(new TieredRequestCache<CachedResponse>(new SimpleRequestCache<CacheEntry<CachedResponse>>(),
+				new SimpleRequestCache<CachedResponse>(), 1, TimeUnit.SECONDS));
+		for (RequestCache<CachedResponse> cache : caches) {
+			assertThat(cache.setAll(entries).values()).containsOnly(Boolean.TRUE);
+			Map<String, CacheEntry<CachedResponse>> found = cache.getAll(keys);
+			assertThat(found).hasSize(2);
+			assertThat(found.get("bulk0").getValue().getAsString()).isEqualTo("zero");
+			assertThat(found.get("bulk2").getValue().getAsString()).isEqualTo("two");
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void testExecuteAllNio() throws Exception {
+		//NioHttpSender bulk responses are not CachedResponse
+		NioHttpSender sender = new NioHttpSender(new NioHttpConfig("localhost:" + server.getHttpPort()));
+		CachingSender csender = new CachingSender(sender, new SimpleRequestCache<CachedResponse>());
+		int requestCount = server.getRequestCount();
+		List<CachingRequest> requests = new ArrayList<CachingRequest>();
+		for (int i = 0; i < 3; ++i) {
+			requests.add(new CachingRequest(new GetRequest().addParameter("nio", i), 5, TimeUnit.SECONDS));
+		}
+		List<Future<SenderResponse>> first = csender.executeAll(requests, 2);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 3);
+		for (Future<SenderResponse> future : first) {
+			assertThat(future.get()).isInstanceOf(CachedResponse.class);
+			assertThat(future.get().getCode()).isEqualTo(200);
+		}
+		List<Future<SenderResponse>> second = csender.executeAll(requests, 2);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 3);
+		for (int i = 0; i < 3; ++i) {
+			assertThat(second.get(i).get()).isSameAs(first.get(i).get());
+		}
+		sender.close();
+	}
+
+	@Test
+	public void testExecuteAsync() throws Exception {
+		CachingSender csender = newCachedSender();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		csender.setExecutor(executor);
+		int requestCount = server.getRequestCount();
+		CachingRequest request = new CachingRequest(new GetRequest().addParameter("async", 1), 5, TimeUnit.SECONDS);
+		SenderResponse miss = csender.executeAsync(request).get(5, TimeUnit.SECONDS);
+		assertThat(miss.getCode()).isEqualTo(200);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 1);
+		SenderResponse hit = csender.executeAsync(request).get(5, TimeUnit.SECONDS);
+		assertThat(hit).isSameAs(miss);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 1);
+		executor.shutdown();
+
+		//native asynchronous memcached operations
+		SpyRequestCache<CachedResponse> cache = buildMemcache();
+		CacheEntry<CachedResponse> entry = new CacheEntry<CachedResponse>(new CachedResponse(200, "OK", null, "async"), 5,
+				5);
+		assertThat(cache.setAsync("async", entry).get(5, TimeUnit.SECONDS)).isTrue();
+		CacheEntry<CachedResponse> found = cache.getAsync("async").get(5, TimeUnit.SECONDS);
+		assertThat(found.getValue().getAsString()).isEqualTo("async");
+		assertThat(cache.getAsync("async-missing").get(5, TimeUnit.SECONDS)).isNull();
+
+		cache.setTranscoder(new CacheEntryTranscoder<CachedResponse>());
+		assertThat(cache.setAsync("async", entry).get(5, TimeUnit.SECONDS)).isTrue();
+		found = cache.getAsync("async").get(5, TimeUnit.SECONDS);
+		assertThat(found.getValue().getAsString()).isEqualTo("async");
+		cache.destroy();
+	}
+
 	@Test
 	public void testHttpCaching() throws Exception {
 		CachingSender csender = newCachedSender();
@@ -229,6 +814,113 @@ public class CachingTest {
 		csender.close();
 	}
 
+	@Test
+	public void testCoalescing() throws Exception {
+		final CachingSender csender = newCachedSender();
+		final int requestCount = server.getRequestCount();
+		//server response takes 1 second - all concurrent misses wait for the first one
+		final CachingRequest request = new CachingRequest(new GetRequest().addParameter("sleep", 1), 5, TimeUnit.SECONDS);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<SenderResponse>> futures = new ArrayList<Future<SenderResponse>>();
+		for (int i = 0; i < 8; ++i) {
+			futures.add(executor.submit(new Callable<SenderResponse>() {
+
+				@Override
+				public SenderResponse call() throws Exception {
+					return csender.execute(request);
+				}
+			}));
+		}
+		SenderResponse first = futures.get(0).get();
+		for (Future<SenderResponse> future : futures) {
+			assertThat(future.get()).isSameAs(first);
+		}
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 1);
+
+		//coalescing disabled - every caller sends own request
+		csender.setCoalescingTimeout(0, TimeUnit.SECONDS);
+		final CachingRequest request2 = new CachingRequest(new GetRequest().addParameter("sleep", 1).addParameter("x", 2),
+				5, TimeUnit.SECONDS);
+		futures.clear();
+		for (int i = 0; i < 4; ++i) {
+			futures.add(executor.submit(new Callable<SenderResponse>() {
+
+				@Override
+				public SenderResponse call() throws Exception {
+					return csender.execute(request2);
+				}
+			}));
+		}
+		for (Future<SenderResponse> future : futures) {
+			future.get();
+		}
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 5);
+		executor.shutdown();
+		csender.close();
+	}
+
+	@Test
+	public void testRefreshAhead() throws Exception {
+		CachingSender csender = newCachedSender();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		RefreshAheadScheduler scheduler = new RefreshAheadScheduler(executor, 100, TimeUnit.MILLISECONDS, 2);
+		scheduler.setMinimumHits(1); //every access counts
+		csender.setRefreshAhead(scheduler);
+
+		CachingRequest request = new CachingRequest(new GetRequest().addParameter("refresh", "ahead"), 3, 1,
+				TimeUnit.SECONDS);
+		String cacheKey = csender.getSender().getCacheKey(request.getRequest());
+		final int requestCount = server.getRequestCount();
+		SenderResponse first = csender.execute(request);
+		//popular entry is refreshed before soft expiry - callers never see stale value
+		for (int i = 0; i < 25; ++i) {
+			Thread.sleep(100);
+			assertThat(csender.getCache().get(cacheKey).isSoftExpired()).isFalse();
+			csender.execute(request);
+		}
+		assertThat(scheduler.getRefreshCount()).isGreaterThanOrEqualTo(2);
+		assertThat(server.getRequestCount()).isEqualTo(requestCount + 1 + (int) scheduler.getRefreshCount());
+		assertThat(csender.execute(request)).isNotSameAs(first);
+
+		//cold entry is forgotten
+		Thread.sleep(500);
+		assertThat(scheduler.getTrackedCount()).isEqualTo(0);
+
+		scheduler.close();
+		executor.shutdown();
+		csender.close();
+	}
+
+	@Test
+	public void testRefreshRegistry() throws Exception {
+		RefreshRegistry registry = new RefreshRegistry(2, 200, TimeUnit.MILLISECONDS);
+		Refresh refresh1 = registry.claim("k1", "r1");
+		assertThat(refresh1).isNotNull();
+		assertThat(registry.claim("k1", "r1")).isNull(); //already claimed
+		assertThat(registry.isRefreshing("k1")).isTrue();
+
+		Refresh refresh2 = registry.claim("k2", "r2");
+		assertThat(refresh2).isNotNull();
+		assertThat(registry.claim("k3", "r3")).isNull(); //maximum in flight reached
+		assertThat(registry.getInFlight()).isEqualTo(2);
+		assertThat(registry.getRefreshing()).hasSize(2);
+
+		registry.release(refresh2);
+		assertThat(registry.isRefreshing("k2")).isFalse();
+		assertThat(registry.claim("k3", "r3")).isNotNull();
+
+		Thread.sleep(300);
+		//timed out claim is taken over and stale release does not remove new one
+		assertThat(registry.isRefreshing("k1")).isFalse();
+		Refresh refresh1b = registry.claim("k1", "r1");
+		assertThat(refresh1b).isNotNull();
+		registry.release(refresh1);
+		assertThat(registry.getRefreshing()).contains(refresh1b);
+		assertThat(registry.getInFlight()).isEqualTo(2);
+		registry.release(refresh1b);
+		assertThat(registry.getInFlight()).isEqualTo(1);
+	}
+
 	private void testCache(RequestCache<CachedResponse> cache) throws InterruptedException {
 		CachedResponse response = new CachedResponse(200, "Choroso", null, new Date().toString());
 		String cacheKey = String.valueOf(System.currentTimeMillis());
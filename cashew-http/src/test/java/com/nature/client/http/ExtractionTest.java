@@ -4,6 +4,8 @@ import static org.fest.assertions.api.Assertions.assertThat;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -16,6 +18,9 @@ import com.nature.client.http.async.ExecutorServiceBuilder;
 import com.nature.client.http.cache.CachingExtractor;
 import com.nature.client.http.cache.CachingExtractorRequest;
 import com.nature.client.http.cache.SimpleRequestCache;
+import com.nature.client.http.stream.RecordCallback;
+import com.nature.client.http.stream.RecordExtractor;
+import com.nature.client.http.stream.RecordReader;
 
 /**
  * 
@@ -172,6 +177,52 @@ public class ExtractionTest {
 		assertThat(extract4).isNotEqualTo(extract3);
 	}
 
+	@Test
+	public void streamingExtraction() throws Exception {
+		JokerServer server = new JokerServer().start();
+		HttpSender sender = new HttpClient4Config("localhost:" + server.getHttpPort()).buildSender();
+
+		StringBuilder json = new StringBuilder("{\"meta\": {\"items\": [1, 2]}, \"skip\": \"a\\\"]\", \"data\": {\"items\": [");
+		StringBuilder xml = new StringBuilder("<feed><title>items</title>");
+		for (int i = 0; i < 5000; ++i) {
+			json.append(i == 0 ? "" : ",").append("{\"id\": ").append(i).append(", \"tags\": [\"x\", \"]{\"]}");
+			xml.append("<entry id=\"").append(i).append("\"><tag>x</tag></entry>");
+		}
+		json.append("]}}");
+		xml.append("</feed>");
+
+		//push
+		final List<String> records = new ArrayList<String>();
+		PostRequest request = new PostRequest();
+		request.addParameter("doecho", 1);
+		request.setBodyString(json.toString(), "application/json");
+		int count = sender.extract(request, RecordExtractor.json("data.items", new RecordCallback() {
+
+			@Override
+			public boolean onRecord(String record) {
+				records.add(record);
+				return true;
+			}
+		})).getExtracted();
+		assertThat(count).isEqualTo(5000);
+		assertThat(records.get(0)).isEqualTo("{\"id\": 0, \"tags\": [\"x\", \"]{\"]}");
+		assertThat(records.get(4999)).isEqualTo("{\"id\": 4999, \"tags\": [\"x\", \"]{\"]}");
+
+		//pull
+		request.setBodyString(xml.toString(), "text/xml");
+		RecordReader reader = RecordReader.xml(sender.execute(request), "feed/entry");
+		count = 0;
+		for (String record : reader) {
+			assertThat(record).isEqualTo("<entry id=\"" + count + "\"><tag>x</tag></entry>");
+			++count;
+		}
+		reader.close();
+		assertThat(count).isEqualTo(5000);
+
+		sender.close();
+		server.stop();
+	}
+
 	private CachingExtractor newExtractorSender(int port) {
 		String url = "http://localhost:" + port;
 		HttpSender sender = new SimpleHttpSender(url);
@@ -1,6 +1,8 @@
 package com.nature.client.http;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
@@ -174,6 +176,39 @@ public class JokerServer {
 				}
 			}
 
+			String doecho = request.getParameter("doecho");
+			if (doecho != null) {
+				//request body back
+				response.setContentType(request.getContentType());
+				InputStream input = request.getInputStream();
+				OutputStream output = response.getOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = input.read(buffer)) != -1) {
+					output.write(buffer, 0, read);
+				}
+				((Request) request).setHandled(true);
+				return;
+			}
+
+			String dosize = request.getParameter("dosize");
+			if (dosize != null) {
+				//binary content of requested size
+				int size = Integer.parseInt(dosize);
+				response.setContentType("application/octet-stream");
+				response.setContentLength(size);
+				byte[] buffer = new byte[8192];
+				for (int i = 0; i < buffer.length; ++i) {
+					buffer[i] = (byte) i;
+				}
+				OutputStream output = response.getOutputStream();
+				for (int written = 0; written < size; written += buffer.length) {
+					output.write(buffer, 0, Math.min(buffer.length, size - written));
+				}
+				((Request) request).setHandled(true);
+				return;
+			}
+
 			//request.getHeader("Content-Type");
 
 			String pstatus = request.getParameter("dostatus");
@@ -0,0 +1,140 @@
+package com.nature.client.http;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.nature.client.http.ResponseExtractor.ExtractedResponse;
+import com.nature.client.http.cache.CachedResponse;
+import com.nature.client.http.cache.CachingSender;
+import com.nature.client.http.cache.SimpleRequestCache;
+
+/**
+ *
+ * @author martin.vanek
+ *
+ */
+public class NioSenderTest {
+
+	private JokerServer server = new JokerServer();
+
+	@BeforeClass
+	public void setup() throws Exception {
+		this.server.start();
+	}
+
+	@AfterClass
+	public void destroy() throws Exception {
+		this.server.stop();
+	}
+
+	private NioHttpSender newSender(int poolMaximum) {
+		NioHttpConfig config = new NioHttpConfig("localhost:" + server.getHttpPort());
+		config.setPoolMaximum(poolMaximum);
+		config.setReadTimeout(2000);
+		return new NioHttpSender(config);
+	}
+
+	@Test
+	public void execute() throws Exception {
+		NioHttpSender sender = newSender(1);
+
+		ExtractedResponse<String> extract1 = sender.extract(new GetRequest("/nio").addParameter("x", "y"));
+		assertThat(extract1.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+		assertThat(extract1.getExtracted()).startsWith("<h1>Hello");
+
+		PostRequest post = new PostRequest("/nio");
+		post.setBodyString("some body", "text/plain");
+		ExtractedResponse<String> extract2 = sender.extract(post);
+		assertThat(extract2.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+
+		SenderResponse response = sender.execute(new GetRequest().addParameter("dostatus", 500));
+		assertThat(response.getCode()).isEqualTo(HttpURLConnection.HTTP_INTERNAL_ERROR);
+		assertThat(HttpHeaderUtil.readAsString(response)).startsWith("<h1>Dostatus 500");
+		response.close();
+
+		sender.close();
+	}
+
+	@Test
+	public void asynchronous() throws Exception {
+		NioHttpSender sender = newSender(2);
+		//no executor needed
+		List<Future<ExtractedResponse<String>>> futures = new ArrayList<Future<ExtractedResponse<String>>>();
+		for (int i = 0; i < 20; ++i) {
+			futures.add(sender.start(new GetRequest().addParameter("i", i), ResponseExtractor.STRING));
+		}
+		for (Future<ExtractedResponse<String>> future : futures) {
+			ExtractedResponse<String> extracted = future.get(5, TimeUnit.SECONDS);
+			assertThat(extracted.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+			assertThat(extracted.getExtracted()).startsWith("<h1>Hello");
+		}
+
+		Future<SenderResponse> future = sender.start(new GetRequest().addParameter("sleep", 3));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Previous statement must throw ExecutionException");
+		} catch (ExecutionException ex) {
+			assertThat(ex.getCause()).isInstanceOf(SocketTimeoutException.class);
+		}
+		sender.close();
+
+		//closed sender fails returned future instead of throwing
+		future = sender.start(new GetRequest());
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Previous statement must throw ExecutionException");
+		} catch (ExecutionException ex) {
+			assertThat(ex.getCause()).isInstanceOf(IOException.class);
+		}
+	}
+
+	@Test
+	public void pipelining() throws Exception {
+		NioHttpConfig config = new NioHttpConfig("localhost:" + server.getHttpPort());
+		config.setPoolMaximum(1);
+		config.setPipelineDepth(8);
+		NioHttpSender sender = new NioHttpSender(config);
+		//pipelining starts on proven persistent connection
+		assertThat(sender.execute(new GetRequest()).getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+
+		int[] statuses = { 200, 201, 202, 203, 400, 404, 500 };
+		List<Future<SenderResponse>> futures = new ArrayList<Future<SenderResponse>>();
+		for (int i = 0; i < 30; ++i) {
+			futures.add(sender.start(new GetRequest().addParameter("dostatus", statuses[i % statuses.length])));
+		}
+		//responses must be matched to requests
+		for (int i = 0; i < futures.size(); ++i) {
+			SenderResponse response = futures.get(i).get(5, TimeUnit.SECONDS);
+			int status = statuses[i % statuses.length];
+			assertThat(response.getCode()).isEqualTo(status);
+			assertThat(HttpHeaderUtil.readAsString(response)).startsWith("<h1>Dostatus " + status);
+		}
+		sender.close();
+	}
+
+	@Test
+	public void caching() throws Exception {
+		NioHttpSender sender = newSender(1);
+		CachingSender csender = new CachingSender(sender, new SimpleRequestCache<CachedResponse>());
+		GetRequest request = new GetRequest();
+		request.addParameter("docache", 1);
+
+		SenderResponse response1 = csender.execute(request);
+		SenderResponse response2 = csender.execute(request);
+		assertThat(response2).isSameAs(response1);
+		csender.close();
+	}
+}
@@ -3,11 +3,20 @@ package com.nature.client.http;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
 
 import org.fest.assertions.api.Fail;
 import org.testng.annotations.Test;
@@ -213,4 +222,182 @@ public class SimpleTest {
 		}
 	}
 
+	@Test
+	public void percentEncoding() throws Exception {
+		String[] samples = { "", "abc", "a b+c", "~!@#$%^&*()_+-=[]{}|;':\",./<>?", "Příliš žluťoučký kůň",
+				"\u00e9\u4e2d\ud83d\ude00", "lone \ud83d surrogate", "\ude00", "\t\r\n\u007f\u0080" };
+		String[] charsets = { "UTF-8", "ISO-8859-1", "windows-1250", "UTF-16" };
+		for (String charset : charsets) {
+			for (String sample : samples) {
+				assertThat(PercentEncoder.encode(sample, Charset.forName(charset))).isEqualTo(
+						URLEncoder.encode(sample, charset));
+			}
+		}
+	}
+
+	@Test
+	public void httpDates() throws Exception {
+		long epoch = 784111777000L; //Sun, 06 Nov 1994 08:49:37 GMT
+		assertThat(HttpDateUtil.parseEpoch("Sun, 06 Nov 1994 08:49:37 GMT", 0)).isEqualTo(epoch);
+		assertThat(HttpDateUtil.parseEpoch("Sunday, 06-Nov-94 08:49:37 GMT", 0)).isEqualTo(epoch);
+		assertThat(HttpDateUtil.parseEpoch("Sun Nov  6 08:49:37 1994", 0)).isEqualTo(epoch);
+		assertThat(HttpDateUtil.parseEpoch("'Sun, 06 Nov 1994 08:49:37 GMT'", 0)).isEqualTo(epoch);
+		assertThat(HttpDateUtil.parseEpoch("Sun, 06 Nov 1994 10:49:37 +0200", 0)).isEqualTo(epoch);
+		assertThat(HttpDateUtil.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime()).isEqualTo(epoch);
+
+		String[] invalid = { "", "-1", "0", "Sun, 06 Nov 1994", "Sun, 06 Xyz 1994 08:49:37 GMT",
+				"Sun, 06 Nov 1994 25:49:37 GMT", "Sun, 06 Nov 1994 08:49:37 CEST", "Sun Nov  6 08:49:37 94",
+				"Sun, 06 Nov 1994 25:49:37 +0200", "Sun, 06 Nov 1994 25:49:37 -0500" };
+		for (String value : invalid) {
+			assertThat(HttpDateUtil.parseEpoch(value, -7)).isEqualTo(-7);
+		}
+		try {
+			HttpDateUtil.parseDate("garbage");
+			Fail.fail("Expected ParseException");
+		} catch (ParseException px) {
+			//ok
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat(HttpDateUtil.PATTERN_RFC1123, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; ++i) {
+			long millis = (random.nextLong() % 4000000000000L) / 1000 * 1000; //1843 - 2096
+			String expected = format.format(new Date(millis));
+			assertThat(HttpDateUtil.formatEpoch(millis)).isEqualTo(expected);
+			assertThat(HttpDateUtil.parseEpoch(expected, 0)).isEqualTo(millis);
+		}
+	}
+
+	@Test
+	public void multival() throws Exception {
+		//unsorted insertion keeps order of values with same name
+		Multival parameters = new Multival();
+		parameters.add("b", "b1");
+		parameters.add("a", "a1");
+		parameters.add("c", "c1");
+		parameters.add("a", "a2", "a3");
+		parameters.add("A", "A1");
+		assertThat(parameters.size()).isEqualTo(4);
+		assertThat(parameters.names()).containsExactly("A", "a", "b", "c");
+		assertThat(parameters.get("a")).containsExactly("a1", "a2", "a3");
+		assertThat(parameters.getFirst("a")).isEqualTo("a1");
+		assertThat(parameters.getLast("a")).isEqualTo("a3");
+		assertThat(parameters.get("x")).isNull();
+		assertThat(parameters.toString()).isEqualTo("{A=[A1], a=[a1, a2, a3], b=[b1], c=[c1]}");
+
+		parameters.set("a", "a0");
+		assertThat(parameters.get("a")).containsExactly("a0");
+		assertThat(parameters.getFirst("b")).isEqualTo("b1");
+		assertThat(parameters.getFirst("c")).isEqualTo("c1");
+
+		//headers are case insensitive
+		Multival headers = new Multival(true);
+		headers.add("content-type", "text/plain");
+		headers.add("Content-Type", "text/html");
+		headers.add("ETag", "abc");
+		assertThat(headers.size()).isEqualTo(2);
+		assertThat(headers.get("CONTENT-TYPE")).containsExactly("text/plain", "text/html");
+		assertThat(headers.getFirst("etag")).isEqualTo("abc");
+
+		Multival copy = new Multival(true);
+		copy.add("ETAG", "abc");
+		copy.add("Content-type", "text/plain", "text/html");
+		assertThat(copy).isEqualTo(headers);
+		assertThat(copy.hashCode()).isEqualTo(headers.hashCode());
+		assertThat(copy).isNotEqualTo(parameters);
+
+		java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+		java.io.ObjectOutputStream oos = new java.io.ObjectOutputStream(baos);
+		oos.writeObject(headers);
+		oos.close();
+		Multival deserialized = (Multival) new java.io.ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))
+				.readObject();
+		assertThat(deserialized).isEqualTo(headers);
+		assertThat(deserialized.getLast("Content-Type")).isEqualTo("text/html");
+	}
+
+	@Test
+	public void cacheKey() {
+		//reference vector of MurmurHash3_x64_128
+		byte[] hello = "hello".getBytes(Charset.forName("US-ASCII"));
+		long[] hash = CacheKeyGenerator.murmur3(hello, hello.length, 0);
+		assertThat(hash[0]).isEqualTo(0xcbd8a7b341bd9b02L);
+		assertThat(hash[1]).isEqualTo(0x5b1e906a48ae1d19L);
+
+		SimpleHttpSender sender = new SimpleHttpSender("www.somewhere.com");
+		GetRequest request = new GetRequest("path");
+		request.addParameter("b", 2).addParameter("a", 1);
+		request.setHeader("Accept", "text/plain");
+		String key = sender.getCacheKey(request);
+		assertThat(key).hasSize(32).matches("[0-9a-f]+");
+		assertThat(sender.getCacheKey(request)).isSameAs(key); //remembered
+
+		//same content in different order, repeated slash and header case
+		GetRequest same = new GetRequest("//path");
+		same.addParameter("a", 1).addParameter("b", 2);
+		same.setHeader("accept", "text/plain");
+		assertThat(sender.getCacheKey(same)).isEqualTo(key);
+
+		//conditional headers are not part of key
+		request.setHeader("If-None-Match", "\"abc\"");
+		assertThat(sender.getCacheKey(request)).isEqualTo(key);
+
+		//modification through Multival is noticed
+		request.getParameters().add("c", "3");
+		String modified = sender.getCacheKey(request);
+		assertThat(modified).isNotEqualTo(key);
+		assertThat(sender.getCacheKey(new GetRequest("path").addParameter("a", 1))).isNotEqualTo(key);
+		assertThat(sender.getCacheKey(new DeleteRequest("path").addParameter("a", 1).addParameter("b", 2)
+				.setHeader("Accept", "text/plain"))).isNotEqualTo(key);
+		assertThat(new SimpleHttpSender("www.elsewhere.com").getCacheKey(same)).isNotEqualTo(key);
+		request.getHeaders().get("Accept").set(0, "text/html");
+		assertThat(sender.getCacheKey(request)).isNotEqualTo(modified);
+
+		//prefixed 64 bit key with selected headers only
+		CacheKeyGenerator generator = new CacheKeyGenerator("ns:", 64, "Accept-Language");
+		sender.setCacheKeyGenerator(generator);
+		String short1 = sender.getCacheKey(same);
+		assertThat(short1).hasSize(19).startsWith("ns:");
+		same.setHeader("Accept", "text/html");
+		assertThat(sender.getCacheKey(same)).isEqualTo(short1);
+		same.setHeader("Accept-Language", "en");
+		assertThat(sender.getCacheKey(same)).isNotEqualTo(short1);
+		assertThat(generator.getBinaryKey(sender, same)).hasSize(8);
+
+		try {
+			new CacheKeyGenerator("name space", 128);
+			Fail.fail("Previous statemet must throw IllegalArgumentException");
+		} catch (IllegalArgumentException iax) {
+			//expected
+		}
+	}
+
+	/**
+	 * Allocation benchmark of path and query building. Run manually - needs HotSpot ThreadMXBean
+	 */
+	//@Test
+	public void pathAndQueryAllocation() throws Exception {
+		SimpleHttpSender sender = new SimpleHttpSender("www.somewhere.com/api/v1");
+		GetRequest request = new GetRequest("items");
+		request.addParameter("query", "žluťoučký kůň");
+		request.addParameter("page", 5);
+		request.addParameter("size", 50);
+		request.addParameter(";version", "2");
+
+		com.sun.management.ThreadMXBean mxbean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		int loops = 1000000;
+		for (int round = 0; round < 3; ++round) { //first rounds are warmup
+			long allocated = mxbean.getThreadAllocatedBytes(threadId);
+			long started = System.nanoTime();
+			for (int i = 0; i < loops; ++i) {
+				sender.getPathAndQuery(request);
+			}
+			long nanos = System.nanoTime() - started;
+			allocated = mxbean.getThreadAllocatedBytes(threadId) - allocated;
+			System.out.println("getPathAndQuery " + (allocated / loops) + " bytes/op " + (nanos / loops) + " ns/op");
+		}
+	}
+
 }
@@ -0,0 +1,143 @@
+package com.nature.client.http;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.nature.client.http.BufferPool.PooledBuffer;
+import com.nature.client.http.HttpSender.Multival;
+import com.nature.client.http.ResponseExtractor.ExtractedResponse;
+
+/**
+ * 
+ * @author martin.vanek
+ *
+ */
+public class TransferTest {
+
+	private JokerServer server = new JokerServer();
+
+	@BeforeClass
+	public void setup() throws Exception {
+		this.server.start();
+	}
+
+	@AfterClass
+	public void destroy() throws Exception {
+		this.server.stop();
+	}
+
+	@Test
+	public void download() throws Exception {
+		String url = "localhost:" + server.getHttpPort();
+		download(new HttpClient4Config(url).buildSender());
+		download(new HttpClient3Config(url).buildSender());
+		download(new SimpleHttpSender(url));
+		download(new NioHttpConfig(url).buildSender());
+	}
+
+	private void download(HttpSender sender) throws Exception {
+		int size = 5 * 1024 * 1024 + 13;
+		File file = File.createTempFile("cashew-", ".bin");
+		file.deleteOnExit();
+		DownloadResult result = sender.download(new GetRequest().addParameter("dosize", size), file);
+		assertThat(result.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+		assertThat(result.getBytes()).isEqualTo(size);
+		assertThat(file.length()).isEqualTo(size);
+		FileInputStream input = new FileInputStream(file);
+		try {
+			assertThat(input.skip(8193)).isEqualTo(8193);
+			assertThat(input.read()).isEqualTo(1); //content repeats every 8192 bytes
+		} finally {
+			input.close();
+		}
+		file.delete();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		result = sender.download(new GetRequest().addParameter("dosize", 100), Channels.newChannel(output));
+		assertThat(result.getBytes()).isEqualTo(100);
+		assertThat(output.toByteArray()[99]).isEqualTo((byte) 99);
+		sender.close();
+	}
+
+	@Test
+	public void upload() throws Exception {
+		File file = File.createTempFile("cashew-", ".bin");
+		file.deleteOnExit();
+		int size = 1024 * 1024 + 7;
+		FileOutputStream output = new FileOutputStream(file);
+		for (int i = 0; i < size; ++i) {
+			output.write(i);
+		}
+		output.close();
+
+		String url = "localhost:" + server.getHttpPort();
+		upload(new HttpClient4Config(url).buildSender(), file);
+		upload(new HttpClient3Config(url).buildSender(), file);
+		upload(new SimpleHttpSender(url), file);
+		upload(new NioHttpConfig(url).buildSender(), file);
+		file.delete();
+	}
+
+	private void upload(HttpSender sender, File file) throws Exception {
+		PutRequest request = new PutRequest();
+		request.addParameter("doecho", 1);
+		request.setBodyFile(file, "application/octet-stream");
+		//file body is repeatable
+		for (int i = 0; i < 2; ++i) {
+			ExtractedResponse<byte[]> extracted = sender.extract(request, ResponseExtractor.BYTES);
+			assertThat(extracted.getResponse().getCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+			byte[] bytes = extracted.getExtracted();
+			assertThat(bytes.length).isEqualTo((int) file.length());
+			assertThat(bytes[bytes.length - 1]).isEqualTo((byte) (bytes.length - 1));
+		}
+		sender.close();
+	}
+
+	@Test
+	public void reading() throws Exception {
+		HttpSender sender = new HttpClient4Config("localhost:" + server.getHttpPort()).buildSender();
+		//exact Content-Length
+		byte[] bytes = sender.extract(new GetRequest().addParameter("dosize", 100000), ResponseExtractor.BYTES)
+				.getExtracted();
+		assertThat(bytes.length).isEqualTo(100000);
+		assertThat(bytes[99999]).isEqualTo((byte) (99999 % 8192));
+		//chunked - unknown length
+		PostRequest request = new PostRequest();
+		request.addParameter("doecho", 1);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; ++i) {
+			sb.append("Příliš žluťoučký kůň ").append(i).append('\n');
+		}
+		request.setBodyString(sb.toString(), "text/plain; charset=utf-8");
+		String string = sender.extract(request, ResponseExtractor.STRING).getExtracted();
+		assertThat(string).isEqualTo(sb.toString());
+		sender.close();
+
+		//lying Content-Length must not drive allocation
+		Multival headers = new Multival(true);
+		headers.add("Content-Length", String.valueOf(Integer.MAX_VALUE - 1));
+		SenderResponse liar = new SenderResponse(200, "OK", headers, new ByteArrayInputStream(new byte[] { 1, 2, 3 })) {
+
+			@Override
+			public void close() {
+			}
+		};
+		assertThat(HttpHeaderUtil.readAsBytes(liar)).isEqualTo(new byte[] { 1, 2, 3 });
+
+		PooledBuffer buffer = BufferPool.acquire();
+		BufferPool.release(buffer);
+		assertThat(BufferPool.acquire()).isSameAs(buffer);
+		assertThat(BufferPool.acquire()).isNotSameAs(buffer); //taken already
+	}
+}